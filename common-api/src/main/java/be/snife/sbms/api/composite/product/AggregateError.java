@@ -0,0 +1,27 @@
+package be.snife.sbms.api.composite.product;
+
+import lombok.ToString;
+
+@ToString
+public class AggregateError {
+  private final int status;
+  private final String message;
+
+  public AggregateError() {
+    status = 0;
+    message = null;
+  }
+
+  public AggregateError(int status, String message) {
+    this.status = status;
+    this.message = message;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+}
@@ -0,0 +1,28 @@
+package be.snife.sbms.api.composite.product;
+
+import lombok.ToString;
+
+@ToString
+public class BulkIngestError {
+  // line number in the request body, starting at 1
+  private final long line;
+  private final String message;
+
+  public BulkIngestError() {
+    line = 0;
+    message = null;
+  }
+
+  public BulkIngestError(long line, String message) {
+    this.line = line;
+    this.message = message;
+  }
+
+  public long getLine() {
+    return line;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+}
@@ -0,0 +1,37 @@
+package be.snife.sbms.api.composite.product;
+
+import java.util.List;
+
+import lombok.ToString;
+
+@ToString
+public class BulkIngestResult {
+  private final long accepted;
+  private final long rejected;
+  // the first rejected records only, see app.bulk.max-errors
+  private final List<BulkIngestError> errors;
+
+  public BulkIngestResult() {
+    accepted = 0;
+    rejected = 0;
+    errors = null;
+  }
+
+  public BulkIngestResult(long accepted, long rejected, List<BulkIngestError> errors) {
+    this.accepted = accepted;
+    this.rejected = rejected;
+    this.errors = errors;
+  }
+
+  public long getAccepted() {
+    return accepted;
+  }
+
+  public long getRejected() {
+    return rejected;
+  }
+
+  public List<BulkIngestError> getErrors() {
+    return errors;
+  }
+}
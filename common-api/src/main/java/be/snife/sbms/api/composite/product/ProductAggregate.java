@@ -2,16 +2,46 @@ package be.snife.sbms.api.composite.product;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.ToString;
 
 @ToString
 public class ProductAggregate {
   private final int productId;
+  // left out when not requested, see the fields parameter of the composite API
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private final String name;
   private final int weight;
+  // version of the product entity, the ETag of the aggregate is derived from the versions of its parts
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final Integer version;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private final List<RecommendationSummary> recommendations;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private final List<ReviewSummary> reviews;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private final ServiceAddresses serviceAddresses;
+  @JsonInclude(JsonInclude.Include.NON_EMPTY)
+  private final List<String> missingSections;
+  // sections holding only their first page, the stream of the composite API returns all of them
+  @JsonInclude(JsonInclude.Include.NON_EMPTY)
+  private final List<String> truncatedSections;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final AggregateError error;
+
+  public ProductAggregate() {
+    productId = 0;
+    name = null;
+    weight = 0;
+    version = null;
+    recommendations = null;
+    reviews = null;
+    serviceAddresses = null;
+    missingSections = null;
+    truncatedSections = null;
+    error = null;
+  }
 
   public ProductAggregate(
     int productId,
@@ -21,12 +51,79 @@ public class ProductAggregate {
     List<ReviewSummary> reviews,
     ServiceAddresses serviceAddresses) {
 
+    this(productId, name, weight, recommendations, reviews, serviceAddresses, null);
+  }
+
+  /**
+   * Partial aggregate: the sections listed in missingSections ("recommendations", "reviews") could not be
+   * fetched in time and are left out.
+   */
+  public ProductAggregate(
+    int productId,
+    String name,
+    int weight,
+    List<RecommendationSummary> recommendations,
+    List<ReviewSummary> reviews,
+    ServiceAddresses serviceAddresses,
+    List<String> missingSections) {
+
+    this(productId, name, weight, null, recommendations, reviews, serviceAddresses, missingSections);
+  }
+
+  public ProductAggregate(
+    int productId,
+    String name,
+    int weight,
+    Integer version,
+    List<RecommendationSummary> recommendations,
+    List<ReviewSummary> reviews,
+    ServiceAddresses serviceAddresses,
+    List<String> missingSections) {
+
+    this(productId, name, weight, version, recommendations, reviews, serviceAddresses, missingSections, null);
+  }
+
+  /**
+   * The sections listed in truncatedSections ("recommendations", "reviews") hold more entities than the page
+   * of the aggregate, only the first page is returned.
+   */
+  public ProductAggregate(
+    int productId,
+    String name,
+    int weight,
+    Integer version,
+    List<RecommendationSummary> recommendations,
+    List<ReviewSummary> reviews,
+    ServiceAddresses serviceAddresses,
+    List<String> missingSections,
+    List<String> truncatedSections) {
+
     this.productId = productId;
     this.name = name;
     this.weight = weight;
+    this.version = version;
     this.recommendations = recommendations;
     this.reviews = reviews;
     this.serviceAddresses = serviceAddresses;
+    this.missingSections = missingSections;
+    this.truncatedSections = truncatedSections;
+    this.error = null;
+  }
+
+  /**
+   * Placeholder for a product that could not be aggregated, used by the batch read to report per-item errors.
+   */
+  public ProductAggregate(int productId, AggregateError error) {
+    this.productId = productId;
+    this.name = null;
+    this.weight = 0;
+    this.version = null;
+    this.recommendations = null;
+    this.reviews = null;
+    this.serviceAddresses = null;
+    this.missingSections = null;
+    this.truncatedSections = null;
+    this.error = error;
   }
 
   public int getProductId() {
@@ -41,6 +138,10 @@ public class ProductAggregate {
     return weight;
   }
 
+  public Integer getVersion() {
+    return version;
+  }
+
   public List<RecommendationSummary> getRecommendations() {
     return recommendations;
   }
@@ -52,4 +153,16 @@ public class ProductAggregate {
   public ServiceAddresses getServiceAddresses() {
     return serviceAddresses;
   }
+
+  public List<String> getMissingSections() {
+    return missingSections;
+  }
+
+  public List<String> getTruncatedSections() {
+    return truncatedSections;
+  }
+
+  public AggregateError getError() {
+    return error;
+  }
 }
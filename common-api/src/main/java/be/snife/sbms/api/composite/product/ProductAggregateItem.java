@@ -0,0 +1,87 @@
+package be.snife.sbms.api.composite.product;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.ToString;
+
+/**
+ * One element of the streamed representation of a product aggregate: the product header, followed by one item
+ * per recommendation and review.
+ */
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductAggregateItem {
+
+  public enum Type {
+    PRODUCT,
+    RECOMMENDATION,
+    REVIEW
+  }
+
+  private final Type type;
+  private final int productId;
+  private final String name;
+  private final Integer weight;
+  private final RecommendationSummary recommendation;
+  private final ReviewSummary review;
+
+  public ProductAggregateItem() {
+    type = null;
+    productId = 0;
+    name = null;
+    weight = null;
+    recommendation = null;
+    review = null;
+  }
+
+  public ProductAggregateItem(int productId, String name, int weight) {
+    this.type = Type.PRODUCT;
+    this.productId = productId;
+    this.name = name;
+    this.weight = weight;
+    this.recommendation = null;
+    this.review = null;
+  }
+
+  public ProductAggregateItem(int productId, RecommendationSummary recommendation) {
+    this.type = Type.RECOMMENDATION;
+    this.productId = productId;
+    this.name = null;
+    this.weight = null;
+    this.recommendation = recommendation;
+    this.review = null;
+  }
+
+  public ProductAggregateItem(int productId, ReviewSummary review) {
+    this.type = Type.REVIEW;
+    this.productId = productId;
+    this.name = null;
+    this.weight = null;
+    this.recommendation = null;
+    this.review = review;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public int getProductId() {
+    return productId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Integer getWeight() {
+    return weight;
+  }
+
+  public RecommendationSummary getRecommendation() {
+    return recommendation;
+  }
+
+  public ReviewSummary getReview() {
+    return review;
+  }
+}
@@ -1,17 +1,21 @@
 package be.snife.sbms.api.composite.product;
 
+import java.util.List;
+
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Tag(name = "ProductComposite", description = "REST API for composite product information")
@@ -42,6 +46,29 @@ public interface ProductCompositeService {
 	@ResponseStatus(HttpStatus.ACCEPTED)
 	Mono<Void> createProduct(@RequestBody ProductAggregate body);
 
+	/**
+	 * Sample usage: "curl -X POST $HOST:$PORT/product-composite/bulk -H "Content-Type: application/x-ndjson"
+	 * --data-binary @products.ndjson".
+	 *
+	 * @param lines the composite products, one JSON document per line
+	 * @return the number of accepted and rejected composite products
+	 */
+	@Operation(summary = "Creates composite products in bulk.", description = """
+			 # Normal response
+			  The request body holds one composite product per line (**application/x-ndjson**). The body is read as it
+			  arrives, the composite products are split up into product-info, recommendation and review entities and
+			  handed to the message broker in batches. The response holds the number of accepted and rejected composite
+			  products.
+
+			  # Rejected composite products
+			  A line that is not a valid composite product, or with a productId below 1, is rejected without failing the
+			  request. The first rejected lines are listed in the response with their line number and error message.
+			""")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "OK"),
+			@ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}") })
+	@PostMapping(value = "/product-composite/bulk", consumes = "application/x-ndjson", produces = "application/json")
+	Mono<BulkIngestResult> createProducts(@RequestBody Flux<String> lines);
+
 	/**
 	 * Sample usage: "curl $HOST:$PORT/product-composite/1".
 	 *
@@ -56,6 +83,13 @@ public interface ProductCompositeService {
 			   1. Recommendations
 			   1. Service Addresses\n(technical information regarding the addresses of the microservices that created the response)
 
+			   Reviews and recommendations hold at most one page each. A section with more entities is listed in
+			   **truncatedSections**, the stream of the composite view returns all of them.
+
+			   The response has a strong ETag combining the versions of the product, its recommendations and its reviews.
+			   A request with a matching If-None-Match header gets a **304 - Not Modified** response, without calling
+			   the core services when the aggregate is cached.
+
 			   # Expected partial and error responses
 			   In the following cases, only a partial response be created (used to simplify testing of error conditions)
 
@@ -75,12 +109,87 @@ public interface ProductCompositeService {
 			   422 - An **Unprocessable Entity** error will be returned
 			""")
 	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "OK"),
+			@ApiResponse(responseCode = "304", description = "Not Modified, the aggregate matches the If-None-Match header"),
 			@ApiResponse(responseCode = "400", description = "Bad Request, invalid format of the request. See response message for more information"),
 			@ApiResponse(responseCode = "404", description = "Not found, the specified id does not exist"),
 			@ApiResponse(responseCode = "422", description = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information") })
 	@GetMapping(value = "/product-composite/{productId}", produces = "application/json")
 	Mono<ProductAggregate> getProduct(@PathVariable int productId);
 
+	/**
+	 * Sample usage: "curl $HOST:$PORT/product-composite/1?fields=name,reviews.subject".
+	 *
+	 * @param productId Id of the product
+	 * @param fields the fields and sections to return
+	 * @return the composite product info, limited to the requested fields
+	 */
+	@Operation(summary = "Returns the requested fields of a composite view of the specified product id", description = """
+			   # Normal response
+			   Only the requested fields are read from the core services, sections that are not requested are not fetched at all.
+			   The productId, weight, recommendationId, rate and reviewId are always returned. Fields that can be requested:
+			   - **name**
+			   - **serviceAddresses**
+			   - **recommendations**, or some of its fields: **recommendations.author**, **recommendations.content**
+			   - **reviews**, or some of its fields: **reviews.author**, **reviews.subject**, **reviews.content**
+
+			   # Expected error responses
+			   The same error responses as for the complete composite view, an unknown field gives a **422 - Unprocessable Entity** error
+			""")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "OK"),
+			@ApiResponse(responseCode = "400", description = "Bad Request, invalid format of the request. See response message for more information"),
+			@ApiResponse(responseCode = "404", description = "Not found, the specified id does not exist"),
+			@ApiResponse(responseCode = "422", description = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information") })
+	@GetMapping(value = "/product-composite/{productId}", params = "fields", produces = "application/json")
+	Mono<ProductAggregate> getProduct(@PathVariable int productId, @RequestParam(value = "fields") List<String> fields);
+
+	/**
+	 * Sample usage: "curl -H "Accept: application/x-ndjson" $HOST:$PORT/product-composite/1/stream".
+	 *
+	 * @param productId Id of the product
+	 * @return the product header, followed by its recommendations and reviews as they arrive
+	 */
+	@Operation(summary = "Streams a composite view of the specified product id", description = """
+			   # Normal response
+			   The composite product is streamed as **application/x-ndjson** or **text/event-stream**, one item per line or event:
+			   1. First the base product information, with type PRODUCT
+			   1. Then the recommendations and reviews, with type RECOMMENDATION and REVIEW, in the order they arrive from the core services
+
+			   The composite service does not hold the complete lists of recommendations and reviews in memory.
+
+			   # Expected error responses
+			   The same error responses as for the non-streaming composite view are returned before the first item is sent
+			""")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "OK"),
+			@ApiResponse(responseCode = "400", description = "Bad Request, invalid format of the request. See response message for more information"),
+			@ApiResponse(responseCode = "404", description = "Not found, the specified id does not exist"),
+			@ApiResponse(responseCode = "422", description = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information") })
+	@GetMapping(value = "/product-composite/{productId}/stream", produces = { "application/x-ndjson", "text/event-stream" })
+	Flux<ProductAggregateItem> getProductStream(@PathVariable int productId);
+
+	/**
+	 * Sample usage: "curl $HOST:$PORT/product-composite?ids=1,2,3".
+	 *
+	 * @param productIds Ids of the products
+	 * @return the composite product info of each product, in order of completion
+	 */
+	@Operation(summary = "Returns a composite view of each of the specified product ids", description = """
+			   # Normal response
+			   The composite products are fetched in parallel, with a configurable concurrency limit, and returned as each one completes.
+			   The order of the response does not follow the order of the requested ids.
+
+			   # Per-item errors
+			   A product that cannot be returned does not fail the request. It is returned with only its productId and an
+			   **error** object holding the HTTP status and message, e.g. status 404 for a product id that is not found.
+
+			   # Expected error responses
+			   If no ids, or more ids than the configured maximum, are specified an **422 - Unprocessable Entity** error will be returned
+			""")
+	@ApiResponses(value = { @ApiResponse(responseCode = "200", description = "OK"),
+			@ApiResponse(responseCode = "400", description = "Bad Request, invalid format of the request. See response message for more information"),
+			@ApiResponse(responseCode = "422", description = "Unprocessable entity, input parameters caused the processing to fail. See response message for more information") })
+	@GetMapping(value = "/product-composite", produces = { "application/json", "application/x-ndjson" })
+	Flux<ProductAggregate> getProducts(@RequestParam(value = "ids", required = true) List<Integer> productIds);
+
 	/**
 	 * Sample usage: "curl -X DELETE $HOST:$PORT/product-composite/1".
 	 *
@@ -1,5 +1,7 @@
 package be.snife.sbms.api.composite.product;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -10,11 +12,16 @@ public class RecommendationSummary {
 	@Getter	@Setter
 	private int recommendationId;
 	@Getter	@Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	private String author;
 	@Getter	@Setter
 	private int rate;
 	@Getter	@Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	private String content;
+	@Getter	@Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer version;
 
 	
   public RecommendationSummary() {
@@ -22,6 +29,7 @@ public class RecommendationSummary {
 	    this.author = null;
 	    this.rate = 0;
 	    this.content = null;
+	    this.version = null;
 	  }
 	
 	public RecommendationSummary(int recommendationId, String author, int rate,String content) {
@@ -32,4 +40,9 @@ public class RecommendationSummary {
 
 	}
 
+	public RecommendationSummary(int recommendationId, String author, int rate, String content, Integer version) {
+		this(recommendationId, author, rate, content);
+		this.version = version;
+	}
+
 }
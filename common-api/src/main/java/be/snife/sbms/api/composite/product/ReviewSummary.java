@@ -1,5 +1,7 @@
 package be.snife.sbms.api.composite.product;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -12,19 +14,27 @@ public class ReviewSummary {
 	private int reviewId;
 	@Getter
 	@Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	private String author;
 	@Getter
 	@Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	private String subject;
 	@Getter
 	@Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	private String content;
+	@Getter
+	@Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer version;
 
 	public ReviewSummary() {
 		this.reviewId = 0;
 		this.author = null;
 		this.subject = null;
 		this.content = null;
+		this.version = null;
 	}
 
 	public ReviewSummary(int reviewId, String author, String subject, String content) {
@@ -34,4 +44,9 @@ public class ReviewSummary {
 		this.content = content;
 	}
 
+	public ReviewSummary(int reviewId, String author, String subject, String content, Integer version) {
+		this(reviewId, author, subject, content);
+		this.version = version;
+	}
+
 }
@@ -1,11 +1,11 @@
 package be.snife.sbms.api.core.product;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
-@AllArgsConstructor
 @ToString
 public class Product {
 	@Getter	@Setter
@@ -16,12 +16,24 @@ public class Product {
 	private int weight;
 	@Getter @Setter
 	private String serviceAddress;
+	// version of the entity, the ETag of the product is derived from it
+	@Getter @Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer version;
 
 	public Product() {
 		productId = 0;
 		name = null;
 		weight = 0;
 		serviceAddress = null;
+		version = null;
+	}
+
+	public Product(int productId, String name, int weight, String serviceAddress) {
+		this.productId = productId;
+		this.name = name;
+		this.weight = weight;
+		this.serviceAddress = serviceAddress;
 	}
 
 }
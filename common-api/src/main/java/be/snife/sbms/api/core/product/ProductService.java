@@ -1,14 +1,18 @@
 package be.snife.sbms.api.core.product;
 
+import java.util.List;
+
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 import be.snife.sbms.api.event.Event;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductService {
@@ -16,11 +20,35 @@ public interface ProductService {
 	/**
 	 * Sample usage: "curl $HOST:$PORT/product/1".
 	 *
+	 * The response has a strong ETag derived from the version of the product, a request with a matching
+	 * If-None-Match header gets a 304 - Not Modified without the product being read.
+	 *
 	 * @param productId Id of the product
 	 * @return the product, if found, else null
 	 */
-	@GetMapping(value = "/product/{productId}", produces = "application/json")
+	@GetMapping(value = "/product/{productId}", produces = { "application/json", "application/x-jackson-smile" })
 	Mono<Product> getProduct(@PathVariable int productId);
+
+	/**
+	 * Sample usage: "curl $HOST:$PORT/product/1?fields=name".
+	 *
+	 * Only reads the requested fields, productId and weight are always returned.
+	 *
+	 * @param productId Id of the product
+	 * @param fields fields to return, only "name" can be selected
+	 * @return the product, if found, else null
+	 */
+	@GetMapping(value = "/product/{productId}", params = "fields", produces = { "application/json", "application/x-jackson-smile" })
+	Mono<Product> getProduct(@PathVariable int productId, @RequestParam(value = "fields") List<String> fields);
+
+	/**
+	 * Sample usage: "curl $HOST:$PORT/product?productIds=1,2,3".
+	 *
+	 * @param productIds Ids of the products
+	 * @return the products that were found, ordered by productId
+	 */
+	@GetMapping(value = "/product", produces = { "application/json", "application/x-ndjson", "application/x-jackson-smile" })
+	Flux<Product> getProducts(@RequestParam(value = "productIds", required = true) List<Integer> productIds);
 	
 	/**
 	 * Sample usage, see below.
@@ -35,6 +63,19 @@ public interface ProductService {
 	@ResponseStatus(HttpStatus.CREATED)
 	Mono<Product> createProduct(@RequestBody Product body);
 
+	/**
+	 * Sample usage: "curl -X POST $HOST:$PORT/product/batch -H "Content-Type: application/json" --data '[...]'".
+	 *
+	 * The products are stored with one unordered bulk write, a product that can not be stored does not stop the
+	 * others: the error is a BulkWriteException listing the products that are not stored.
+	 *
+	 * @param body The new products
+	 * @return The newly created products
+	 */
+	@PostMapping(value = "/product/batch", consumes = "application/json", produces = "application/json")
+	@ResponseStatus(HttpStatus.CREATED)
+	Flux<Product> createProducts(@RequestBody List<Product> body);
+
 
 	/**
 	 * Sample usage: "curl -X DELETE $HOST:$PORT/product/1".
@@ -1,11 +1,11 @@
 package be.snife.sbms.api.core.recommendation;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
-@AllArgsConstructor
 @ToString
 public class Recommendation {
 
@@ -21,6 +21,10 @@ public class Recommendation {
 	private String content;
 	@Getter @Setter
 	private String serviceAddress;
+	// version of the entity, the ETag of the recommendations is derived from it
+	@Getter @Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer version;
 
 	public Recommendation() {
 		productId = 0;
@@ -29,6 +33,17 @@ public class Recommendation {
 		rate = 0;
 		content = null;
 		serviceAddress = null;
+		version = null;
+	}
+
+	public Recommendation(int productId, int recommendationId, String author, int rate, String content,
+			String serviceAddress) {
+		this.productId = productId;
+		this.recommendationId = recommendationId;
+		this.author = author;
+		this.rate = rate;
+		this.content = content;
+		this.serviceAddress = serviceAddress;
 	}
 
 }
@@ -19,12 +19,46 @@ public interface RecommendationService {
 	/**
 	 * Sample usage: "curl $HOST:$PORT/recommendation?productId=1".
 	 *
+	 * The response has a strong ETag derived from the ids and versions of the recommendations, a request with
+	 * a matching If-None-Match header gets a 304 - Not Modified without the recommendations being read.
+	 *
 	 * @param productId Id of the product
 	 * @return the recommendations of the product
 	 */
-	@GetMapping(value = "/recommendation", produces = "application/json")
+	@GetMapping(value = "/recommendation", produces = { "application/json", "application/x-jackson-smile" })
 	Flux<Recommendation> getRecommendations(@RequestParam(value = "productId", required = true) int productId);
 
+	/**
+	 * Sample usage: "curl $HOST:$PORT/recommendation?productId=1&limit=20&after=40".
+	 *
+	 * Keyset pagination on recommendationId: returns at most limit recommendations with a
+	 * recommendationId greater than after, sorted on recommendationId. The recommendationId of the
+	 * last recommendation is the after value of the next page, a page with less than limit
+	 * recommendations is the last one.
+	 *
+	 * With fields only the requested fields are read, the ids and the rate are always returned.
+	 *
+	 * @param productId Id of the product
+	 * @param limit maximum number of recommendations to return
+	 * @param after recommendationId of the last recommendation of the previous page, leave out for the first page
+	 * @param fields fields to return ("author", "content"), leave out for all fields
+	 * @return a page of recommendations of the product
+	 */
+	@GetMapping(value = "/recommendation", params = { "productId", "limit" }, produces = { "application/json", "application/x-jackson-smile" })
+	Flux<Recommendation> getRecommendationsPage(@RequestParam(value = "productId", required = true) int productId,
+			@RequestParam(value = "limit", required = true) int limit,
+			@RequestParam(value = "after", required = false) Integer after,
+			@RequestParam(value = "fields", required = false) List<String> fields);
+
+	/**
+	 * Sample usage: "curl $HOST:$PORT/recommendation?productIds=1,2,3".
+	 *
+	 * @param productIds Ids of the products
+	 * @return the recommendations of the products, grouped by productId
+	 */
+	@GetMapping(value = "/recommendation", params = "productIds", produces = { "application/json", "application/x-ndjson", "application/x-jackson-smile" })
+	Flux<Recommendation> getRecommendationsForProducts(@RequestParam(value = "productIds", required = true) List<Integer> productIds);
+
 	/**
 	 * Sample usage, see below.
 	 *
@@ -40,6 +74,19 @@ public interface RecommendationService {
 	@ResponseStatus(HttpStatus.CREATED)
 	Mono<Recommendation> createRecommendation(@RequestBody Recommendation body);
 
+	/**
+	 * Sample usage: "curl -X POST $HOST:$PORT/recommendation/batch -H "Content-Type: application/json" --data '[...]'".
+	 *
+	 * The recommendations are stored with one unordered bulk write, a recommendation that can not be stored does
+	 * not stop the others: the error is a BulkWriteException listing the recommendations that are not stored.
+	 *
+	 * @param body The new recommendations
+	 * @return The newly created recommendations
+	 */
+	@PostMapping(value = "/recommendation/batch", consumes = "application/json", produces = "application/json")
+	@ResponseStatus(HttpStatus.CREATED)
+	Flux<Recommendation> createRecommendations(@RequestBody List<Recommendation> body);
+
 	/**
 	 * Sample usage: "curl -X DELETE $HOST:$PORT/recommendation?productId=1".
 	 *
@@ -1,11 +1,11 @@
 package be.snife.sbms.api.core.review;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
-@AllArgsConstructor
 @ToString
 public class Review {
 
@@ -21,6 +21,10 @@ public class Review {
 	private String content;
 	@Getter @Setter
 	private String serviceAddress;
+	// version of the entity, the ETag of the reviews is derived from it
+	@Getter @Setter
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer version;
 
 	public Review() {
 		productId = 0;
@@ -29,6 +33,16 @@ public class Review {
 		subject = null;
 		content = null;
 		serviceAddress = null;
+		version = null;
+	}
+
+	public Review(int productId, int reviewId, String author, String subject, String content, String serviceAddress) {
+		this.productId = productId;
+		this.reviewId = reviewId;
+		this.author = author;
+		this.subject = subject;
+		this.content = content;
+		this.serviceAddress = serviceAddress;
 	}
 
 }
@@ -19,12 +19,45 @@ public interface ReviewService {
 	/**
 	 * Sample usage: "curl $HOST:$PORT/review?productId=1".
 	 *
+	 * The response has a strong ETag derived from the ids and versions of the reviews, a request with
+	 * a matching If-None-Match header gets a 304 - Not Modified without the reviews being read.
+	 *
 	 * @param productId Id of the product
 	 * @return the reviews of the product
 	 */
-	@GetMapping(value = "/review", produces = "application/json")
+	@GetMapping(value = "/review", produces = { "application/json", "application/x-jackson-smile" })
 	Flux<Review> getReviews(@RequestParam(value = "productId", required = true) int productId);
 
+	/**
+	 * Sample usage: "curl $HOST:$PORT/review?productId=1&limit=20&after=40".
+	 *
+	 * Keyset pagination on reviewId: returns at most limit reviews with a reviewId greater than after,
+	 * sorted on reviewId. The reviewId of the last review is the after value of the next page, a page
+	 * with less than limit reviews is the last one.
+	 *
+	 * With fields only the requested fields are read, the ids are always returned.
+	 *
+	 * @param productId Id of the product
+	 * @param limit maximum number of reviews to return
+	 * @param after reviewId of the last review of the previous page, leave out for the first page
+	 * @param fields fields to return ("author", "subject", "content"), leave out for all fields
+	 * @return a page of reviews of the product
+	 */
+	@GetMapping(value = "/review", params = { "productId", "limit" }, produces = { "application/json", "application/x-jackson-smile" })
+	Flux<Review> getReviewsPage(@RequestParam(value = "productId", required = true) int productId,
+			@RequestParam(value = "limit", required = true) int limit,
+			@RequestParam(value = "after", required = false) Integer after,
+			@RequestParam(value = "fields", required = false) List<String> fields);
+
+	/**
+	 * Sample usage: "curl $HOST:$PORT/review?productIds=1,2,3".
+	 *
+	 * @param productIds Ids of the products
+	 * @return the reviews of the products, grouped by productId
+	 */
+	@GetMapping(value = "/review", params = "productIds", produces = { "application/json", "application/x-ndjson", "application/x-jackson-smile" })
+	Flux<Review> getReviewsForProducts(@RequestParam(value = "productIds", required = true) List<Integer> productIds);
+
 	/**
 	 * Sample usage, see below.
 	 *
@@ -38,6 +71,18 @@ public interface ReviewService {
 	@PostMapping(value = "/review", consumes = "application/json", produces = "application/json")
 	Mono<Review> createReview(@RequestBody Review body);
 
+	/**
+	 * Sample usage: "curl -X POST $HOST:$PORT/review/batch -H "Content-Type: application/json" --data '[...]'".
+	 *
+	 * The reviews are stored with JDBC batch inserts, a review that can not be stored does not stop the others: the
+	 * error is a BulkWriteException listing the reviews that are not stored.
+	 *
+	 * @param body The new reviews
+	 * @return The newly created reviews
+	 */
+	@PostMapping(value = "/review/batch", consumes = "application/json", produces = "application/json")
+	Flux<Review> createReviews(@RequestBody List<Review> body);
+
 	/**
 	 * Sample usage: "curl -X DELETE $HOST:$PORT/review?productId=1".
 	 *
@@ -2,6 +2,7 @@ package be.snife.sbms.api.event;
 
 import static java.time.ZonedDateTime.now;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.datatype.jsr310.ser.ZonedDateTimeSerializer;
 
@@ -9,12 +10,15 @@ import lombok.Getter;
 import lombok.ToString;
 
 import java.time.ZonedDateTime;
+import java.util.List;
 
 @ToString
 public class Event<K, T> {
 
   public enum Type {
     CREATE,
+    // creates all items of the event, they belong to the entity with the key of the event
+    CREATE_BATCH,
     DELETE
   }
 
@@ -24,19 +28,29 @@ public class Event<K, T> {
   private final K key;
   @Getter
   private final T data;
+  // only set for a CREATE_BATCH event
+  @Getter
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final List<T> items;
   private final ZonedDateTime eventCreatedAt;
 
   public Event() {
 	    this.eventType = null;
 	    this.key = null;
 	    this.data = null;
+	    this.items = null;
 	    this.eventCreatedAt = null;
 	  }
 
   public Event(Type eventType, K key, T data) {
+    this(eventType, key, data, null);
+  }
+
+  public Event(Type eventType, K key, T data, List<T> items) {
     this.eventType = eventType;
     this.key = key;
     this.data = data;
+    this.items = items;
     this.eventCreatedAt = now();
   }
 
@@ -0,0 +1,21 @@
+package be.snife.sbms.api.exceptions;
+
+import java.util.List;
+
+/**
+ * Some items of a bulk write were not written, the other items are.
+ */
+public class BulkWriteException extends RuntimeException {
+
+  // indexes in the list of items passed to the bulk write
+  private final List<Integer> failedIndexes;
+
+  public BulkWriteException(String message, List<Integer> failedIndexes, Throwable cause) {
+    super(message, cause);
+    this.failedIndexes = failedIndexes;
+  }
+
+  public List<Integer> getFailedIndexes() {
+    return failedIndexes;
+  }
+}
@@ -0,0 +1,105 @@
+package be.snife.sbms.util.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.filter.reactive.ServerWebExchangeContextFilter;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Conditional GET with strong ETags derived from entity versions.
+ *
+ * The current request is taken from the Reactor context, where the ServerWebExchangeContextFilter puts it,
+ * so the service interfaces keep returning the API model. Outside of a request (e.g. a service method called
+ * directly) the read is returned as it is.
+ */
+@Configuration
+public class ConditionalGet {
+
+	@Bean
+	public ServerWebExchangeContextFilter serverWebExchangeContextFilter() {
+		return new ServerWebExchangeContextFilter();
+	}
+
+	/**
+	 * Strong ETag for the given parts, e.g. an id and its version.
+	 */
+	public static String etag(Object... parts) {
+		String value = Arrays.stream(parts).map(String::valueOf).collect(Collectors.joining(","));
+		return "\"" + DigestUtils.md5DigestAsHex(value.getBytes(UTF_8)) + "\"";
+	}
+
+	/**
+	 * When the request has an If-None-Match header, currentEtag is checked first: on a match the response
+	 * is a 304 - Not Modified and read is not subscribed to. currentEtag should be a cheap lookup, e.g. of the
+	 * versions only, it may be empty when the ETag is not known. Otherwise read is subscribed to and the
+	 * ETag header is set from its result.
+	 */
+	public static <T> Mono<T> get(Mono<String> currentEtag, Mono<T> read, Function<T, String> etagOf) {
+
+		return Mono.deferContextual(context -> {
+			Optional<ServerWebExchange> exchange = context.getOrEmpty(ServerWebExchangeContextFilter.EXCHANGE_CONTEXT_ATTRIBUTE);
+			if (exchange.isEmpty()) {
+				return read;
+			}
+
+			// the resource may have changed since the lookup, so the result is checked as well
+			Mono<T> readAndTag = read.filter(value -> !exchange.get().checkNotModified(etagOf.apply(value)));
+			if (!exchange.get().getRequest().getHeaders().containsKey(HttpHeaders.IF_NONE_MATCH)) {
+				return readAndTag;
+			}
+			return currentEtag.map(etag -> exchange.get().checkNotModified(etag))
+					.defaultIfEmpty(false)
+					.flatMap(notModified -> notModified ? Mono.<T>empty() : readAndTag);
+		});
+	}
+
+	/**
+	 * A page of a collection is tagged with the ETag of the whole collection, e.g. of all the ids and versions,
+	 * so the ETag of the first page changes when an entity on a later page changes. The collection ETag is read
+	 * before the page: when the collection changes in between, the page is newer than its ETag and the next
+	 * conditional request gets the current page.
+	 */
+	public static <T> Flux<T> getPage(Mono<String> collectionEtag, Flux<T> page) {
+
+		return Mono.deferContextual(context -> {
+			Optional<ServerWebExchange> exchange = context.getOrEmpty(ServerWebExchangeContextFilter.EXCHANGE_CONTEXT_ATTRIBUTE);
+			if (exchange.isEmpty()) {
+				return page.collectList();
+			}
+			return collectionEtag.map(etag -> exchange.get().checkNotModified(etag))
+					.defaultIfEmpty(false)
+					.flatMap(notModified -> notModified ? Mono.<List<T>>empty() : page.collectList());
+		}).flatMapIterable(items -> items);
+	}
+
+	/**
+	 * Whether the current request is a conditional GET, false outside of a request.
+	 */
+	public static Mono<Boolean> isConditional() {
+		return Mono.deferContextual(context -> Mono.just(context
+				.<ServerWebExchange>getOrEmpty(ServerWebExchangeContextFilter.EXCHANGE_CONTEXT_ATTRIBUTE)
+				.map(exchange -> exchange.getRequest().getHeaders().containsKey(HttpHeaders.IF_NONE_MATCH))
+				.orElse(false)));
+	}
+
+	/**
+	 * Like get, for a list. The ETag header must be set before the first item is written, so the items are
+	 * collected first.
+	 */
+	public static <T> Flux<T> getAll(Mono<String> currentEtag, Flux<T> read, Function<List<T>, String> etagOf) {
+		return get(currentEtag, read.collectList(), etagOf).flatMapIterable(items -> items);
+	}
+}
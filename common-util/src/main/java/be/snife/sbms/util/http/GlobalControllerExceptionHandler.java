@@ -1,6 +1,7 @@
 package be.snife.sbms.util.http;
 
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 
 import org.springframework.http.HttpStatus;
@@ -13,6 +14,7 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 import be.snife.sbms.api.exceptions.BadRequestException;
 import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.api.exceptions.NotFoundException;
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
 import lombok.extern.slf4j.Slf4j;
 
 @RestControllerAdvice
@@ -49,6 +51,14 @@ class GlobalControllerExceptionHandler {
 		return createHttpErrorInfo(UNPROCESSABLE_ENTITY, request, ex);
 	}
 
+	@ResponseStatus(SERVICE_UNAVAILABLE)
+	@ExceptionHandler(ServiceUnavailableException.class)
+	public @ResponseBody HttpErrorInfo handleServiceUnavailableException(ServerHttpRequest request,
+			ServiceUnavailableException ex) {
+
+		return createHttpErrorInfo(SERVICE_UNAVAILABLE, request, ex);
+	}
+
 	private HttpErrorInfo createHttpErrorInfo(HttpStatus httpStatus, ServerHttpRequest request, Exception ex) {
 
 		final String path = request.getPath().pathWithinApplication().value();
@@ -0,0 +1,24 @@
+package be.snife.sbms.util.http;
+
+import java.util.List;
+
+import be.snife.sbms.api.exceptions.InvalidInputException;
+
+/**
+ * Validation of the id list of a multi-get read, the same for every core service: 1 to maxIds ids, each of
+ * them positive.
+ */
+public final class MultiGetValidator {
+
+	private MultiGetValidator() {
+	}
+
+	public static void validateIds(String name, List<Integer> ids, int maxIds) {
+		if (ids.isEmpty() || ids.size() > maxIds) {
+			throw new InvalidInputException("Invalid number of " + name + "s: " + ids.size() + ", expected 1 to " + maxIds);
+		}
+		ids.stream().filter(id -> id == null || id < 1).findFirst().ifPresent(id -> {
+			throw new InvalidInputException("Invalid " + name + ": " + id);
+		});
+	}
+}
@@ -0,0 +1,55 @@
+package be.snife.sbms.util.messaging;
+
+import java.util.Collection;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import be.snife.sbms.api.event.Event;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Publishes that the entities of a product are written, after the write. The command events are consumed before
+ * the write, a reader that evicts on them (the aggregate cache of the product composite) can load and keep the
+ * old state. A change event carries the productId as key and no data.
+ *
+ * Publishing is best effort, a failure is logged and not returned to the writer whose write already succeeded.
+ * The writer does not wait for it either: the Mono completes once the change event is queued in the
+ * EventPublisher, in the order of the writes, and does not hold the write for the publish or its acknowledgement.
+ */
+@Slf4j
+public class ChangePublisher {
+
+	public static final String SOURCE_HEADER = "eventSource";
+
+	private final EventPublisher eventPublisher;
+	private final String destination;
+	private final String source;
+
+	public ChangePublisher(EventPublisher eventPublisher, String destination, String source) {
+		this.eventPublisher = eventPublisher;
+		this.destination = destination;
+		this.source = source;
+	}
+
+	public Mono<Void> changed(Event.Type type, int productId) {
+		Message<Event<Integer, ?>> message = MessageBuilder.<Event<Integer, ?>>withPayload(new Event<>(type, productId, null))
+				.setHeader("partitionKey", productId)
+				.setHeader(SOURCE_HEADER, source)
+				.build();
+		return Mono.fromRunnable(() -> eventPublisher.publish(destination, message)
+				.subscribe(v -> { }, ex -> log.warn("Change event {} for productId {} not published to {}: {}", type,
+						productId, destination, ex.toString())));
+	}
+
+	// one event per product, the entities of a batch can belong to several products
+	public Mono<Void> changed(Event.Type type, Collection<Integer> productIds) {
+		return Flux.fromIterable(productIds).distinct().concatMap(productId -> changed(type, productId)).then();
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+}
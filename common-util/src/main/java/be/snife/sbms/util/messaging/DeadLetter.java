@@ -0,0 +1,23 @@
+package be.snife.sbms.util.messaging;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A record of a dead letter destination: the event as it was consumed, with the destination and the exception it
+ * failed with.
+ */
+@Getter
+@AllArgsConstructor
+public class DeadLetter {
+
+	private final int partition;
+	private final long offset;
+	private final String originalTopic;
+	private final String exception;
+	private final String exceptionMessage;
+	// the key of the event in the payload, null when the payload is not an event
+	private final String eventKey;
+	private final byte[] key;
+	private final byte[] payload;
+}
@@ -0,0 +1,59 @@
+package be.snife.sbms.util.messaging;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import be.snife.sbms.api.exceptions.InvalidInputException;
+import be.snife.sbms.util.messaging.DeadLetterReplayer.DeadLetterSummary;
+import be.snife.sbms.util.messaging.DeadLetterReplayer.ReplayProgress;
+
+/**
+ * Sample usage:
+ *
+ * curl $HOST:$PORT/actuator/deadletters: the records of the dead letter destination grouped by exception.
+ *
+ * curl -X POST $HOST:$PORT/actuator/deadletters -H "Content-Type: application/json" --data '{"rate":20}': replays
+ * the records, optionally only those of an "exception", at "rate" records per second with "concurrency" records
+ * at the same time (app.dlq.replay.rate and app.dlq.replay.concurrency by default).
+ *
+ * curl $HOST:$PORT/actuator/deadletters/{id}: the live progress of the replay with the id.
+ */
+@Endpoint(id = "deadletters")
+public class DeadLetterEndpoint {
+
+	private final DeadLetterReplayer replayer;
+	private final int defaultRate;
+	private final int defaultConcurrency;
+
+	public DeadLetterEndpoint(DeadLetterReplayer replayer, int defaultRate, int defaultConcurrency) {
+		this.replayer = replayer;
+		this.defaultRate = defaultRate;
+		this.defaultConcurrency = defaultConcurrency;
+	}
+
+	@ReadOperation
+	public DeadLetterSummary summary() {
+		return replayer.summary();
+	}
+
+	@ReadOperation
+	public ReplayProgress progress(@Selector String id) {
+		return replayer.progress(id);
+	}
+
+	@WriteOperation
+	public ReplayProgress replay(@Nullable String exception, @Nullable Integer rate, @Nullable Integer concurrency) {
+		int replayRate = rate == null ? defaultRate : rate;
+		int replayConcurrency = concurrency == null ? defaultConcurrency : concurrency;
+		if (replayRate < 1) {
+			throw new InvalidInputException("Invalid rate: " + replayRate + ", expected at least 1");
+		}
+		if (replayConcurrency < 1) {
+			throw new InvalidInputException("Invalid concurrency: " + replayConcurrency + ", expected at least 1");
+		}
+		return replayer.replay(exception, replayRate, replayConcurrency);
+	}
+}
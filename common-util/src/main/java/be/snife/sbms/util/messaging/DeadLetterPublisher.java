@@ -0,0 +1,42 @@
+package be.snife.sbms.util.messaging;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import be.snife.sbms.api.event.Event;
+import reactor.core.publisher.Mono;
+
+/**
+ * Publishes an event that can not be processed to the dead letter destination of its binding:
+ * error.[destination].[group], the DLQ of the Kafka binder, with the exception headers of the binder.
+ */
+public class DeadLetterPublisher {
+
+	public static final String ORIGINAL_TOPIC_HEADER = "x-original-topic";
+	public static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+	public static final String EXCEPTION_FQCN_HEADER = "x-exception-fqcn";
+
+	private final EventPublisher eventPublisher;
+	private final String destination;
+	private final String deadLetterDestination;
+
+	public DeadLetterPublisher(EventPublisher eventPublisher, String destination, String group) {
+		this.eventPublisher = eventPublisher;
+		this.destination = destination;
+		this.deadLetterDestination = "error." + destination + "." + group;
+	}
+
+	public Mono<Void> publish(Event<Integer, ?> event, Throwable ex) {
+		Message<Event<Integer, ?>> message = MessageBuilder.<Event<Integer, ?>>withPayload(event)
+				.setHeader("partitionKey", event.getKey())
+				.setHeader(ORIGINAL_TOPIC_HEADER, destination)
+				.setHeader(EXCEPTION_MESSAGE_HEADER, String.valueOf(ex.getMessage()))
+				.setHeader(EXCEPTION_FQCN_HEADER, ex.getClass().getName())
+				.build();
+		return eventPublisher.publish(deadLetterDestination, message);
+	}
+
+	public String getDeadLetterDestination() {
+		return deadLetterDestination;
+	}
+}
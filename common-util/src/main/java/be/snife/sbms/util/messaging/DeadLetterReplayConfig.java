@@ -0,0 +1,50 @@
+package be.snife.sbms.util.messaging;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The deadletters actuator endpoint of a service that consumes events (messageProcessor-in-0 binding), for the
+ * dead letter topic of its binding.
+ */
+@Configuration
+@ConditionalOnClass(name = { "org.springframework.boot.actuate.endpoint.annotation.Endpoint",
+		"org.apache.kafka.clients.consumer.KafkaConsumer" })
+@ConditionalOnProperty("spring.cloud.stream.bindings.messageProcessor-in-0.group")
+public class DeadLetterReplayConfig {
+
+	@Bean
+	public DeadLetterReplayer deadLetterReplayer(EventPublisher eventPublisher, MeterRegistry meterRegistry,
+			ObjectMapper mapper,
+			@Value("${spring.cloud.stream.kafka.binder.brokers}") String brokers,
+			@Value("${spring.cloud.stream.kafka.binder.defaultBrokerPort:9092}") int defaultBrokerPort,
+			@Value("${spring.cloud.stream.bindings.messageProcessor-in-0.destination}") String destination,
+			@Value("${spring.cloud.stream.bindings.messageProcessor-in-0.group}") String group,
+			@Value("${app.dlq.replay.max-records:100000}") int maxRecords) {
+
+		// the brokers of the binder, with the default port of the binder when a broker has none
+		String bootstrapServers = Arrays.stream(brokers.split(","))
+				.map(String::trim)
+				.map(broker -> broker.contains(":") ? broker : broker + ":" + defaultBrokerPort)
+				.collect(Collectors.joining(","));
+		return new DeadLetterReplayer(new KafkaDeadLetterSource(bootstrapServers, destination, group, maxRecords, mapper),
+				eventPublisher, meterRegistry);
+	}
+
+	@Bean
+	public DeadLetterEndpoint deadLetterEndpoint(DeadLetterReplayer deadLetterReplayer,
+			@Value("${app.dlq.replay.rate:50}") int rate,
+			@Value("${app.dlq.replay.concurrency:4}") int concurrency) {
+		return new DeadLetterEndpoint(deadLetterReplayer, rate, concurrency);
+	}
+}
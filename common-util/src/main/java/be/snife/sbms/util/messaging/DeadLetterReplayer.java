@@ -0,0 +1,308 @@
+package be.snife.sbms.util.messaging;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Lists the records of a dead letter destination grouped by exception, and replays them to the destination they
+ * were consumed from.
+ *
+ * A replay publishes the records in windows of one second, at most rate records per window, so the databases of
+ * the service are not flooded after an incident. Within a window at most concurrency records are published at the
+ * same time. The EventPublisher hands the records to the binder on a single thread: without app.publish.confirm a
+ * publish completes when the record is handed over, concurrency then only bounds the records queued for that
+ * thread; with app.publish.confirm=true it bounds the records the broker has not acknowledged yet.
+ *
+ * An event that was dead lettered more than once (same key, same content) is replayed once. One replay runs at a
+ * time, its progress is kept until the next replay starts. The offsets of the records that are replayed, or that
+ * are duplicates of a replayed record, are kept per partition; after each replay the records of a partition are
+ * marked as replayed up to the first record that is not, so a record is listed until it and every record before
+ * it are replayed. The replay of one exception therefore moves the partitions on once the other exceptions before
+ * it are replayed too. The kept offsets are lost on a restart, those records are replayed again.
+ *
+ * Metrics: "events.replayed" (tags destination, outcome = replayed, duplicate or failed).
+ */
+@Slf4j
+public class DeadLetterReplayer {
+
+	private final DeadLetterSource source;
+	private final EventPublisher eventPublisher;
+	private final MeterRegistry meterRegistry;
+
+	private volatile ReplayProgress current;
+	// the offsets replayed per partition, not yet marked as replayed in the source
+	private final Map<Integer, Set<Long>> replayedOffsets = new ConcurrentHashMap<>();
+
+	public DeadLetterReplayer(DeadLetterSource source, EventPublisher eventPublisher, MeterRegistry meterRegistry) {
+		this.source = source;
+		this.eventPublisher = eventPublisher;
+		this.meterRegistry = meterRegistry;
+	}
+
+	public DeadLetterSummary summary() {
+
+		List<DeadLetter> deadLetters = source.read();
+		Map<String, List<DeadLetter>> byException = deadLetters.stream()
+				.collect(Collectors.groupingBy(deadLetter -> String.valueOf(deadLetter.getException()), LinkedHashMap::new,
+						Collectors.toList()));
+
+		List<ExceptionGroup> groups = new ArrayList<>();
+		byException.forEach((exception, records) -> groups.add(new ExceptionGroup(exception, records.size(),
+				records.stream().map(DeadLetter::getEventKey).distinct().count(),
+				records.get(records.size() - 1).getExceptionMessage())));
+		groups.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+		return new DeadLetterSummary(source.getDestination(), deadLetters.size(), groups);
+	}
+
+	/**
+	 * Starts a replay of the records with the exception, or of all records when exception is null, and returns its
+	 * progress. Returns the progress of the running replay when a replay is running.
+	 */
+	public synchronized ReplayProgress replay(String exception, int rate, int concurrency) {
+
+		if (current != null && current.getState() == ReplayState.RUNNING) {
+			return current;
+		}
+		ReplayProgress progress = new ReplayProgress(UUID.randomUUID().toString(), exception, rate, concurrency);
+		current = progress;
+
+		Mono.fromCallable(source::read)
+				.subscribeOn(Schedulers.boundedElastic())
+				.flatMap(deadLetters -> {
+					List<DeadLetter> selected = exception == null ? deadLetters
+							: deadLetters.stream().filter(d -> exception.equals(d.getException())).collect(Collectors.toList());
+					progress.total.set(selected.size());
+					log.info("Replays {} records of {}, {} per second, {} at the same time", selected.size(),
+							source.getDestination(), rate, concurrency);
+
+					Set<String> seen = new HashSet<>();
+					Set<String> replayed = ConcurrentHashMap.newKeySet();
+					long start = System.currentTimeMillis();
+					return Flux.fromIterable(selected)
+							.filter(deadLetter -> isFirst(deadLetter, seen, progress))
+							.buffer(Math.max(rate, 1))
+							.index()
+							.concatMap(window -> Mono.delay(untilWindow(start, window.getT1()))
+									.thenMany(Flux.fromIterable(window.getT2()))
+									.flatMap(deadLetter -> publish(deadLetter, progress, replayed), concurrency)
+									.then())
+							.then(Mono.fromRunnable(() -> markReplayed(deadLetters, selected, replayed))
+									.subscribeOn(Schedulers.boundedElastic()));
+				})
+				.subscribe(v -> { }, ex -> {
+					log.error("Replay of {} failed: {}", source.getDestination(), ex.toString());
+					progress.finish(ReplayState.FAILED);
+				}, () -> {
+					log.info("Replayed {} of {} records of {}, {} duplicates, {} failed", progress.replayed.get(),
+							progress.total.get(), source.getDestination(), progress.duplicates.get(), progress.failed.get());
+					progress.finish(ReplayState.DONE);
+				});
+		return progress;
+	}
+
+	/**
+	 * The progress of the replay with the id, null when it is not the last replay.
+	 */
+	public ReplayProgress progress(String id) {
+		ReplayProgress progress = current;
+		return progress != null && progress.getId().equals(id) ? progress : null;
+	}
+
+	// window n starts n seconds after the first one
+	private Duration untilWindow(long start, long window) {
+		return Duration.ofMillis(Math.max(start + window * 1000 - System.currentTimeMillis(), 0));
+	}
+
+	private boolean isFirst(DeadLetter deadLetter, Set<String> seen, ReplayProgress progress) {
+		if (seen.add(identity(deadLetter))) {
+			return true;
+		}
+		progress.duplicates.incrementAndGet();
+		count("duplicate");
+		return false;
+	}
+
+	private String identity(DeadLetter deadLetter) {
+		return deadLetter.getEventKey() + ":" + new String(deadLetter.getPayload(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Keeps the offsets of the selected records that are replayed, or duplicates of a replayed record, and marks the
+	 * records of each partition that was read as replayed up to the first record that is not.
+	 */
+	private void markReplayed(List<DeadLetter> deadLetters, List<DeadLetter> selected, Set<String> replayed) {
+
+		selected.stream()
+				.filter(deadLetter -> replayed.contains(identity(deadLetter)))
+				.forEach(deadLetter -> replayedOffsets.computeIfAbsent(deadLetter.getPartition(),
+						partition -> ConcurrentHashMap.newKeySet()).add(deadLetter.getOffset()));
+
+		// a read returns the records of a partition in offset order, starting after the records marked replayed
+		List<DeadLetter> done = new ArrayList<>();
+		Set<Integer> blocked = new HashSet<>();
+		for (DeadLetter deadLetter : deadLetters) {
+			Set<Long> offsets = replayedOffsets.getOrDefault(deadLetter.getPartition(), Set.of());
+			if (blocked.contains(deadLetter.getPartition()) || !offsets.contains(deadLetter.getOffset())) {
+				blocked.add(deadLetter.getPartition());
+			} else {
+				done.add(deadLetter);
+			}
+		}
+		if (!done.isEmpty()) {
+			source.markReplayed(done);
+			done.forEach(deadLetter -> replayedOffsets.get(deadLetter.getPartition()).remove(deadLetter.getOffset()));
+		}
+	}
+
+	private Mono<Void> publish(DeadLetter deadLetter, ReplayProgress progress, Set<String> replayed) {
+
+		MessageBuilder<byte[]> message = MessageBuilder.withPayload(deadLetter.getPayload())
+				.setHeader("partitionKey", deadLetter.getEventKey())
+				.setHeader(MessageHeaders.CONTENT_TYPE, "application/json");
+		if (deadLetter.getKey() != null) {
+			message.setHeader(KafkaHeaders.MESSAGE_KEY, deadLetter.getKey());
+		}
+		return eventPublisher.publish(deadLetter.getOriginalTopic(), message.build())
+				.doOnSuccess(v -> {
+					replayed.add(identity(deadLetter));
+					count("replayed");
+					if (progress.replayed.incrementAndGet() % 1000 == 0) {
+						log.info("Replayed {} of {} records of {}", progress.replayed.get(), progress.total.get(),
+								source.getDestination());
+					}
+				})
+				.onErrorResume(ex -> {
+					log.warn("Failed to replay the record at offset {} of partition {} of {}: {}", deadLetter.getOffset(),
+							deadLetter.getPartition(), source.getDestination(), ex.toString());
+					progress.failed.incrementAndGet();
+					count("failed");
+					return Mono.empty();
+				});
+	}
+
+	private void count(String outcome) {
+		Counter.builder("events.replayed")
+				.tag("destination", source.getDestination())
+				.tag("outcome", outcome)
+				.register(meterRegistry)
+				.increment();
+	}
+
+	public enum ReplayState {
+		RUNNING, DONE, FAILED
+	}
+
+	@Getter
+	public static class DeadLetterSummary {
+
+		private final String destination;
+		private final long records;
+		private final List<ExceptionGroup> exceptions;
+
+		public DeadLetterSummary(String destination, long records, List<ExceptionGroup> exceptions) {
+			this.destination = destination;
+			this.records = records;
+			this.exceptions = exceptions;
+		}
+	}
+
+	@Getter
+	public static class ExceptionGroup {
+
+		private final String exception;
+		private final long count;
+		private final long keys;
+		private final String lastMessage;
+
+		public ExceptionGroup(String exception, long count, long keys, String lastMessage) {
+			this.exception = exception;
+			this.count = count;
+			this.keys = keys;
+			this.lastMessage = lastMessage;
+		}
+	}
+
+	/**
+	 * The live progress of a replay.
+	 */
+	public static class ReplayProgress {
+
+		@Getter
+		private final String id;
+		@Getter
+		private final String exception;
+		@Getter
+		private final int rate;
+		@Getter
+		private final int concurrency;
+		@Getter
+		private final Instant startedAt = Instant.now();
+		@Getter
+		private volatile Instant finishedAt;
+		@Getter
+		private volatile ReplayState state = ReplayState.RUNNING;
+
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong replayed = new AtomicLong();
+		private final AtomicLong duplicates = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+
+		ReplayProgress(String id, String exception, int rate, int concurrency) {
+			this.id = id;
+			this.exception = exception;
+			this.rate = rate;
+			this.concurrency = concurrency;
+		}
+
+		private void finish(ReplayState state) {
+			this.finishedAt = Instant.now();
+			this.state = state;
+		}
+
+		public long getTotal() {
+			return total.get();
+		}
+
+		public long getReplayed() {
+			return replayed.get();
+		}
+
+		public long getDuplicates() {
+			return duplicates.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		// records per second since the start
+		public double getThroughput() {
+			Instant end = finishedAt == null ? Instant.now() : finishedAt;
+			long millis = Math.max(Duration.between(startedAt, end).toMillis(), 1);
+			return replayed.get() * 1000.0 / millis;
+		}
+	}
+}
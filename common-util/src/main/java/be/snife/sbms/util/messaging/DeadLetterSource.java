@@ -0,0 +1,21 @@
+package be.snife.sbms.util.messaging;
+
+import java.util.List;
+
+/**
+ * The records of a dead letter destination that are not replayed yet.
+ */
+public interface DeadLetterSource {
+
+	String getDestination();
+
+	/**
+	 * Reads the records that are not replayed yet, up to the end of the destination at the time of the call.
+	 */
+	List<DeadLetter> read();
+
+	/**
+	 * Marks the records as replayed, later reads start after them.
+	 */
+	void markReplayed(List<DeadLetter> deadLetters);
+}
@@ -0,0 +1,189 @@
+package be.snife.sbms.util.messaging;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import be.snife.sbms.api.event.Event;
+import be.snife.sbms.api.exceptions.BulkWriteException;
+import be.snife.sbms.api.exceptions.EventProcessingException;
+import be.snife.sbms.api.exceptions.InvalidInputException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+/**
+ * Processes a batch of consumed events (binder batch mode) with bulk writes instead of one write per event.
+ *
+ * The events are handled in the order of the batch. The items of consecutive CREATE and CREATE_BATCH events are
+ * written with one bulk create, any other event is handled on its own in between, so a DELETE is never overtaken
+ * by a create of the same batch. When the bulk create fails only the failed items are created one by one: the
+ * items listed by a BulkWriteException, or all of them for any other error. An event handled on its own is tried
+ * at most attempts times, with a backoff that doubles after each attempt, unless the error is not transient (an
+ * InvalidInputException or EventProcessingException). An event that still fails is forwarded to the first retry
+ * topic of the binding (see RetryTopics), or parked when it failed with an InvalidInputException, so the rest of
+ * the batch is not delivered again. While an event of a key is
+ * in retry, the later events of the key are forwarded behind it instead of being handled. The items of one bulk
+ * create are written together, a failed item does not hold back the items of its key in the same bulk create. The backoff blocks the
+ * consumer thread: keep attempts and backoff small compared to the max.poll.interval.ms of the binding.
+ *
+ * Metrics: "events.consumed" (tags binding, mode = bulk, single, retry or dead-letter), its rate is the ingest in events
+ * per second, and "events.consume.batch" (time to process a batch, tag binding).
+ */
+@Slf4j
+public class EventBatchProcessor<T> {
+
+	private final String bindingName;
+	private final Function<List<T>, Flux<?>> bulkCreate;
+	private final Consumer<Event<Integer, T>> singleHandler;
+	private final RetryTopics retryTopics;
+	private final int attempts;
+	private final Duration backoff;
+	private final MeterRegistry meterRegistry;
+	private final Timer batchTimer;
+
+	public EventBatchProcessor(String bindingName, Function<List<T>, Flux<?>> bulkCreate,
+			Consumer<Event<Integer, T>> singleHandler, RetryTopics retryTopics, int attempts, Duration backoff,
+			MeterRegistry meterRegistry) {
+
+		this.bindingName = bindingName;
+		this.bulkCreate = bulkCreate;
+		this.singleHandler = singleHandler;
+		this.retryTopics = retryTopics;
+		this.attempts = attempts;
+		this.backoff = backoff;
+		this.meterRegistry = meterRegistry;
+		this.batchTimer = Timer.builder("events.consume.batch")
+				.tag("binding", bindingName)
+				.description("Time to process a batch of consumed events")
+				.register(meterRegistry);
+	}
+
+	public void process(List<Event<Integer, T>> events) {
+
+		long start = System.nanoTime();
+		List<Event<Integer, T>> creates = new ArrayList<>();
+		for (Event<Integer, T> event : events) {
+			if ((event.getEventType() == Event.Type.CREATE || event.getEventType() == Event.Type.CREATE_BATCH)
+					&& !retryTopics.isInRetry(event.getKey())) {
+				creates.add(event);
+			} else {
+				createAll(creates);
+				creates.clear();
+				handle(event);
+			}
+		}
+		createAll(creates);
+
+		long elapsed = System.nanoTime() - start;
+		batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+		log.debug("Processed {} events from {} in {} ms ({} events/s)", events.size(), bindingName,
+				TimeUnit.NANOSECONDS.toMillis(elapsed), events.size() * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1));
+	}
+
+	private void createAll(List<Event<Integer, T>> creates) {
+
+		if (creates.isEmpty()) {
+			return;
+		}
+
+		// the items of all events, with the event each item belongs to
+		List<T> items = new ArrayList<>();
+		List<Event<Integer, T>> itemEvents = new ArrayList<>();
+		for (Event<Integer, T> event : creates) {
+			List<T> eventItems = event.getEventType() == Event.Type.CREATE ? Collections.singletonList(event.getData())
+					: event.getItems();
+			for (T item : eventItems) {
+				items.add(item);
+				itemEvents.add(event);
+			}
+		}
+
+		Set<Integer> failed = new LinkedHashSet<>();
+		try {
+			bulkCreate.apply(items).then().block();
+		} catch (BulkWriteException ex) {
+			log.warn("Bulk create of {} items from {} failed for {} items: {}", items.size(), bindingName,
+					ex.getFailedIndexes().size(), ex.getMessage());
+			failed.addAll(ex.getFailedIndexes());
+		} catch (RuntimeException ex) {
+			log.warn("Bulk create of {} items from {} failed, creates them one by one: {}", items.size(), bindingName,
+					ex.toString());
+			for (int i = 0; i < items.size(); i++) {
+				failed.add(i);
+			}
+		}
+
+		count("bulk", items.size() - failed.size());
+		for (int index : failed) {
+			handle(new Event<Integer, T>(Event.Type.CREATE, itemEvents.get(index).getKey(), items.get(index)));
+		}
+	}
+
+	private void handle(Event<Integer, T> event) {
+
+		if (retryTopics.isInRetry(event.getKey())) {
+			log.debug("Forwards a {} event with key {} from {} behind the event of the key in retry",
+					event.getEventType(), event.getKey(), bindingName);
+			forward(event, new EventProcessingException("An earlier event with key " + event.getKey() + " is in retry"));
+			return;
+		}
+
+		RuntimeException failure = null;
+		for (int attempt = 1; attempt <= attempts; attempt++) {
+			try {
+				singleHandler.accept(event);
+				count("single", 1);
+				return;
+			} catch (InvalidInputException | EventProcessingException ex) {
+				failure = ex;
+				break;
+			} catch (RuntimeException ex) {
+				failure = ex;
+				if (attempt == attempts || !sleep(backoff.multipliedBy(1L << (attempt - 1)))) {
+					break;
+				}
+				log.debug("Attempt {} of a {} event with key {} from {} failed, tries again: {}", attempt,
+						event.getEventType(), event.getKey(), bindingName, ex.toString());
+			}
+		}
+
+		log.warn("Failed to process a {} event with key {} from {}, publishes it to {}: {}", event.getEventType(),
+				event.getKey(), bindingName, retryTopics.destination(0, failure), failure.toString());
+		forward(event, failure);
+	}
+
+	private void forward(Event<Integer, T> event, RuntimeException ex) {
+		retryTopics.forward(event, ex).block();
+		count(retryTopics.isParked(0, ex) ? "dead-letter" : "retry", 1);
+	}
+
+	// false when interrupted, the event is not tried again
+	private static boolean sleep(Duration duration) {
+		try {
+			Thread.sleep(duration.toMillis());
+			return true;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void count(String mode, int count) {
+		if (count > 0) {
+			Counter.builder("events.consumed")
+					.tag("binding", bindingName)
+					.tag("mode", mode)
+					.register(meterRegistry)
+					.increment(count);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package be.snife.sbms.util.messaging;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Publishes messages through the StreamBridge without parking a thread per send. The sender is
+ * StreamBridge::send, it returns false when the binding did not accept the message.
+ *
+ * Messages are queued and handed to the binder by a single "event-publisher" thread, at most
+ * app.publish.max-in-flight of them are unacknowledged at any time. A caller beyond that limit
+ * waits in the queue, its Mono completes when its message is sent; only when
+ * app.publish.max-pending messages are waiting the publish fails with a ServiceUnavailableException.
+ *
+ * With app.publish.confirm=true the Mono completes when the broker acknowledged the message, for
+ * the bindings that send their acknowledgements to the "publishConfirms" channel (Kafka:
+ * producer.record-metadata-channel, RabbitMQ: producer.confirm-ack-channel). A binding without
+ * that channel, e.g. a dynamic destination that is not configured, completes when the message
+ * is sent. Without an acknowledgement within app.publish.ack-timeout the publish fails with a
+ * TimeoutException.
+ *
+ * Metrics: "events.publish.latency" (tags binding, outcome), "events.publish.in-flight",
+ * "events.publish.pending" and "events.publish.rejected" (tag binding).
+ */
+@Slf4j
+public class EventPublisher {
+
+	public static final String CONFIRM_CHANNEL = "publishConfirms";
+	public static final String PUBLISH_ID_HEADER = "publishId";
+
+	private final BiPredicate<String, Message<?>> sender;
+	private final MeterRegistry meterRegistry;
+	private final int maxPending;
+	private final Predicate<String> confirmed;
+	private final Duration ackTimeout;
+
+	private final Sinks.Many<PublishRequest> requests = Sinks.many().unicast().onBackpressureBuffer();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Map<String, Sinks.Empty<Void>> awaitingAck = new ConcurrentHashMap<>();
+	private final Scheduler sendScheduler = Schedulers.newSingle("event-publisher");
+	private final Disposable dispatcher;
+
+	public EventPublisher(BiPredicate<String, Message<?>> sender, MeterRegistry meterRegistry, SubscribableChannel publishConfirms,
+			int maxInFlight, int maxPending, boolean confirm, Duration ackTimeout) {
+		this(sender, meterRegistry, publishConfirms, maxInFlight, maxPending, confirm, bindingName -> true, ackTimeout);
+	}
+
+	/**
+	 * With confirm, only the publishes to the bindings accepted by confirmed wait for an
+	 * acknowledgement: the bindings whose acknowledgements are sent to publishConfirms.
+	 */
+	public EventPublisher(BiPredicate<String, Message<?>> sender, MeterRegistry meterRegistry, SubscribableChannel publishConfirms,
+			int maxInFlight, int maxPending, boolean confirm, Predicate<String> confirmed, Duration ackTimeout) {
+
+		log.info("Creates an event publisher: maxInFlight = {}, maxPending = {}, confirm = {}, ackTimeout = {}",
+				maxInFlight, maxPending, confirm, ackTimeout);
+
+		this.sender = sender;
+		this.meterRegistry = meterRegistry;
+		this.maxPending = maxPending;
+		this.confirmed = confirm ? confirmed : bindingName -> false;
+		this.ackTimeout = ackTimeout;
+
+		Gauge.builder("events.publish.in-flight", inFlight, AtomicInteger::get)
+				.description("Messages sent and not yet acknowledged")
+				.register(meterRegistry);
+		Gauge.builder("events.publish.pending", pending, AtomicInteger::get)
+				.description("Messages waiting for an in-flight slot")
+				.register(meterRegistry);
+
+		publishConfirms.subscribe(this::onConfirm);
+		dispatcher = requests.asFlux().flatMap(this::send, maxInFlight).subscribe();
+	}
+
+	/**
+	 * Queues the message for the binding, the Mono completes when the message is sent (or
+	 * acknowledged, see app.publish.confirm).
+	 */
+	public Mono<Void> publish(String bindingName, Message<?> message) {
+		return Mono.defer(() -> {
+			if (pending.incrementAndGet() > maxPending) {
+				pending.decrementAndGet();
+				Counter.builder("events.publish.rejected").tag("binding", bindingName).register(meterRegistry).increment();
+				return Mono.error(new ServiceUnavailableException("Too many pending messages for " + bindingName));
+			}
+			PublishRequest request = new PublishRequest(bindingName, message);
+			emit(request);
+			return request.result.asMono();
+		});
+	}
+
+	public void stop() {
+		dispatcher.dispose();
+		sendScheduler.dispose();
+	}
+
+	// a unicast sink only accepts one emitter at a time
+	private synchronized void emit(PublishRequest request) {
+		requests.emitNext(request, Sinks.EmitFailureHandler.FAIL_FAST);
+	}
+
+	private Mono<Void> send(PublishRequest request) {
+
+		pending.decrementAndGet();
+		inFlight.incrementAndGet();
+		long start = System.nanoTime();
+
+		String publishId = UUID.randomUUID().toString();
+		Message<?> message = MessageBuilder.fromMessage(request.message).setHeader(PUBLISH_ID_HEADER, publishId).build();
+		Mono<Void> ack = Mono.empty();
+		if (confirmed.test(request.bindingName)) {
+			Sinks.Empty<Void> ackSink = Sinks.empty();
+			awaitingAck.put(publishId, ackSink);
+			ack = ackSink.asMono();
+		}
+		Mono<Void> acknowledged = ack;
+
+		return Mono.fromCallable(() -> sender.test(request.bindingName, message))
+				.subscribeOn(sendScheduler)
+				.flatMap(sent -> sent ? acknowledged
+						: Mono.<Void>error(new IllegalStateException("Message not accepted by " + request.bindingName)))
+				.timeout(ackTimeout)
+				.doOnSuccess(v -> {
+					record(request.bindingName, "success", start);
+					request.result.tryEmitEmpty();
+				})
+				.doOnError(ex -> {
+					log.warn("Failed to publish a message to {}: {}", request.bindingName, ex.toString());
+					record(request.bindingName, "failure", start);
+					request.result.tryEmitError(ex);
+				})
+				.doFinally(signal -> {
+					awaitingAck.remove(publishId);
+					inFlight.decrementAndGet();
+				})
+				// the failure is reported to the caller, the dispatcher keeps running
+				.onErrorResume(ex -> Mono.empty());
+	}
+
+	private void onConfirm(Message<?> confirmation) {
+		Object publishId = confirmation.getHeaders().get(PUBLISH_ID_HEADER);
+		if (publishId == null && confirmation.getPayload() instanceof Message<?> sent) {
+			publishId = sent.getHeaders().get(PUBLISH_ID_HEADER);
+		}
+		Sinks.Empty<Void> ackSink = publishId == null ? null : awaitingAck.remove(publishId.toString());
+		if (ackSink != null) {
+			ackSink.tryEmitEmpty();
+		}
+	}
+
+	private void record(String bindingName, String outcome, long start) {
+		Timer.builder("events.publish.latency")
+				.tag("binding", bindingName)
+				.tag("outcome", outcome)
+				.register(meterRegistry)
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	private static class PublishRequest {
+
+		final String bindingName;
+		final Message<?> message;
+		final Sinks.Empty<Void> result = Sinks.empty();
+
+		PublishRequest(String bindingName, Message<?> message) {
+			this.bindingName = bindingName;
+			this.message = message;
+		}
+	}
+}
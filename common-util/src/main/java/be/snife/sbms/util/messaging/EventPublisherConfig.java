@@ -0,0 +1,53 @@
+package be.snife.sbms.util.messaging;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.SubscribableChannel;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The EventPublisher and the channel the binder sends publish acknowledgements to. With app.publish.confirm only
+ * the bindings configured to send their acknowledgements to that channel wait for one, by their own producer
+ * property or the default producer property of the binder.
+ */
+@Configuration
+public class EventPublisherConfig {
+
+	@Bean(EventPublisher.CONFIRM_CHANNEL)
+	public SubscribableChannel publishConfirms() {
+		return new DirectChannel();
+	}
+
+	@Bean(destroyMethod = "stop")
+	public EventPublisher eventPublisher(StreamBridge streamBridge, MeterRegistry meterRegistry,
+			@Qualifier(EventPublisher.CONFIRM_CHANNEL) SubscribableChannel publishConfirms,
+			@Value("${app.publish.max-in-flight:100}") int maxInFlight,
+			@Value("${app.publish.max-pending:10000}") int maxPending,
+			@Value("${app.publish.confirm:false}") boolean confirm,
+			@Value("${app.publish.ack-timeout:10s}") Duration ackTimeout, Environment environment) {
+		Map<String, Boolean> confirmed = new ConcurrentHashMap<>();
+		return new EventPublisher(streamBridge::send, meterRegistry, publishConfirms, maxInFlight, maxPending, confirm,
+				bindingName -> confirmed.computeIfAbsent(bindingName, name -> isConfirmed(name, environment)), ackTimeout);
+	}
+
+	private static boolean isConfirmed(String bindingName, Environment environment) {
+		return EventPublisher.CONFIRM_CHANNEL.equals(producerProperty("kafka", bindingName, "record-metadata-channel", environment))
+				|| EventPublisher.CONFIRM_CHANNEL.equals(producerProperty("rabbit", bindingName, "confirm-ack-channel", environment));
+	}
+
+	private static String producerProperty(String binder, String bindingName, String name, Environment environment) {
+		String prefix = "spring.cloud.stream." + binder + ".";
+		return environment.getProperty(prefix + "bindings." + bindingName + ".producer." + name,
+				environment.getProperty(prefix + "default.producer." + name));
+	}
+}
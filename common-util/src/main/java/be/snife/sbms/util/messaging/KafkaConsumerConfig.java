@@ -0,0 +1,28 @@
+package be.snife.sbms.util.messaging;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.cloud.stream.config.ListenerContainerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+
+/**
+ * Lets the bindings with ackMode MANUAL acknowledge records out of order: the container commits the offset of a
+ * partition only up to the lowest record that is not acknowledged yet, so a record handled in parallel with the
+ * records before it is not lost when the consumer stops before they are done.
+ */
+@Configuration
+@ConditionalOnClass(name = "org.springframework.kafka.listener.AbstractMessageListenerContainer")
+public class KafkaConsumerConfig {
+
+	@Bean
+	public ListenerContainerCustomizer<AbstractMessageListenerContainer<?, ?>> asyncAcksCustomizer() {
+		return (container, destination, group) -> {
+			ContainerProperties properties = container.getContainerProperties();
+			if (properties.getAckMode() == ContainerProperties.AckMode.MANUAL) {
+				properties.setAsyncAcks(true);
+			}
+		};
+	}
+}
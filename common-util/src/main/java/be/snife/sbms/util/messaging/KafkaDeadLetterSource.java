@@ -0,0 +1,156 @@
+package be.snife.sbms.util.messaging;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads a dead letter topic with a consumer of its own, outside of the binder. The records that are replayed are
+ * committed for the consumer group [group]-dlq-replay, a read starts at the committed offset of each partition and
+ * stops at the end offsets at the time of the read, or after maxRecords records.
+ */
+@Slf4j
+public class KafkaDeadLetterSource implements DeadLetterSource {
+
+	private final String destination;
+	private final String defaultOriginalTopic;
+	private final Properties properties = new Properties();
+	private final int maxRecords;
+	private final ObjectMapper mapper;
+
+	public KafkaDeadLetterSource(String bootstrapServers, String destination, String group, int maxRecords,
+			ObjectMapper mapper) {
+
+		this.destination = "error." + destination + "." + group;
+		this.defaultOriginalTopic = destination;
+		this.maxRecords = maxRecords;
+		this.mapper = mapper;
+		properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+		properties.put(ConsumerConfig.GROUP_ID_CONFIG, group + "-dlq-replay");
+		properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+		properties.put(ConsumerConfig.ALLOW_AUTO_CREATE_TOPICS_CONFIG, false);
+		properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+		properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+	}
+
+	@Override
+	public String getDestination() {
+		return destination;
+	}
+
+	@Override
+	public List<DeadLetter> read() {
+
+		List<DeadLetter> deadLetters = new ArrayList<>();
+		try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(properties)) {
+
+			List<PartitionInfo> infos = consumer.partitionsFor(destination);
+			List<TopicPartition> partitions = new ArrayList<>();
+			for (PartitionInfo info : infos == null ? List.<PartitionInfo>of() : infos) {
+				partitions.add(new TopicPartition(destination, info.partition()));
+			}
+			if (partitions.isEmpty()) {
+				return deadLetters;
+			}
+			consumer.assign(partitions);
+			Map<TopicPartition, Long> ends = consumer.endOffsets(partitions);
+			Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions));
+			for (TopicPartition partition : partitions) {
+				OffsetAndMetadata offset = committed.get(partition);
+				if (offset == null) {
+					consumer.seekToBeginning(List.of(partition));
+				} else {
+					consumer.seek(partition, offset.offset());
+				}
+			}
+
+			while (deadLetters.size() < maxRecords && !atEnd(consumer, ends)) {
+				for (ConsumerRecord<byte[], byte[]> record : consumer.poll(Duration.ofMillis(500))) {
+					if (record.offset() < ends.get(new TopicPartition(record.topic(), record.partition()))
+							&& deadLetters.size() < maxRecords) {
+						deadLetters.add(toDeadLetter(record));
+					}
+				}
+			}
+		}
+		return deadLetters;
+	}
+
+	@Override
+	public void markReplayed(List<DeadLetter> deadLetters) {
+
+		Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+		for (DeadLetter deadLetter : deadLetters) {
+			TopicPartition partition = new TopicPartition(destination, deadLetter.getPartition());
+			OffsetAndMetadata offset = offsets.get(partition);
+			if (offset == null || offset.offset() <= deadLetter.getOffset()) {
+				offsets.put(partition, new OffsetAndMetadata(deadLetter.getOffset() + 1));
+			}
+		}
+		if (!offsets.isEmpty()) {
+			try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(properties)) {
+				consumer.commitSync(offsets);
+			}
+		}
+	}
+
+	private boolean atEnd(KafkaConsumer<byte[], byte[]> consumer, Map<TopicPartition, Long> ends) {
+		return ends.entrySet().stream().allMatch(end -> consumer.position(end.getKey()) >= end.getValue());
+	}
+
+	private DeadLetter toDeadLetter(ConsumerRecord<byte[], byte[]> record) {
+		String originalTopic = header(record, DeadLetterPublisher.ORIGINAL_TOPIC_HEADER);
+		return new DeadLetter(record.partition(), record.offset(),
+				originalTopic == null ? defaultOriginalTopic : originalTopic,
+				header(record, DeadLetterPublisher.EXCEPTION_FQCN_HEADER),
+				header(record, DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER), eventKey(record.value()), record.key(),
+				record.value());
+	}
+
+	// the binder writes the headers as raw strings, the header mapper of a StreamBridge publish as JSON strings
+	private String header(ConsumerRecord<?, ?> record, String name) {
+		Header header = record.headers().lastHeader(name);
+		if (header == null || header.value() == null) {
+			return null;
+		}
+		String value = new String(header.value(), StandardCharsets.UTF_8);
+		if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+			try {
+				return mapper.readValue(value, String.class);
+			} catch (IOException ex) {
+				return value;
+			}
+		}
+		return value;
+	}
+
+	private String eventKey(byte[] payload) {
+		try {
+			JsonNode key = mapper.readTree(payload).path("key");
+			return key.isMissingNode() || key.isNull() ? null : key.asText();
+		} catch (IOException | RuntimeException ex) {
+			log.debug("The payload of a dead letter of {} is not an event: {}", destination, ex.toString());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package be.snife.sbms.util.messaging;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The events of each key that are in the retry topics, oldest first, so the later events of a key can wait for
+ * them. An event is added when the binding forwards it to the first retry topic and removed when its retry
+ * succeeds or it is parked.
+ *
+ * The state is kept in memory by the instance that forwarded the events: it is lost on a restart, and a retry
+ * handled by another instance does not remove the event here. An event is therefore forgotten after the expiry,
+ * the later events of its key then stop waiting for it.
+ */
+class PendingRetries {
+
+	private final long expiryMillis;
+	// the deques are only used while holding the lock of this
+	private final Map<Integer, Deque<Pending>> pending = new ConcurrentHashMap<>();
+
+	PendingRetries(Duration expiry) {
+		this.expiryMillis = expiry.toMillis();
+	}
+
+	/**
+	 * Adds an event of the key, returns its id.
+	 */
+	synchronized String add(int key) {
+		String id = UUID.randomUUID().toString();
+		pending.computeIfAbsent(key, k -> new ArrayDeque<>())
+				.addLast(new Pending(id, System.currentTimeMillis() + expiryMillis));
+		return id;
+	}
+
+	synchronized void remove(int key, String id) {
+		Deque<Pending> events = pending.get(key);
+		if (events != null) {
+			events.removeIf(event -> event.id.equals(id));
+			if (events.isEmpty()) {
+				pending.remove(key);
+			}
+		}
+	}
+
+	boolean contains(int key) {
+		// the events of most keys are never retried, they do not take the lock
+		return pending.containsKey(key) && head(key) != null;
+	}
+
+	/**
+	 * True when an older event of the key is still in retry. An unknown event, e.g. forwarded before a restart,
+	 * is never behind.
+	 */
+	synchronized boolean isBehind(int key, String id) {
+		Pending head = head(key);
+		return head != null && !head.id.equals(id) && pending.get(key).stream().anyMatch(event -> event.id.equals(id));
+	}
+
+	private synchronized Pending head(int key) {
+		Deque<Pending> events = pending.get(key);
+		if (events == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		while (!events.isEmpty() && events.peekFirst().expiresAt < now) {
+			events.pollFirst();
+		}
+		if (events.isEmpty()) {
+			pending.remove(key);
+			return null;
+		}
+		return events.peekFirst();
+	}
+
+	private static class Pending {
+
+		final String id;
+		final long expiresAt;
+
+		Pending(String id, long expiresAt) {
+			this.id = id;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
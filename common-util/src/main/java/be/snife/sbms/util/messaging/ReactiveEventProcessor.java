@@ -0,0 +1,179 @@
+package be.snife.sbms.util.messaging;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+
+import be.snife.sbms.api.event.Event;
+import be.snife.sbms.api.exceptions.EventProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Processes the events of a binding as one reactive pipeline (a Function<Flux<Message>, Mono<Void>> binding)
+ * instead of blocking the consumer thread on each write.
+ *
+ * The events are dispatched to concurrency lanes by the hash of their key: the events of a key are handled one
+ * after the other in the order of the partition, the events of different keys are handled in parallel on a pool
+ * of worker threads. The workers scheduler is owned by the caller, it can be shared by the processors of a service
+ * and must be disposed by the caller. A failed event is not retried in its lane, it is forwarded to the first retry
+ * topic (see RetryTopics) and the lane moves on; the later events of its key follow it to the retry topic until it
+ * is done. Each retry topic is consumed by its own binding with processRetries, which waits until a message is due
+ * and forwards an event that fails again to the next retry topic, or parks it.
+ *
+ * A record is acknowledged (Kafka ackMode MANUAL) once its event is written or forwarded; a record that could not
+ * be forwarded either is not acknowledged. Records are acknowledged out of order, the offset commits only move past
+ * records that are acknowledged (see KafkaConsumerConfig).
+ *
+ * Metrics: "events.consumed" (tags binding, mode = single, retry or dead-letter) and "events.consume.latency"
+ * (time to handle an event, tag binding).
+ */
+@Slf4j
+public class ReactiveEventProcessor<T> {
+
+	private final String bindingName;
+	private final Function<Message<Event<Integer, T>>, Mono<Void>> handler;
+	private final RetryTopics retryTopics;
+	private final int concurrency;
+	private final Scheduler workers;
+	private final Counter consumed;
+	private final Counter retried;
+	private final Counter deadLettered;
+	private final Timer latency;
+
+	public ReactiveEventProcessor(String bindingName, Function<Message<Event<Integer, T>>, Mono<Void>> handler,
+			RetryTopics retryTopics, int concurrency, Scheduler workers, MeterRegistry meterRegistry) {
+
+		this.bindingName = bindingName;
+		this.handler = handler;
+		this.retryTopics = retryTopics;
+		this.concurrency = concurrency;
+		this.workers = workers;
+		this.consumed = counter("single", meterRegistry);
+		this.retried = counter("retry", meterRegistry);
+		this.deadLettered = counter("dead-letter", meterRegistry);
+		this.latency = Timer.builder("events.consume.latency")
+				.tag("binding", bindingName)
+				.description("Time to handle a consumed event")
+				.register(meterRegistry);
+	}
+
+	public Mono<Void> process(Flux<Message<Event<Integer, T>>> messages) {
+		// at most concurrency lanes, so flatMap subscribes to every lane
+		return messages.groupBy(message -> Math.floorMod(Objects.hashCode(message.getPayload().getKey()), concurrency))
+				.flatMap(lane -> lane.concatMap(this::handle), concurrency)
+				.then();
+	}
+
+	/**
+	 * Processes the messages of a retry topic, bound to one retry topic so a topic with a long delay does not hold
+	 * back the others. The messages of a retry topic are due in the order of the topic, the processor waits for the
+	 * first message to be due and the messages that are due are handled in parallel.
+	 */
+	public Mono<Void> processRetries(Flux<Message<Event<Integer, T>>> messages) {
+		return messages.concatMap(message -> Mono.delay(untilDue(message)).thenReturn(message))
+				.flatMap(this::handleRetry, concurrency)
+				.then();
+	}
+
+	private Duration untilDue(Message<?> message) {
+		return Duration.ofMillis(Math.max(RetryTopics.due(message) - System.currentTimeMillis(), 0));
+	}
+
+	/**
+	 * Handles the event of a message of the binding, an event that fails, or whose key has an event in retry, is
+	 * forwarded to the first retry topic.
+	 */
+	private Mono<Void> handle(Message<Event<Integer, T>> message) {
+
+		Event<Integer, T> event = message.getPayload();
+		if (retryTopics.isInRetry(event.getKey())) {
+			log.debug("Forwards a {} event with key {} from {} behind the event of the key in retry",
+					event.getEventType(), event.getKey(), bindingName);
+			return acknowledgeWhenDone(message, Mono.defer(() -> retryTopics.forward(event,
+					new EventProcessingException("An earlier event with key " + event.getKey() + " is in retry")))
+					.doOnSuccess(v -> (retryTopics.isParked(0) ? deadLettered : retried).increment()));
+		}
+
+		return acknowledgeWhenDone(message, Mono.defer(() -> handler.apply(message))
+				.subscribeOn(workers)
+				.doOnSuccess(v -> consumed.increment())
+				.onErrorResume(ex -> {
+					log.warn("Failed to process a {} event with key {} from {}, publishes it to {}: {}",
+							event.getEventType(), event.getKey(), bindingName, retryTopics.destination(0, ex), ex.toString());
+					return retryTopics.forward(event, ex)
+							.doOnSuccess(v -> (retryTopics.isParked(0, ex) ? deadLettered : retried).increment());
+				}));
+	}
+
+	/**
+	 * Handles the event of a message of a retry topic once the earlier events of its key are done, until then it
+	 * goes back to its retry topic. An event that fails again is forwarded to the next retry topic.
+	 */
+	private Mono<Void> handleRetry(Message<Event<Integer, T>> message) {
+
+		Event<Integer, T> event = message.getPayload();
+		if (retryTopics.isBehind(message)) {
+			log.debug("Requeues a {} event with key {} from {} behind an earlier event of the key", event.getEventType(),
+					event.getKey(), bindingName);
+			return acknowledgeWhenDone(message, retryTopics.requeue(message));
+		}
+
+		int nextTier = RetryTopics.tier(message) + 1;
+		return acknowledgeWhenDone(message, Mono.defer(() -> handler.apply(message))
+				.subscribeOn(workers)
+				.doOnSuccess(v -> {
+					retryTopics.done(message);
+					consumed.increment();
+				})
+				.onErrorResume(ex -> {
+					log.warn("Failed to process a {} event with key {} from {}, publishes it to {}: {}",
+							event.getEventType(), event.getKey(), bindingName, retryTopics.destination(nextTier, ex),
+							ex.toString());
+					return retryTopics.forwardAgain(message, ex)
+							.doOnSuccess(v -> (retryTopics.isParked(nextTier, ex) ? deadLettered : retried).increment());
+				}));
+	}
+
+	/**
+	 * Acknowledges the record once the event is handled or forwarded, a record that could not be forwarded either
+	 * is not acknowledged.
+	 */
+	private Mono<Void> acknowledgeWhenDone(Message<Event<Integer, T>> message, Mono<Void> handled) {
+		Event<Integer, T> event = message.getPayload();
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return handled.doOnSuccess(v -> {
+				latency.record(Duration.ofNanos(System.nanoTime() - start));
+				acknowledge(message);
+			});
+		}).onErrorResume(ex -> {
+			log.error("Failed to forward a {} event with key {} from {}, it is not acknowledged: {}",
+					event.getEventType(), event.getKey(), bindingName, ex.toString());
+			return Mono.empty();
+		});
+	}
+
+	private void acknowledge(Message<?> message) {
+		Acknowledgment acknowledgment = message.getHeaders().get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+		if (acknowledgment != null) {
+			acknowledgment.acknowledge();
+		}
+	}
+
+	private Counter counter(String mode, MeterRegistry meterRegistry) {
+		return Counter.builder("events.consumed")
+				.tag("binding", bindingName)
+				.tag("mode", mode)
+				.register(meterRegistry);
+	}
+}
@@ -0,0 +1,93 @@
+package be.snife.sbms.util.messaging;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Binds every retry topic of messageProcessor-in-0 to its own consumer, so the messages of a topic with a long
+ * delay never hold back the messages of the other topics.
+ *
+ * For each delay of app.consumer.retry.delays a function retryProcessor[tier] is registered, a copy of the
+ * retryProcessor bean of the service, and bound as retryProcessor[tier]-in-0 to the retry topic of the delay (see
+ * RetryTopics.topics) with the group of messageProcessor-in-0, no binder retries and manual acknowledgment. In
+ * spring.cloud.function.definition retryProcessor is replaced by these functions. The topic names are derived from
+ * the delays, the retry bindings are not configured in the properties.
+ */
+@Component
+@Slf4j
+public class RetryBindings implements BeanDefinitionRegistryPostProcessor, EnvironmentAware {
+
+	public static final String RETRY_PROCESSOR = "retryProcessor";
+
+	private static final String DEFINITION = "spring.cloud.function.definition";
+	private static final String DELAYS = "app.consumer.retry.delays";
+	private static final String BINDING = "spring.cloud.stream.bindings.messageProcessor-in-0.";
+
+	private ConfigurableEnvironment environment;
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		this.environment = (ConfigurableEnvironment) environment;
+	}
+
+	@Override
+	public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) {
+
+		List<String> definition = Arrays.asList(environment.getProperty(DEFINITION, "").split(";"));
+		if (!definition.contains(RETRY_PROCESSOR) || !registry.containsBeanDefinition(RETRY_PROCESSOR)) {
+			return;
+		}
+
+		List<Duration> delays = Binder.get(environment).bind(DELAYS, Bindable.listOf(Duration.class))
+				.orElseThrow(() -> new IllegalStateException(RETRY_PROCESSOR + " is bound but " + DELAYS + " is not set"));
+		List<String> topics = RetryTopics.topics(environment.getRequiredProperty(BINDING + "destination"), delays);
+		String group = environment.getProperty(BINDING + "group");
+
+		Map<String, Object> properties = new HashMap<>();
+		List<String> functions = new ArrayList<>();
+		AbstractBeanDefinition retryProcessor = (AbstractBeanDefinition) registry.getBeanDefinition(RETRY_PROCESSOR);
+		for (int tier = 0; tier < topics.size(); tier++) {
+			String function = RETRY_PROCESSOR + tier;
+			registry.registerBeanDefinition(function, retryProcessor.cloneBeanDefinition());
+			functions.add(function);
+
+			String binding = function + "-in-0";
+			properties.put("spring.cloud.stream.bindings." + binding + ".destination", topics.get(tier));
+			if (group != null) {
+				properties.put("spring.cloud.stream.bindings." + binding + ".group", group);
+			}
+			properties.put("spring.cloud.stream.bindings." + binding + ".consumer.maxAttempts", 1);
+			properties.put("spring.cloud.stream.kafka.bindings." + binding + ".consumer.ackMode", "MANUAL");
+		}
+		properties.put(DEFINITION, definition.stream()
+				.flatMap(function -> function.equals(RETRY_PROCESSOR) ? functions.stream() : Stream.of(function))
+				.collect(Collectors.joining(";")));
+
+		environment.getPropertySources().addFirst(new MapPropertySource("retryBindings", properties));
+		log.info("Binds the retry topics {} to {}", topics, functions);
+	}
+
+	@Override
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+	}
+}
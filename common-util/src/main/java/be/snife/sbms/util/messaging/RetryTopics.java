@@ -0,0 +1,209 @@
+package be.snife.sbms.util.messaging;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import be.snife.sbms.api.event.Event;
+import be.snife.sbms.api.exceptions.BulkWriteException;
+import be.snife.sbms.api.exceptions.InvalidInputException;
+import reactor.core.publisher.Mono;
+
+/**
+ * The delayed retry topics of a binding, one per delay: [destination]-retry-1s, [destination]-retry-10s, ...
+ *
+ * An event that fails is forwarded to the first retry topic with the time it is due, an event that fails again
+ * when it is retried goes to the next one. After the last retry topic the event is parked in the dead letter
+ * destination of the binding. The consumer of the binding never waits for a retry, each retry topic is consumed
+ * by its own binding (see RetryBindings and ReactiveEventProcessor.processRetries). An event that fails with an
+ * InvalidInputException fails again on every retry, it is parked right away. Of a CREATE_BATCH event that fails
+ * with a BulkWriteException only the items that are not written are forwarded, the others are stored.
+ *
+ * The events of a key keep their order: while an event of a key is in retry, the later events of the key are
+ * forwarded to the first retry topic as well, and a retried event is only handled once the events of its key
+ * before it are done; until then it goes back to its retry topic. The events in retry are tracked per instance,
+ * see PendingRetries, and forgotten after twice the sum of the delays.
+ */
+public class RetryTopics {
+
+	public static final String RETRY_TIER_HEADER = "x-retry-tier";
+	public static final String RETRY_DUE_HEADER = "x-retry-due";
+	public static final String RETRY_ID_HEADER = "x-retry-id";
+
+	private final EventPublisher eventPublisher;
+	private final String destination;
+	private final List<Duration> delays;
+	private final List<String> topics;
+	private final DeadLetterPublisher deadLetterPublisher;
+	private final PendingRetries pending;
+
+	public RetryTopics(EventPublisher eventPublisher, String destination, List<Duration> delays,
+			DeadLetterPublisher deadLetterPublisher) {
+
+		this.eventPublisher = eventPublisher;
+		this.destination = destination;
+		this.delays = List.copyOf(delays);
+		this.deadLetterPublisher = deadLetterPublisher;
+		this.topics = topics(destination, delays);
+		this.pending = new PendingRetries(delays.stream().reduce(Duration.ZERO, Duration::plus).multipliedBy(2));
+	}
+
+	/**
+	 * The retry topic names of a destination, one per delay.
+	 */
+	public static List<String> topics(String destination, List<Duration> delays) {
+		return delays.stream().map(delay -> destination + "-retry-" + format(delay)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Forwards an event of the binding that failed, or that waits for an earlier event of its key, to the first
+	 * retry topic, or parks it when there are no retry topics.
+	 */
+	public Mono<Void> forward(Event<Integer, ?> failedEvent, Throwable ex) {
+
+		Event<Integer, ?> event = failedPart(failedEvent, ex);
+		if (isParked(0, ex)) {
+			return deadLetterPublisher.publish(event, ex);
+		}
+		String id = pending.add(event.getKey());
+		return publish(event, 0, id, String.valueOf(ex.getMessage()), ex.getClass().getName())
+				.doOnError(e -> pending.remove(event.getKey(), id));
+	}
+
+	/**
+	 * Forwards a retried event that failed again to the next retry topic, or parks it after the last one.
+	 */
+	public Mono<Void> forwardAgain(Message<? extends Event<Integer, ?>> message, Throwable ex) {
+
+		Event<Integer, ?> event = failedPart(message.getPayload(), ex);
+		int tier = tier(message) + 1;
+		if (isParked(tier, ex)) {
+			return deadLetterPublisher.publish(event, ex).doOnSuccess(v -> done(message));
+		}
+		return publish(event, tier, id(message), String.valueOf(ex.getMessage()), ex.getClass().getName());
+	}
+
+	/**
+	 * Puts a retried event that waits for an earlier event of its key back on its retry topic, due after the delay
+	 * of the topic again.
+	 */
+	public Mono<Void> requeue(Message<? extends Event<Integer, ?>> message) {
+		return publish(message.getPayload(), tier(message), id(message),
+				stringHeader(message, DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER),
+				stringHeader(message, DeadLetterPublisher.EXCEPTION_FQCN_HEADER));
+	}
+
+	/**
+	 * A retried event is handled, or parked: the later events of its key no longer wait for it.
+	 */
+	public void done(Message<? extends Event<Integer, ?>> message) {
+		pending.remove(message.getPayload().getKey(), id(message));
+	}
+
+	/**
+	 * True when an event of the key is in retry, a later event of the key must be forwarded behind it.
+	 */
+	public boolean isInRetry(int key) {
+		return pending.contains(key);
+	}
+
+	/**
+	 * True when a retried event must wait for an earlier event of its key.
+	 */
+	public boolean isBehind(Message<? extends Event<Integer, ?>> message) {
+		return pending.isBehind(message.getPayload().getKey(), id(message));
+	}
+
+	private Mono<Void> publish(Event<Integer, ?> event, int tier, String id, String exceptionMessage,
+			String exceptionClass) {
+		Message<Event<Integer, ?>> message = MessageBuilder.<Event<Integer, ?>>withPayload(event)
+				.setHeader("partitionKey", event.getKey())
+				.setHeader(RETRY_TIER_HEADER, String.valueOf(tier))
+				.setHeader(RETRY_DUE_HEADER, String.valueOf(System.currentTimeMillis() + delays.get(tier).toMillis()))
+				.setHeader(RETRY_ID_HEADER, id)
+				.setHeader(DeadLetterPublisher.ORIGINAL_TOPIC_HEADER, destination)
+				.setHeader(DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER, exceptionMessage)
+				.setHeader(DeadLetterPublisher.EXCEPTION_FQCN_HEADER, exceptionClass)
+				.build();
+		return eventPublisher.publish(topics.get(tier), message);
+	}
+
+	/**
+	 * True when an event forwarded to the tier is parked instead of retried.
+	 */
+	public boolean isParked(int tier) {
+		return tier >= delays.size();
+	}
+
+	/**
+	 * True when an event that failed with the exception is parked instead of forwarded to the tier.
+	 */
+	public boolean isParked(int tier, Throwable ex) {
+		return isParked(tier) || ex instanceof InvalidInputException;
+	}
+
+	public String destination(int tier, Throwable ex) {
+		return isParked(tier, ex) ? deadLetterPublisher.getDeadLetterDestination() : topics.get(tier);
+	}
+
+	// the items of a CREATE_BATCH event that are not written, the other items are not written again
+	private static <T> Event<Integer, T> failedPart(Event<Integer, T> event, Throwable ex) {
+		if (event.getEventType() != Event.Type.CREATE_BATCH || event.getItems() == null
+				|| !(ex instanceof BulkWriteException)) {
+			return event;
+		}
+		List<T> items = ((BulkWriteException) ex).getFailedIndexes().stream().map(event.getItems()::get)
+				.collect(Collectors.toList());
+		return new Event<>(Event.Type.CREATE_BATCH, event.getKey(), null, items);
+	}
+
+	public List<String> getTopics() {
+		return topics;
+	}
+
+	private static String format(Duration delay) {
+		return delay.toMillis() % 1000 == 0 ? delay.toSeconds() + "s" : delay.toMillis() + "ms";
+	}
+
+	/**
+	 * The tier of a message of a retry topic.
+	 */
+	public static int tier(Message<?> message) {
+		return (int) header(message, RETRY_TIER_HEADER);
+	}
+
+	/**
+	 * The time a message of a retry topic is due, in epoch milliseconds.
+	 */
+	public static long due(Message<?> message) {
+		return header(message, RETRY_DUE_HEADER);
+	}
+
+	// the id of a retried event, none for a message forwarded before the ids were added
+	private static String id(Message<?> message) {
+		return stringHeader(message, RETRY_ID_HEADER);
+	}
+
+	private static long header(Message<?> message, String name) {
+		String value = stringHeader(message, name);
+		return value == null ? 0 : Long.parseLong(value);
+	}
+
+	// the Kafka header mapper passes the value as a String, or as raw bytes when it has no type for it
+	private static String stringHeader(Message<?> message, String name) {
+		Object value = message.getHeaders().get(name);
+		if (value instanceof byte[]) {
+			value = new String((byte[]) value, StandardCharsets.UTF_8);
+		}
+		if (value == null) {
+			return null;
+		}
+		// raw bytes of a JSON string keep their quotes
+		String text = value.toString();
+		return text.length() >= 2 && text.startsWith("\"") && text.endsWith("\"") ? text.substring(1, text.length() - 1) : text;
+	}
+}
@@ -0,0 +1,76 @@
+package be.snife.sbms.util.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+
+import be.snife.sbms.api.exceptions.BulkWriteException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Bulk insert of new entities with one unordered insertMany, the same for every Mongo repository: a failed
+ * insert (e.g. a duplicate key) does not stop the others, the error is a BulkWriteException listing the indexes
+ * of the entities that are not inserted. The entities that are inserted are emitted before the error, so the
+ * caller can still act on them (e.g. publish their change events).
+ *
+ * The entities get the initial version and the generated id, like an insert through the repository. The version
+ * and id properties are found through the mapping metadata of the entity class.
+ */
+public final class MongoBulkInserts {
+
+	private MongoBulkInserts() {
+	}
+
+	public static <T> Flux<T> insertAllUnordered(ReactiveMongoTemplate mongoTemplate, Class<T> type, List<T> entities) {
+
+		if (entities.isEmpty()) {
+			return Flux.empty();
+		}
+		MongoPersistentEntity<?> persistentEntity = mongoTemplate.getConverter().getMappingContext()
+				.getRequiredPersistentEntity(type);
+		MongoPersistentProperty versionProperty = persistentEntity.getVersionProperty();
+		MongoPersistentProperty idProperty = persistentEntity.getRequiredIdProperty();
+
+		List<Document> documents = new ArrayList<>();
+		entities.forEach(entity -> {
+			if (versionProperty != null) {
+				persistentEntity.getPropertyAccessor(entity).setProperty(versionProperty,
+						mongoTemplate.getConverter().getConversionService().convert(0, versionProperty.getType()));
+			}
+			Document document = new Document();
+			mongoTemplate.getConverter().write(entity, document);
+			documents.add(document);
+		});
+
+		Function<List<Integer>, Flux<T>> inserted = failed -> Flux.range(0, entities.size())
+				.filter(i -> !failed.contains(i))
+				.map(i -> {
+					// the driver adds the generated _id to the document
+					PersistentPropertyAccessor<T> accessor = persistentEntity.getPropertyAccessor(entities.get(i));
+					accessor.setProperty(idProperty, mongoTemplate.getConverter().getConversionService()
+							.convert(documents.get(i).get("_id"), idProperty.getType()));
+					return accessor.getBean();
+				});
+
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(type))
+				.flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+				.then(Mono.<BulkWriteException>empty())
+				.onErrorResume(ex -> ex instanceof MongoBulkWriteException && !((MongoBulkWriteException) ex).getWriteErrors().isEmpty(),
+						ex -> Mono.just(new BulkWriteException(ex.getMessage(), ((MongoBulkWriteException) ex).getWriteErrors()
+								.stream().map(BulkWriteError::getIndex).collect(Collectors.toList()), ex)))
+				.flatMapMany(failure -> inserted.apply(failure.getFailedIndexes()).concatWith(Flux.error(failure)))
+				.switchIfEmpty(Flux.defer(() -> inserted.apply(List.of())));
+	}
+}
@@ -1,18 +1,23 @@
 package be.snife.sbms.productcomposite;
 
+import java.time.Duration;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.actuate.health.CompositeReactiveHealthContributor;
+import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.ReactiveHealthContributor;
 import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 
+import be.snife.sbms.productcomposite.services.HealthPoller;
 import be.snife.sbms.productcomposite.services.ProductCompositeIntegration;
 import io.swagger.v3.oas.models.ExternalDocumentation;
 import io.swagger.v3.oas.models.OpenAPI;
@@ -20,42 +25,40 @@ import io.swagger.v3.oas.models.info.Contact;
 import io.swagger.v3.oas.models.info.Info;
 import io.swagger.v3.oas.models.info.License;
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.publisher.Mono;
 
 @SpringBootApplication
 @ComponentScan("be.snife.sbms")
 @Slf4j
 public class ProductCompositeServiceApplication {
 
-	private final Integer threadPoolSize;
-	private final Integer taskQueueSize;
 
 	@Autowired
-	public ProductCompositeServiceApplication(@Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-			@Value("${app.taskQueueSize:100}") Integer taskQueueSize) {
-		this.threadPoolSize = threadPoolSize;
-		this.taskQueueSize = taskQueueSize;
-	}
+	ProductCompositeIntegration integration;
 
-	@Bean
-	public Scheduler publishEventScheduler() {
-		log.info("Creates a messagingScheduler with connectionPoolSize = {}", threadPoolSize);
-		return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
-	}
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	HealthPoller coreServicesHealthPoller(@Value("${app.health.poll-interval:10s}") Duration interval,
+			@Value("${app.health.timeout:2s}") Duration timeout,
+			@Value("${app.health.max-staleness:30s}") Duration maxStaleness) {
 
-	@Autowired
-	ProductCompositeIntegration integration;
+		final Map<String, Supplier<Mono<Health>>> checks = new LinkedHashMap<>();
+
+		checks.put("product", () -> integration.getProductHealth());
+		checks.put("recommendation", () -> integration.getRecommendationHealth());
+		checks.put("review", () -> integration.getReviewHealth());
+
+		return new HealthPoller(checks, interval, timeout, maxStaleness);
+	}
 
-	
+	// answered from the last polled status, a health probe does not call the core services
 	@Bean
-	ReactiveHealthContributor coreServices() {
+	ReactiveHealthContributor coreServices(HealthPoller coreServicesHealthPoller) {
 
 		final Map<String, ReactiveHealthIndicator> registry = new LinkedHashMap<>();
 
-		registry.put("product", () -> integration.getProductHealth());
-		registry.put("recommendation", () -> integration.getRecommendationHealth());
-		registry.put("review", () -> integration.getReviewHealth());
+		for (String name : List.of("product", "recommendation", "review")) {
+			registry.put(name, () -> Mono.fromSupplier(() -> coreServicesHealthPoller.getHealth(name)));
+		}
 
 		return CompositeReactiveHealthContributor.fromMap(registry);
 	}
@@ -0,0 +1,55 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+
+import be.snife.sbms.api.event.Event;
+import be.snife.sbms.util.messaging.ChangePublisher;
+import lombok.extern.slf4j.Slf4j;
+
+@Configuration
+@Slf4j
+public class CacheInvalidationConfig {
+
+	private final ProductAggregateCache aggregateCache;
+
+	@Autowired
+	public CacheInvalidationConfig(ProductAggregateCache aggregateCache) {
+		this.aggregateCache = aggregateCache;
+	}
+
+	// bound to the change events of the core services, only the key of the event is used. The command events
+	// published to the reviews topic by the composite itself have no source and are consumed before the write,
+	// evicting on them lets a concurrent read cache the old state again
+	@Bean
+	public Consumer<Message<Event<Integer, Object>>> cacheInvalidator() {
+		return message -> {
+			Event<Integer, Object> event = message.getPayload();
+			log.debug("Cache invalidation event received: [{} , {}, {}]", event.getEventCreatedAt(),
+					event.getEventType(), event.getKey());
+
+			if (!isChangeEvent(message.getHeaders().get(ChangePublisher.SOURCE_HEADER))) {
+				log.debug("Ignoring {} command event for key {}", event.getEventType(), event.getKey());
+				return;
+			}
+			if (event.getKey() == null) {
+				log.warn("Ignoring {} event without key", event.getEventType());
+				return;
+			}
+
+			aggregateCache.evict(event.getKey());
+		};
+	}
+
+	// the Kafka binder passes the header value on as it was received
+	private static boolean isChangeEvent(Object source) {
+		if (source instanceof byte[]) {
+			return ((byte[]) source).length > 0;
+		}
+		return source != null && !source.toString().isEmpty();
+	}
+}
@@ -0,0 +1,135 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * A dedicated connection pool and WebClient per core service, so a slow service can only
+ * exhaust its own pool.
+ *
+ * Every setting is read from app.[service]-service.pool.[setting] (e.g.
+ * app.product-service.pool.max-connections) and defaults to app.pool.[setting].
+ * With app.internal-codec=smile (the default) the clients ask for the binary Smile format and
+ * fall back to JSON for endpoints that do not produce it. The pools publish the
+ * "reactor.netty.connection.provider.*" metrics (total, active, idle and pending connections)
+ * with tag name=[service].
+ */
+@Configuration
+@Slf4j
+public class ConnectionPoolConfig {
+
+	public static final String SMILE_VALUE = "application/x-jackson-smile";
+
+	private final Environment environment;
+
+	@Autowired
+	public ConnectionPoolConfig(Environment environment) {
+		this.environment = environment;
+	}
+
+	@Bean(destroyMethod = "dispose")
+	public ConnectionProvider productConnectionProvider() {
+		return createConnectionProvider("product");
+	}
+
+	@Bean(destroyMethod = "dispose")
+	public ConnectionProvider recommendationConnectionProvider() {
+		return createConnectionProvider("recommendation");
+	}
+
+	@Bean(destroyMethod = "dispose")
+	public ConnectionProvider reviewConnectionProvider() {
+		return createConnectionProvider("review");
+	}
+
+	@Bean
+	public WebClient productWebClient(WebClient.Builder builder,
+			@Qualifier("productConnectionProvider") ConnectionProvider connectionProvider) {
+		return createWebClient("product", builder, connectionProvider);
+	}
+
+	@Bean
+	public WebClient recommendationWebClient(WebClient.Builder builder,
+			@Qualifier("recommendationConnectionProvider") ConnectionProvider connectionProvider) {
+		return createWebClient("recommendation", builder, connectionProvider);
+	}
+
+	@Bean
+	public WebClient reviewWebClient(WebClient.Builder builder,
+			@Qualifier("reviewConnectionProvider") ConnectionProvider connectionProvider) {
+		return createWebClient("review", builder, connectionProvider);
+	}
+
+	private ConnectionProvider createConnectionProvider(String service) {
+
+		int maxConnections = getPoolProperty(service, "max-connections", Integer.class);
+		int pendingAcquireMaxCount = getPoolProperty(service, "pending-acquire-max-count", Integer.class);
+		Duration pendingAcquireTimeout = getPoolProperty(service, "pending-acquire-timeout", Duration.class);
+		Duration maxIdleTime = getPoolProperty(service, "max-idle-time", Duration.class);
+		Duration maxLifeTime = getPoolProperty(service, "max-life-time", Duration.class);
+		Duration evictInBackground = getPoolProperty(service, "evict-in-background", Duration.class);
+
+		log.info("Creates a connection pool for {}: maxConnections = {}, pendingAcquireMaxCount = {}, "
+				+ "pendingAcquireTimeout = {}, maxIdleTime = {}, maxLifeTime = {}, evictInBackground = {}", service,
+				maxConnections, pendingAcquireMaxCount, pendingAcquireTimeout, maxIdleTime, maxLifeTime,
+				evictInBackground);
+
+		return ConnectionProvider.builder(service)
+				.maxConnections(maxConnections)
+				.pendingAcquireMaxCount(pendingAcquireMaxCount)
+				.pendingAcquireTimeout(pendingAcquireTimeout)
+				.maxIdleTime(maxIdleTime)
+				.maxLifeTime(maxLifeTime)
+				.evictInBackground(evictInBackground)
+				.metrics(true)
+				.build();
+	}
+
+	private WebClient createWebClient(String service, WebClient.Builder builder, ConnectionProvider connectionProvider) {
+
+		boolean keepAlive = getPoolProperty(service, "keep-alive", Boolean.class);
+		Duration connectTimeout = getPoolProperty(service, "connect-timeout", Duration.class);
+
+		HttpClient httpClient = HttpClient.create(connectionProvider)
+				.keepAlive(keepAlive)
+				.option(ChannelOption.SO_KEEPALIVE, keepAlive)
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis());
+
+		// the builder is a prototype, clone it anyway so the connectors never leak into other clients
+		return builder.clone()
+				.clientConnector(new ReactorClientHttpConnector(httpClient))
+				.defaultHeader(HttpHeaders.ACCEPT, getAccept())
+				.build();
+	}
+
+	private String getAccept() {
+		String codec = environment.getProperty("app.internal-codec", "smile");
+		switch (codec) {
+		case "smile":
+			return SMILE_VALUE + ", " + MediaType.APPLICATION_JSON_VALUE + ";q=0.9";
+		case "json":
+			return MediaType.APPLICATION_JSON_VALUE;
+		default:
+			throw new IllegalArgumentException("Invalid app.internal-codec: " + codec + ", expected smile or json");
+		}
+	}
+
+	private <T> T getPoolProperty(String service, String setting, Class<T> type) {
+		T defaultValue = environment.getRequiredProperty("app.pool." + setting, type);
+		return environment.getProperty("app." + service + "-service.pool." + setting, type, defaultValue);
+	}
+}
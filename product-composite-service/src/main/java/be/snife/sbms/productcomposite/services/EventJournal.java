@@ -0,0 +1,554 @@
+package be.snife.sbms.productcomposite.services;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Append-only local journal of the messages published by the composite, so a write is accepted while the
+ * message broker is slow or down.
+ *
+ * Messages are appended to memory mapped segment files in the journal directory. Appends that arrive while
+ * the journal is forced to disk are written and forced together, the returned Mono completes once the message
+ * is on disk. A drainer publishes the journaled messages in batches: messages with the same partitionKey are
+ * published in journal order, other keys in parallel over a number of lanes. The read position is checkpointed
+ * once a whole batch is published and a failed batch is published again after the retry delay, so delivery is
+ * at least once. Drained segments are deleted, after a restart the drainer continues from the checkpoint.
+ *
+ * A message is stored as [length][crc32][partitionKey][binding name length][binding name][JSON payload], the
+ * first record with a zero length or a wrong checksum ends the journal. A disabled journal publishes directly.
+ *
+ * Metrics: "composite.journal.pending" (messages not yet published) and "composite.journal.force" (time to
+ * force a batch of appends to disk).
+ */
+@Slf4j
+public class EventJournal {
+
+	private static final int HEADER_SIZE = 8;
+	private static final int END_OF_SEGMENT = -1;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final boolean enabled;
+	private final Path dir;
+	private final int segmentSize;
+	private final int drainBatch;
+	private final int lanes;
+	private final Duration retryDelay;
+	private final ObjectMapper mapper;
+	private final BiFunction<String, Message<?>, Mono<Void>> publisher;
+
+	private final Timer forceTimer;
+	private final AtomicLong pending = new AtomicLong();
+
+	private final Queue<Append> appends = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final Scheduler writer = Schedulers.newSingle("journal-writer");
+	private final Scheduler drainer = Schedulers.newSingle("journal-drainer");
+
+	private FileChannel lockChannel;
+	private FileLock lock;
+	private FileChannel checkpointChannel;
+
+	// written on the journal-writer thread only
+	private long writeSegmentId;
+	private MappedByteBuffer writeBuffer;
+
+	// the end of the journal on disk, published by the writer to the drainer
+	private volatile Position committed;
+
+	// read on the journal-drainer thread only
+	private Position checkpoint;
+	private long readSegmentId = -1;
+	private MappedByteBuffer readBuffer;
+
+	public EventJournal(boolean enabled, Path dir, int segmentSize, int drainBatch, int lanes, Duration retryDelay,
+			ObjectMapper mapper, BiFunction<String, Message<?>, Mono<Void>> publisher, MeterRegistry meterRegistry) {
+
+		log.info("Creates an event journal: enabled = {}, dir = {}, segmentSize = {}, drainBatch = {}, lanes = {}, "
+				+ "retryDelay = {}", enabled, dir, segmentSize, drainBatch, lanes, retryDelay);
+
+		this.enabled = enabled;
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.drainBatch = drainBatch;
+		this.lanes = lanes;
+		this.retryDelay = retryDelay;
+		this.mapper = mapper;
+		this.publisher = publisher;
+
+		this.forceTimer = Timer.builder("composite.journal.force")
+				.description("Time to force a batch of appends to disk")
+				.register(meterRegistry);
+		Gauge.builder("composite.journal.pending", pending, AtomicLong::get)
+				.description("Journaled messages not yet published")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Opens the journal and starts draining the messages left by a previous run.
+	 */
+	public void start() throws IOException {
+
+		if (!enabled) {
+			return;
+		}
+
+		Files.createDirectories(dir);
+		lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		lock = lockChannel.tryLock();
+		if (lock == null) {
+			throw new IllegalStateException("The journal in " + dir + " is used by another process");
+		}
+
+		checkpointChannel = FileChannel.open(dir.resolve("checkpoint"), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		checkpoint = readCheckpoint();
+		recover();
+
+		log.info("Opened the event journal in {}: {} messages to publish from segment {} position {}", dir,
+				pending.get(), checkpoint.segmentId, checkpoint.position);
+		signalDrain();
+	}
+
+	public void stop() throws IOException {
+		writer.dispose();
+		drainer.dispose();
+		if (lock != null) {
+			lock.release();
+			lockChannel.close();
+			checkpointChannel.close();
+		}
+	}
+
+	/**
+	 * Completes when the message is written to disk, or when it is published if the journal is disabled. The
+	 * payload is stored as JSON, the partitionKey header must be an Integer.
+	 */
+	public Mono<Void> append(String bindingName, Message<?> message) {
+
+		if (!enabled) {
+			return publisher.apply(bindingName, message);
+		}
+
+		return Mono.defer(() -> {
+			Append append = new Append(encode(bindingName, message));
+			appends.add(append);
+			if (flushScheduled.compareAndSet(false, true)) {
+				writer.schedule(this::flush);
+			}
+			return append.written.asMono();
+		});
+	}
+
+	private void flush() {
+
+		// appends added from now on schedule the next flush
+		flushScheduled.set(false);
+		List<Append> batch = new ArrayList<>();
+		for (Append append = appends.poll(); append != null; append = appends.poll()) {
+			batch.add(append);
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			for (Append append : batch) {
+				write(append.record);
+			}
+			writeBuffer.force();
+		} catch (IOException | RuntimeException ex) {
+			log.error("Failed to write {} messages to the event journal: {}", batch.size(), ex.toString());
+			rollback();
+			batch.forEach(append -> append.written.tryEmitError(ex));
+			return;
+		}
+		forceTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+		pending.addAndGet(batch.size());
+		committed = new Position(writeSegmentId, writeBuffer.position());
+		batch.forEach(append -> append.written.tryEmitEmpty());
+		signalDrain();
+	}
+
+	private void write(byte[] record) throws IOException {
+
+		// keep room for the end of segment marker
+		if (writeBuffer.remaining() - 4 < HEADER_SIZE + record.length) {
+			MappedByteBuffer next = mapSegment(writeSegmentId + 1, FileChannel.MapMode.READ_WRITE);
+			writeBuffer.putInt(END_OF_SEGMENT);
+			writeBuffer.force();
+			writeSegmentId++;
+			writeBuffer = next;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		writeBuffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+	}
+
+	/**
+	 * Moves the write position back to the committed end of the journal after a failed flush, the next append
+	 * overwrites the failed batch. The failed batch is erased as well: a recovery reads on after the last record
+	 * and must not find a record of it with a valid checksum.
+	 */
+	private void rollback() {
+
+		Position end = committed;
+		try {
+			boolean sameSegment = writeSegmentId == end.segmentId;
+			MappedByteBuffer buffer = sameSegment ? writeBuffer : mapSegment(end.segmentId, FileChannel.MapMode.READ_WRITE);
+			// after a roll to the next segment the end of segment marker is erased too
+			erase(buffer, end.position, sameSegment ? writeBuffer.position() : segmentSize);
+			buffer.position(end.position);
+			buffer.force();
+			for (long id = end.segmentId + 1; id <= writeSegmentId; id++) {
+				Files.deleteIfExists(segmentPath(id));
+			}
+			writeSegmentId = end.segmentId;
+			writeBuffer = buffer;
+		} catch (IOException | RuntimeException ex) {
+			log.error("Failed to roll the event journal back to position {} of segment {}: {}", end.position,
+					end.segmentId, ex.toString());
+		}
+	}
+
+	private static void erase(ByteBuffer buffer, int from, int to) {
+		byte[] zeros = new byte[Math.min(64 * 1024, to - from)];
+		for (int position = from; position < to; position += zeros.length) {
+			buffer.put(position, zeros, 0, Math.min(zeros.length, to - position));
+		}
+	}
+
+	private void signalDrain() {
+		if (draining.compareAndSet(false, true)) {
+			drainer.schedule(this::drain);
+		}
+	}
+
+	private void drain() {
+
+		Batch batch;
+		try {
+			batch = readBatch();
+		} catch (IOException | RuntimeException ex) {
+			log.error("Failed to read from the event journal, retries in {}: {}", retryDelay, ex.toString());
+			scheduleDrain(this::drain, retryDelay);
+			return;
+		}
+
+		if (batch.records.isEmpty()) {
+			draining.set(false);
+			// a flush may have committed after the read, before draining was cleared
+			if (!checkpoint.equals(committed)) {
+				signalDrain();
+			}
+			return;
+		}
+
+		Flux.fromIterable(batch.records)
+				.groupBy(record -> Math.floorMod(record.partitionKey, lanes))
+				.flatMap(lane -> lane.concatMap(record -> publisher.apply(record.bindingName, record.toMessage())), lanes)
+				.then()
+				.subscribe(null,
+						ex -> {
+							log.warn("Failed to publish {} journaled messages, retries in {}: {}", batch.records.size(),
+									retryDelay, ex.toString());
+							scheduleDrain(this::drain, retryDelay);
+						},
+						() -> scheduleDrain(() -> {
+							commitCheckpoint(batch);
+							drain();
+						}, Duration.ZERO));
+	}
+
+	private void scheduleDrain(Runnable task, Duration delay) {
+		try {
+			drainer.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			// stopped, the batch is published again after a restart
+			log.debug("Event journal stopped, not draining");
+		}
+	}
+
+	/**
+	 * The records from the checkpoint up to the committed end of the journal, at most drainBatch.
+	 */
+	private Batch readBatch() throws IOException {
+
+		Position end = committed;
+		long segmentId = checkpoint.segmentId;
+		int position = checkpoint.position;
+		List<Record> records = new ArrayList<>();
+
+		while (records.size() < drainBatch && (segmentId < end.segmentId || position < end.position)) {
+			ByteBuffer buffer = readSegment(segmentId);
+			int length = buffer.getInt(position);
+			if (length == END_OF_SEGMENT) {
+				segmentId++;
+				position = 0;
+				continue;
+			}
+			byte[] body = new byte[length];
+			buffer.get(position + HEADER_SIZE, body);
+			records.add(decode(body));
+			position += HEADER_SIZE + length;
+		}
+		return new Batch(records, new Position(segmentId, position));
+	}
+
+	private void commitCheckpoint(Batch batch) {
+
+		Position previous = checkpoint;
+		checkpoint = batch.end;
+		pending.addAndGet(-batch.records.size());
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(12).putLong(checkpoint.segmentId).putInt(checkpoint.position).flip();
+			checkpointChannel.write(buffer, 0);
+			checkpointChannel.force(false);
+			for (long id = previous.segmentId; id < checkpoint.segmentId; id++) {
+				Files.deleteIfExists(segmentPath(id));
+			}
+		} catch (IOException ex) {
+			// the messages since the last written checkpoint are published again after a restart
+			log.warn("Failed to write the event journal checkpoint: {}", ex.toString());
+		}
+	}
+
+	private Position readCheckpoint() throws IOException {
+
+		List<Long> segmentIds = listSegments();
+		long firstSegmentId = segmentIds.isEmpty() ? 0 : segmentIds.get(0);
+		if (checkpointChannel.size() < 12) {
+			return new Position(firstSegmentId, 0);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(12);
+		checkpointChannel.read(buffer, 0);
+		buffer.flip();
+		Position position = new Position(buffer.getLong(), buffer.getInt());
+		// the segments before the checkpoint were drained, but not yet deleted
+		for (long id : segmentIds) {
+			if (id < position.segmentId) {
+				Files.deleteIfExists(segmentPath(id));
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Finds the end of the journal: the first record after the checkpoint with a zero length or a wrong
+	 * checksum, i.e. not completely written before the process stopped.
+	 */
+	private void recover() throws IOException {
+
+		List<Long> segmentIds = listSegments();
+		long lastSegmentId = segmentIds.isEmpty() ? checkpoint.segmentId
+				: Math.max(checkpoint.segmentId, segmentIds.get(segmentIds.size() - 1));
+
+		long segmentId = checkpoint.segmentId;
+		int position = checkpoint.position;
+		MappedByteBuffer buffer = mapSegment(segmentId, FileChannel.MapMode.READ_WRITE);
+		long count = 0;
+
+		while (true) {
+			int length = position + 4 <= segmentSize ? buffer.getInt(position) : 0;
+			if (length == END_OF_SEGMENT && segmentId < lastSegmentId) {
+				segmentId++;
+				position = 0;
+				buffer = mapSegment(segmentId, FileChannel.MapMode.READ_WRITE);
+				continue;
+			}
+			if (length <= 0 || position + HEADER_SIZE + length > segmentSize - 4) {
+				break;
+			}
+			byte[] body = new byte[length];
+			buffer.get(position + HEADER_SIZE, body);
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				log.warn("Ignores a partly written message at position {} of journal segment {}", position, segmentId);
+				break;
+			}
+			count++;
+			position += HEADER_SIZE + length;
+		}
+
+		// anything after the end was never acknowledged, it is overwritten by the next append
+		buffer.putInt(position, 0);
+		buffer.position(position);
+		writeSegmentId = segmentId;
+		writeBuffer = buffer;
+		committed = new Position(segmentId, position);
+		pending.set(count);
+	}
+
+	private ByteBuffer readSegment(long segmentId) throws IOException {
+		if (segmentId != readSegmentId) {
+			readBuffer = mapSegment(segmentId, FileChannel.MapMode.READ_ONLY);
+			readSegmentId = segmentId;
+		}
+		return readBuffer;
+	}
+
+	private MappedByteBuffer mapSegment(long segmentId, FileChannel.MapMode mode) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel is closed
+			return channel.map(mode, 0, segmentSize);
+		}
+	}
+
+	private Path segmentPath(long segmentId) {
+		return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+	}
+
+	private List<Long> listSegments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.map(file -> file.getFileName().toString())
+					.filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+					.map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private byte[] encode(String bindingName, Message<?> message) {
+
+		byte[] payload;
+		try {
+			payload = mapper.writeValueAsBytes(message.getPayload());
+		} catch (JsonProcessingException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		byte[] binding = bindingName.getBytes(UTF_8);
+		Integer partitionKey = message.getHeaders().get("partitionKey", Integer.class);
+
+		byte[] record = ByteBuffer.allocate(4 + 2 + binding.length + payload.length)
+				.putInt(partitionKey == null ? 0 : partitionKey)
+				.putShort((short) binding.length)
+				.put(binding)
+				.put(payload)
+				.array();
+		if (HEADER_SIZE + record.length > segmentSize - 4) {
+			throw new IllegalArgumentException("Message of " + record.length + " bytes does not fit in a journal segment");
+		}
+		return record;
+	}
+
+	private static Record decode(byte[] body) {
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		int partitionKey = buffer.getInt();
+		byte[] binding = new byte[buffer.getShort()];
+		buffer.get(binding);
+		byte[] payload = new byte[buffer.remaining()];
+		buffer.get(payload);
+		return new Record(new String(binding, UTF_8), partitionKey, payload);
+	}
+
+	private static class Append {
+
+		final byte[] record;
+		final Sinks.Empty<Void> written = Sinks.empty();
+
+		Append(byte[] record) {
+			this.record = record;
+		}
+	}
+
+	private static class Record {
+
+		final String bindingName;
+		final int partitionKey;
+		final byte[] payload;
+
+		Record(String bindingName, int partitionKey, byte[] payload) {
+			this.bindingName = bindingName;
+			this.partitionKey = partitionKey;
+			this.payload = payload;
+		}
+
+		// the payload is already JSON, the binder sends a byte[] as it is
+		Message<byte[]> toMessage() {
+			return MessageBuilder.withPayload(payload)
+					.setHeader("partitionKey", partitionKey)
+					.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON_VALUE)
+					.build();
+		}
+	}
+
+	private static class Batch {
+
+		final List<Record> records;
+		final Position end;
+
+		Batch(List<Record> records, Position end) {
+			this.records = records;
+			this.end = end;
+		}
+	}
+
+	private static class Position {
+
+		final long segmentId;
+		final int position;
+
+		Position(long segmentId, int position) {
+			this.segmentId = segmentId;
+			this.position = position;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Position && ((Position) other).segmentId == segmentId
+					&& ((Position) other).position == position;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(segmentId) * 31 + position;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import be.snife.sbms.util.messaging.EventPublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class EventJournalConfig {
+
+	// the directory must survive a restart, mount a volume for it when running in a container
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public EventJournal eventJournal(EventPublisher eventPublisher, ObjectMapper mapper, MeterRegistry meterRegistry,
+			@Value("${app.journal.enabled:true}") boolean enabled,
+			@Value("${app.journal.dir:${java.io.tmpdir}/product-composite-journal}") Path dir,
+			@Value("${app.journal.segment-size:64MB}") DataSize segmentSize,
+			@Value("${app.journal.drain-batch:500}") int drainBatch,
+			@Value("${app.journal.lanes:8}") int lanes,
+			@Value("${app.journal.retry-delay:1s}") Duration retryDelay) {
+		return new EventJournal(enabled, dir, (int) segmentSize.toBytes(), drainBatch, lanes, retryDelay, mapper,
+				eventPublisher::publish, meterRegistry);
+	}
+}
@@ -0,0 +1,166 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import be.snife.sbms.api.composite.product.ProductAggregate;
+import be.snife.sbms.api.composite.product.RecommendationSummary;
+import be.snife.sbms.api.composite.product.ReviewSummary;
+import be.snife.sbms.api.exceptions.InvalidInputException;
+
+/**
+ * The fields requested with the fields parameter of the composite API, e.g. "name,reviews.subject".
+ *
+ * A section ("recommendations", "reviews") is requested with all its fields or with some of them
+ * ("reviews.subject"). The ids, weight and rate are always returned.
+ */
+public class FieldSelection {
+
+	private static final List<String> RECOMMENDATION_FIELDS = List.of("author", "content");
+	private static final List<String> REVIEW_FIELDS = List.of("author", "subject", "content");
+
+	private final boolean name;
+	private final boolean serviceAddresses;
+	// null when the section is not requested
+	private final List<String> recommendationFields;
+	private final List<String> reviewFields;
+
+	private FieldSelection(boolean name, boolean serviceAddresses, List<String> recommendationFields,
+			List<String> reviewFields) {
+		this.name = name;
+		this.serviceAddresses = serviceAddresses;
+		this.recommendationFields = recommendationFields;
+		this.reviewFields = reviewFields;
+	}
+
+	public static FieldSelection parse(List<String> fields) {
+
+		boolean name = false;
+		boolean serviceAddresses = false;
+		Set<String> recommendationFields = null;
+		Set<String> reviewFields = null;
+
+		for (String field : fields) {
+			String[] parts = field.trim().split("\\.", 2);
+			switch (parts[0]) {
+			case "name":
+				name = checkNoSubField(field, parts);
+				break;
+			case "serviceAddresses":
+				serviceAddresses = checkNoSubField(field, parts);
+				break;
+			case "recommendations":
+				recommendationFields = addFields(recommendationFields, field, parts, RECOMMENDATION_FIELDS);
+				break;
+			case "reviews":
+				reviewFields = addFields(reviewFields, field, parts, REVIEW_FIELDS);
+				break;
+			default:
+				throw new InvalidInputException("Invalid field: " + field);
+			}
+		}
+
+		return new FieldSelection(name, serviceAddresses,
+				recommendationFields == null ? null : List.copyOf(recommendationFields),
+				reviewFields == null ? null : List.copyOf(reviewFields));
+	}
+
+	public boolean includesName() {
+		return name;
+	}
+
+	public boolean includesServiceAddresses() {
+		return serviceAddresses;
+	}
+
+	public boolean includesRecommendations() {
+		return recommendationFields != null;
+	}
+
+	public boolean includesReviews() {
+		return reviewFields != null;
+	}
+
+	/**
+	 * The fields to read from the product service.
+	 */
+	public List<String> getProductFields() {
+		return name ? List.of("name") : List.of();
+	}
+
+	/**
+	 * The fields to read from the recommendation service, null when the section is not requested.
+	 */
+	public List<String> getRecommendationFields() {
+		return recommendationFields;
+	}
+
+	/**
+	 * The fields to read from the review service, null when the section is not requested.
+	 */
+	public List<String> getReviewFields() {
+		return reviewFields;
+	}
+
+	/**
+	 * Leaves the fields and sections that are not requested out of the aggregate.
+	 */
+	public ProductAggregate project(ProductAggregate aggregate) {
+
+		List<RecommendationSummary> recommendations = (recommendationFields == null || aggregate.getRecommendations() == null) ? null
+				: aggregate.getRecommendations().stream()
+						.map(r -> new RecommendationSummary(r.getRecommendationId(),
+								recommendationFields.contains("author") ? r.getAuthor() : null, r.getRate(),
+								recommendationFields.contains("content") ? r.getContent() : null))
+						.collect(Collectors.toList());
+
+		List<ReviewSummary> reviews = (reviewFields == null || aggregate.getReviews() == null) ? null
+				: aggregate.getReviews().stream()
+						.map(r -> new ReviewSummary(r.getReviewId(),
+								reviewFields.contains("author") ? r.getAuthor() : null,
+								reviewFields.contains("subject") ? r.getSubject() : null,
+								reviewFields.contains("content") ? r.getContent() : null))
+						.collect(Collectors.toList());
+
+		List<String> missingSections = new ArrayList<>();
+		if (aggregate.getMissingSections() != null) {
+			aggregate.getMissingSections().stream()
+					.filter(section -> section.equals("recommendations") ? includesRecommendations() : includesReviews())
+					.forEach(missingSections::add);
+		}
+
+		List<String> truncatedSections = new ArrayList<>();
+		if (aggregate.getTruncatedSections() != null) {
+			aggregate.getTruncatedSections().stream()
+					.filter(section -> section.equals("recommendations") ? includesRecommendations() : includesReviews())
+					.forEach(truncatedSections::add);
+		}
+
+		return new ProductAggregate(aggregate.getProductId(), name ? aggregate.getName() : null, aggregate.getWeight(),
+				aggregate.getVersion(), recommendations, reviews, serviceAddresses ? aggregate.getServiceAddresses() : null,
+				missingSections, truncatedSections);
+	}
+
+	private static boolean checkNoSubField(String field, String[] parts) {
+		if (parts.length > 1) {
+			throw new InvalidInputException("Invalid field: " + field);
+		}
+		return true;
+	}
+
+	private static Set<String> addFields(Set<String> selected, String field, String[] parts, List<String> allowed) {
+
+		Set<String> result = selected == null ? new LinkedHashSet<>() : selected;
+		if (parts.length == 1) {
+			result.addAll(allowed);
+		} else if (allowed.contains(parts[1])) {
+			result.add(parts[1]);
+		} else {
+			throw new InvalidInputException("Invalid field: " + field + ", expected one of " + allowed);
+		}
+		return result;
+	}
+}
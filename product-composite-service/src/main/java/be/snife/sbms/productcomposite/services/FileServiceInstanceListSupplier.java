@@ -0,0 +1,84 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Instance list read from a file with one instance per line, a stand-in for a service registry.
+ * Empty lines and lines starting with '#' are ignored.
+ *
+ * The file is checked for changes at most once per refresh interval. As long as the file is
+ * missing, unreadable or empty the fallback list is used, a previously read list is kept.
+ */
+@Slf4j
+public class FileServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+
+	private final Path file;
+	private final long refreshIntervalNanos;
+	private final ServiceInstanceListSupplier fallback;
+
+	private volatile List<String> instances;
+	private volatile long lastModified = -1;
+	private volatile long nextCheck;
+
+	public FileServiceInstanceListSupplier(Path file, Duration refreshInterval, ServiceInstanceListSupplier fallback) {
+		this.file = file;
+		this.refreshIntervalNanos = refreshInterval.toNanos();
+		this.fallback = fallback;
+		this.nextCheck = System.nanoTime();
+	}
+
+	@Override
+	public List<String> getInstances() {
+
+		long now = System.nanoTime();
+		if (now - nextCheck >= 0) {
+			synchronized (this) {
+				if (now - nextCheck >= 0) {
+					nextCheck = now + refreshIntervalNanos;
+					refresh();
+				}
+			}
+		}
+
+		List<String> current = instances;
+		return current == null ? fallback.getInstances() : current;
+	}
+
+	private void refresh() {
+		try {
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			if (modified == lastModified) {
+				return;
+			}
+
+			List<String> read = Files.readAllLines(file).stream()
+					.map(String::trim)
+					.filter(line -> !line.isEmpty() && !line.startsWith("#"))
+					.map(ServiceInstanceListSupplier::toBaseUrl)
+					.collect(Collectors.toUnmodifiableList());
+
+			lastModified = modified;
+			if (read.isEmpty()) {
+				log.warn("No instances in {}, keeps using {}", file, getInstancesForLog());
+				return;
+			}
+
+			log.info("Read instances from {}: {}", file, read);
+			instances = read;
+
+		} catch (IOException ex) {
+			log.warn("Can't read instances from {}: {}, keeps using {}", file, ex.toString(), getInstancesForLog());
+		}
+	}
+
+	private List<String> getInstancesForLog() {
+		return instances == null ? fallback.getInstances() : instances;
+	}
+}
@@ -0,0 +1,112 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Polls the health of the core services in the background and keeps the last known status, so a health
+ * probe is answered from memory instead of calling every core service.
+ *
+ * All checks run every interval, a check that does not answer within the timeout is DOWN. A status is
+ * reported with its checkedAt time and age in ms; a status older than maxStaleness, or not known yet, is
+ * DOWN: the default status aggregation ranks UNKNOWN below UP, a poller that stopped would report UP.
+ */
+@Slf4j
+public class HealthPoller {
+
+	private final Map<String, Supplier<Mono<Health>>> checks;
+	private final Duration interval;
+	private final Duration timeout;
+	private final Duration maxStaleness;
+	private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+	private Disposable polling;
+
+	public HealthPoller(Map<String, Supplier<Mono<Health>>> checks, Duration interval, Duration timeout,
+			Duration maxStaleness) {
+
+		log.info("Creates a health poller for {}: interval = {}, timeout = {}, maxStaleness = {}", checks.keySet(),
+				interval, timeout, maxStaleness);
+
+		this.checks = checks;
+		this.interval = interval;
+		this.timeout = timeout;
+		this.maxStaleness = maxStaleness;
+	}
+
+	public void start() {
+		// a round that takes longer than the interval skips the next tick instead of queueing it
+		polling = Flux.interval(Duration.ZERO, interval)
+				.onBackpressureDrop()
+				.flatMap(tick -> poll(), 1)
+				.subscribe();
+	}
+
+	public void stop() {
+		if (polling != null) {
+			polling.dispose();
+		}
+	}
+
+	/**
+	 * Runs all checks once and updates the last known status.
+	 */
+	public Mono<Void> poll() {
+		return Flux.fromIterable(checks.entrySet())
+				.flatMap(check -> Mono.defer(check.getValue())
+						.timeout(timeout)
+						.onErrorResume(ex -> Mono.just(Health.down().withException(ex).build()))
+						.doOnNext(health -> update(check.getKey(), health)))
+				.then();
+	}
+
+	/**
+	 * The last known status of a core service, never blocks.
+	 */
+	public Health getHealth(String name) {
+
+		Snapshot snapshot = snapshots.get(name);
+		if (snapshot == null) {
+			return Health.down().withDetail("reason", "not checked yet").build();
+		}
+
+		long ageMillis = Duration.ofNanos(System.nanoTime() - snapshot.checkedAtNanos).toMillis();
+		Health.Builder builder = ageMillis > maxStaleness.toMillis()
+				? Health.down().withDetail("reason", "last check too old, was " + snapshot.health.getStatus())
+				: Health.status(snapshot.health.getStatus()).withDetails(snapshot.health.getDetails());
+		return builder.withDetail("checkedAt", snapshot.checkedAt.toString())
+				.withDetail("ageMs", ageMillis)
+				.build();
+	}
+
+	private void update(String name, Health health) {
+		Snapshot previous = snapshots.put(name, new Snapshot(health, Instant.now(), System.nanoTime()));
+		Status previousStatus = previous == null ? Status.UNKNOWN : previous.health.getStatus();
+		if (!previousStatus.equals(health.getStatus())) {
+			log.info("Health of {} changed from {} to {}", name, previousStatus, health.getStatus());
+		}
+	}
+
+	private static class Snapshot {
+
+		final Health health;
+		final Instant checkedAt;
+		final long checkedAtNanos;
+
+		Snapshot(Health health, Instant checkedAt, long checkedAtNanos) {
+			this.health = health;
+			this.checkedAt = checkedAt;
+			this.checkedAtNanos = checkedAtNanos;
+		}
+	}
+}
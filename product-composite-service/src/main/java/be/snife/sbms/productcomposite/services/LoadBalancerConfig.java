@@ -0,0 +1,78 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * One load balancer per core service.
+ *
+ * The instances come from app.[service].instances (comma separated host:port), and default to
+ * app.[service].host and port. When app.[service].instances-file is set, that file takes
+ * precedence and is re-read when it changes.
+ */
+@Configuration
+public class LoadBalancerConfig {
+
+	private final MeterRegistry meterRegistry;
+	private final int consecutiveFailures;
+	private final Duration ejectionTime;
+	private final Duration fileRefreshInterval;
+
+	@Autowired
+	public LoadBalancerConfig(MeterRegistry meterRegistry,
+			@Value("${app.load-balancer.ejection.consecutive-failures:3}") int consecutiveFailures,
+			@Value("${app.load-balancer.ejection.time:30s}") Duration ejectionTime,
+			@Value("${app.load-balancer.instances-file.refresh-interval:10s}") Duration fileRefreshInterval) {
+		this.meterRegistry = meterRegistry;
+		this.consecutiveFailures = consecutiveFailures;
+		this.ejectionTime = ejectionTime;
+		this.fileRefreshInterval = fileRefreshInterval;
+	}
+
+	@Bean
+	public ServiceLoadBalancer productLoadBalancer(
+			@Value("${app.product-service.host}") String host,
+			@Value("${app.product-service.port}") int port,
+			@Value("${app.product-service.instances:}") String instances,
+			@Value("${app.product-service.instances-file:}") String instancesFile) {
+		return createLoadBalancer("product", host, port, instances, instancesFile);
+	}
+
+	@Bean
+	public ServiceLoadBalancer recommendationLoadBalancer(
+			@Value("${app.recommendation-service.host}") String host,
+			@Value("${app.recommendation-service.port}") int port,
+			@Value("${app.recommendation-service.instances:}") String instances,
+			@Value("${app.recommendation-service.instances-file:}") String instancesFile) {
+		return createLoadBalancer("recommendation", host, port, instances, instancesFile);
+	}
+
+	@Bean
+	public ServiceLoadBalancer reviewLoadBalancer(
+			@Value("${app.review-service.host}") String host,
+			@Value("${app.review-service.port}") int port,
+			@Value("${app.review-service.instances:}") String instances,
+			@Value("${app.review-service.instances-file:}") String instancesFile) {
+		return createLoadBalancer("review", host, port, instances, instancesFile);
+	}
+
+	private ServiceLoadBalancer createLoadBalancer(String name, String host, int port, String instances,
+			String instancesFile) {
+
+		ServiceInstanceListSupplier supplier = StaticServiceInstanceListSupplier
+				.of(instances.isBlank() ? host + ":" + port : instances);
+
+		if (!instancesFile.isBlank()) {
+			supplier = new FileServiceInstanceListSupplier(Paths.get(instancesFile), fileRefreshInterval, supplier);
+		}
+
+		return new ServiceLoadBalancer(name, supplier, meterRegistry, consecutiveFailures, ejectionTime);
+	}
+}
@@ -0,0 +1,105 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import be.snife.sbms.api.composite.product.ProductAggregate;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded in-process cache of product aggregates, keyed on productId.
+ *
+ * Caffeine evicts on size and on time since write, and its TinyLFU admission
+ * policy keeps frequently requested products in the cache when new ones compete
+ * for the space. Entries are invalidated by the product, recommendation and
+ * review change events (see CacheInvalidationConfig). Hit, miss and eviction counts
+ * are published as "cache.*" metrics with tag cache=productAggregates.
+ *
+ * A load that started before an eviction can complete after it with the old
+ * state. The loader takes a generation before it calls the core services, and its
+ * aggregate is only stored when the product was not evicted since.
+ */
+@Component
+@Slf4j
+public class ProductAggregateCache {
+
+	private final boolean enabled;
+	private final Cache<Integer, TaggedAggregate> cache;
+	// generation of the last eviction per productId, kept as long as a loaded aggregate would be
+	private final Cache<Integer, Long> evictions;
+	private final AtomicLong generations = new AtomicLong();
+
+	@Autowired
+	public ProductAggregateCache(MeterRegistry meterRegistry,
+			@Value("${app.aggregate-cache.enabled:true}") boolean enabled,
+			@Value("${app.aggregate-cache.maximum-size:10000}") long maximumSize,
+			@Value("${app.aggregate-cache.expire-after-write:60s}") Duration expireAfterWrite) {
+
+		log.info("Creates a product aggregate cache: enabled = {}, maximumSize = {}, expireAfterWrite = {}", enabled,
+				maximumSize, expireAfterWrite);
+
+		this.enabled = enabled;
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.build();
+		this.evictions = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, "productAggregates");
+	}
+
+	public ProductAggregate get(int productId) {
+		TaggedAggregate tagged = getTagged(productId);
+		return tagged == null ? null : tagged.getAggregate();
+	}
+
+	public TaggedAggregate getTagged(int productId) {
+		return enabled ? cache.getIfPresent(productId) : null;
+	}
+
+	/**
+	 * Taken before the core services are called, see put(TaggedAggregate, long).
+	 */
+	public long generation() {
+		return generations.get();
+	}
+
+	/**
+	 * Stores the aggregate unless its product was evicted after the generation was taken. The check and the
+	 * put are atomic with respect to evict() for the same product.
+	 */
+	public void put(TaggedAggregate aggregate, long generation) {
+		if (enabled) {
+			cache.asMap().compute(aggregate.getAggregate().getProductId(), (productId, current) -> {
+				Long evicted = evictions.getIfPresent(productId);
+				if (evicted != null && evicted > generation) {
+					log.debug("Product aggregate with productId = {} was evicted while it was loaded, not cached", productId);
+					return current;
+				}
+				return aggregate;
+			});
+		}
+	}
+
+	public void evict(int productId) {
+		log.debug("Evicting product aggregate with productId = {} from the cache", productId);
+		cache.asMap().compute(productId, (id, current) -> {
+			evictions.put(id, generations.incrementAndGet());
+			return null;
+		});
+	}
+
+}
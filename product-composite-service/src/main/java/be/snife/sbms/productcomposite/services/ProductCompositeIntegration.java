@@ -5,14 +5,21 @@ import static org.springframework.http.HttpMethod.GET;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
@@ -35,60 +42,107 @@ import be.snife.sbms.api.core.review.ReviewService;
 import be.snife.sbms.api.event.Event;
 import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.api.exceptions.NotFoundException;
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
 import be.snife.sbms.util.http.HttpErrorInfo;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 
 @Component
 @Slf4j
 public class ProductCompositeIntegration implements ProductService, RecommendationService, ReviewService {
 
-	private final WebClient webClient;
+	private final WebClient productWebClient;
+	private final WebClient recommendationWebClient;
+	private final WebClient reviewWebClient;
 	private final ObjectMapper mapper;
+	private final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+	private static final MediaType SMILE = MediaType.parseMediaType(ConnectionPoolConfig.SMILE_VALUE);
 
-	private final String productServiceUrl;
-	private final String recommendationServiceUrl;
-	private final String reviewServiceUrl;
+	private final ServiceLoadBalancer productLoadBalancer;
+	private final ServiceLoadBalancer recommendationLoadBalancer;
+	private final ServiceLoadBalancer reviewLoadBalancer;
 	
-	private final String productActuatorUrl;
-	private final String recommendationActuatorUrl;
-	private final String reviewActuatorUrl;
-	
-	  private final StreamBridge streamBridge;
-	  private final Scheduler publishEventScheduler;
+	  private final EventJournal eventJournal;
+
+	private final Duration productServiceTimeout;
+	private final Duration recommendationServiceTimeout;
+	private final Duration reviewServiceTimeout;
+
+	private final RequestHedger productHedger;
+	private final RequestHedger recommendationHedger;
+	private final RequestHedger reviewHedger;
+
+	private final ServiceGuard productGuard;
+	private final ServiceGuard recommendationGuard;
+	private final ServiceGuard reviewGuard;
+
+	private final int pageSize;
+	private final int maxEventBatchSize;
 	
 
 	@Autowired
 	public ProductCompositeIntegration(
-		    @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
-			WebClient.Builder webClient,
+			@Qualifier("productWebClient") WebClient productWebClient,
+			@Qualifier("recommendationWebClient") WebClient recommendationWebClient,
+			@Qualifier("reviewWebClient") WebClient reviewWebClient,
 			// RestTemplate restTemplate,
 			ObjectMapper mapper, 
-		    StreamBridge streamBridge,
+		    EventJournal eventJournal,
+		    MeterRegistry meterRegistry,
+		    CircuitBreakerRegistry circuitBreakerRegistry,
+		    BulkheadRegistry bulkheadRegistry,
 			
-			@Value("${app.product-service.host}") String productServiceHost,
-			@Value("${app.product-service.port}") int productServicePort,
-			@Value("${app.recommendation-service.host}") String recommendationServiceHost,
-			@Value("${app.recommendation-service.port}") int recommendationServicePort,
-			@Value("${app.review-service.host}") String reviewServiceHost,
-			@Value("${app.review-service.port}") int reviewServicePort) {
-
-	    this.publishEventScheduler = publishEventScheduler;
-		this.webClient = webClient.build();
+			@Qualifier("productLoadBalancer") ServiceLoadBalancer productLoadBalancer,
+			@Qualifier("recommendationLoadBalancer") ServiceLoadBalancer recommendationLoadBalancer,
+			@Qualifier("reviewLoadBalancer") ServiceLoadBalancer reviewLoadBalancer,
+			@Value("${app.product-service.timeout:2s}") Duration productServiceTimeout,
+			@Value("${app.recommendation-service.timeout:1s}") Duration recommendationServiceTimeout,
+			@Value("${app.review-service.timeout:1s}") Duration reviewServiceTimeout,
+			@Value("${app.hedging.enabled:true}") boolean hedgingEnabled,
+			@Value("${app.hedging.percentile:0.95}") double hedgingPercentile,
+			@Value("${app.hedging.min-delay:20ms}") Duration hedgingMinDelay,
+			@Value("${app.hedging.max-delay:500ms}") Duration hedgingMaxDelay,
+			@Value("${app.hedging.min-samples:100}") long hedgingMinSamples,
+			@Value("${app.aggregate.page-size:50}") int pageSize,
+			@Value("${app.core.page.max-limit:100}") int corePageMaxLimit,
+			@Value("${app.event.max-batch-size:100}") int maxEventBatchSize) {
+
+		this.productWebClient = productWebClient;
+		this.recommendationWebClient = recommendationWebClient;
+		this.reviewWebClient = reviewWebClient;
 		// this.restTemplate = restTemplate;
 		this.mapper = mapper;
-		this.streamBridge = streamBridge;
-
-		productServiceUrl = "http://" + productServiceHost + ":" + productServicePort + "/product";
-		recommendationServiceUrl = "http://" + recommendationServiceHost + ":" + recommendationServicePort + "/recommendation";
-		reviewServiceUrl = "http://" + reviewServiceHost + ":" + reviewServicePort + "/review";
-		
-		productActuatorUrl = "http://" + productServiceHost + ":" + productServicePort + "/actuator/health";
-		recommendationActuatorUrl = "http://" + recommendationServiceHost + ":" + recommendationServicePort + "/actuator/health";
-		reviewActuatorUrl = "http://" + reviewServiceHost + ":" + reviewServicePort + "/actuator/health";
-		
+		this.eventJournal = eventJournal;
+
+		this.productServiceTimeout = productServiceTimeout;
+		this.recommendationServiceTimeout = recommendationServiceTimeout;
+		this.reviewServiceTimeout = reviewServiceTimeout;
+		// the aggregate reads one entity more than its page to know whether a section is truncated
+		if (pageSize < 1 || pageSize + 1 > corePageMaxLimit) {
+			throw new IllegalStateException("Invalid app.aggregate.page-size: " + pageSize + ", expected 1 to "
+					+ (corePageMaxLimit - 1) + " (app.core.page.max-limit - 1)");
+		}
+		this.pageSize = pageSize;
+		this.maxEventBatchSize = maxEventBatchSize;
+
+		this.productHedger = new RequestHedger("product", meterRegistry, hedgingEnabled, hedgingPercentile,
+				hedgingMinDelay, hedgingMaxDelay, hedgingMinSamples);
+		this.recommendationHedger = new RequestHedger("recommendation", meterRegistry, hedgingEnabled, hedgingPercentile,
+				hedgingMinDelay, hedgingMaxDelay, hedgingMinSamples);
+		this.reviewHedger = new RequestHedger("review", meterRegistry, hedgingEnabled, hedgingPercentile,
+				hedgingMinDelay, hedgingMaxDelay, hedgingMinSamples);
+
+		this.productGuard = new ServiceGuard("product", circuitBreakerRegistry, bulkheadRegistry, meterRegistry);
+		this.recommendationGuard = new ServiceGuard("recommendation", circuitBreakerRegistry, bulkheadRegistry, meterRegistry);
+		this.reviewGuard = new ServiceGuard("review", circuitBreakerRegistry, bulkheadRegistry, meterRegistry);
+
+		this.productLoadBalancer = productLoadBalancer;
+		this.recommendationLoadBalancer = recommendationLoadBalancer;
+		this.reviewLoadBalancer = reviewLoadBalancer;
 	}
 
 	@Override
@@ -97,20 +151,61 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		log.info("Will send a Create Product event ...");
 		Event<Integer,Product> event = new Event<Integer,Product>(Event.Type.CREATE, body.getProductId(), body);
 		log.debug("" + event.toString());
-	    return Mono.fromCallable(() -> {
-	        sendMessage("products-out-0", event);
-	        return body;
-	      }).subscribeOn(publishEventScheduler);
+	    return sendMessage("products-out-0", event).thenReturn(body);
 	}
 
+	// the products have different keys, each one is sent as a CREATE event
+	@Override
+	public Flux<Product> createProducts(List<Product> body) {
+		return Flux.fromIterable(body).flatMap(this::createProduct);
+	}
+
+	/**
+	 * Fails with a ServiceUnavailableException when the call is rejected by the circuit breaker or bulkhead.
+	 */
 	@Override
 	public Mono<Product> getProduct(int productId) {
 
-		String url = productServiceUrl + "/" + productId;
-		log.debug("Will call the getProduct API on URL: {}", url);
+		// every hedge attempt chooses its own instance
+		return productGuard.protect(productHedger.hedge(() -> productLoadBalancer.execute(productServiceTimeout, baseUrl -> {
+					String url = baseUrl + "/product/" + productId;
+					log.debug("Will call the getProduct API on URL: {}", url);
+					return productWebClient.get().uri(url).retrieve().bodyToMono(Product.class).log(log.getName(), FINE)
+							.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+				})));
+	}
+
+	/**
+	 * Only reads the requested fields of the product, productId and weight are always returned.
+	 */
+	@Override
+	public Mono<Product> getProduct(int productId, List<String> fields) {
+
+		return productGuard.protect(productHedger.hedge(() -> productLoadBalancer.execute(productServiceTimeout, baseUrl -> {
+					// an empty fields parameter is not a field list, without it the whole product is read
+					String url = baseUrl + "/product/" + productId + (fields.isEmpty() ? "" : "?fields=" + String.join(",", fields));
+					log.debug("Will call the getProduct API on URL: {}", url);
+					return productWebClient.get().uri(url).retrieve().bodyToMono(Product.class).log(log.getName(), FINE)
+							.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+				})));
+	}
 
-		return webClient.get().uri(url).retrieve().bodyToMono(Product.class).log(log.getName(), FINE)
-				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+	/**
+	 * Like getProduct, the fallback is used when the call is rejected by the circuit breaker or bulkhead.
+	 */
+	public Mono<Product> getProduct(int productId, Function<ServiceUnavailableException, Mono<Product>> fallback) {
+		return getProduct(productId).onErrorResume(ServiceUnavailableException.class, fallback);
+	}
+
+	@Override
+	public Flux<Product> getProducts(List<Integer> productIds) {
+
+		return productGuard.protect(productLoadBalancer.executeMany(baseUrl -> {
+			String url = baseUrl + "/product?productIds=" + joinIds(productIds);
+			log.debug("Will call the getProducts API on URL: {}", url);
+			return productWebClient.get().uri(url).retrieve().bodyToFlux(Product.class).log(log.getName(), FINE)
+					.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+		}));
 	}
 
 	@Override
@@ -119,9 +214,7 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		log.info("Will send a Delete Product event ...");
 		Event<Integer,Product> event = new Event<Integer,Product>(Event.Type.DELETE, productId, null);
 		log.debug("" + event.toString());
-	    return Mono.fromRunnable(() -> {
-	        sendMessage("products-out-0", event);
-	      }).subscribeOn(publishEventScheduler).then();
+	    return sendMessage("products-out-0", event);
 	}
 
 	@Override
@@ -130,20 +223,87 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		log.info("Will send a Create Recommendation event ...");
 		Event<Integer,Recommendation> event = new Event<Integer,Recommendation>(Event.Type.CREATE, body.getProductId(), body);
 		log.debug("" + event.toString());
-	    return Mono.fromCallable(() -> {
-	        sendMessage("recommendations-out-0", event);
-	        return body;
-	      }).subscribeOn(publishEventScheduler);
+	    return sendMessage("recommendations-out-0", event).thenReturn(body);
+	}
+
+	@Override
+	public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+
+		log.info("Will send Create Recommendation batch events for {} recommendations ...", body.size());
+	    return sendBatch("recommendations-out-0", body, Recommendation::getProductId);
 	}
 
+	/**
+	 * The first page of recommendations (app.aggregate.page-size) and one more recommendation when the product has more,
+	 * it must be received within the configured timeout of the recommendation service. The request is hedged on the
+	 * complete page, a hedge can only win with all recommendations.
+	 */
 	@Override
 	public Flux<Recommendation> getRecommendations(int productId) {
+		return getRecommendations(productId, (List<String>) null);
+	}
 
-		String url = recommendationServiceUrl + "?productId=" + productId;
-		log.debug("Will call the getRecommendations API on URL: {}", url);
+	/**
+	 * Like getRecommendations, with the ETag of all the recommendations of the product.
+	 */
+	public Mono<SectionPage<Recommendation>> getRecommendationsFirstPage(int productId) {
+		return recommendationGuard.protect(recommendationHedger.hedge(() -> requestFirstPage(recommendationLoadBalancer,
+				recommendationServiceTimeout, recommendationWebClient, "/recommendation?productId=" + productId + "&limit=" + (pageSize + 1),
+				Recommendation.class)));
+	}
 
-		return webClient.get().uri(url).retrieve().bodyToFlux(Recommendation.class).log(log.getName(), FINE)
-				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+	/**
+	 * Like getRecommendations, only reads the requested fields (null for all fields).
+	 */
+	public Flux<Recommendation> getRecommendations(int productId, List<String> fields) {
+		return recommendationGuard.protect(recommendationHedger.hedge(() -> requestRecommendations(productId, pageSize + 1, null, fields).collectList())
+				.flatMapMany(Flux::fromIterable));
+	}
+
+	/**
+	 * Like getRecommendations, the fallback is used when the call is rejected by the circuit breaker or bulkhead.
+	 */
+	public Flux<Recommendation> getRecommendations(int productId,
+			Function<ServiceUnavailableException, Flux<Recommendation>> fallback) {
+		return getRecommendations(productId).onErrorResume(ServiceUnavailableException.class, fallback);
+	}
+
+	/**
+	 * All recommendations, read page by page. Each page must be received within the configured timeout of the
+	 * recommendation service. The fallback is used when a call is rejected by the circuit breaker or bulkhead.
+	 */
+	public Flux<Recommendation> streamRecommendations(int productId,
+			Function<ServiceUnavailableException, Flux<Recommendation>> fallback) {
+		return allPages(after -> recommendationGuard.protect(requestRecommendations(productId, pageSize, after, null)),
+				Recommendation::getRecommendationId)
+				.onErrorResume(ServiceUnavailableException.class, fallback);
+	}
+
+	@Override
+	public Flux<Recommendation> getRecommendationsPage(int productId, int limit, Integer after, List<String> fields) {
+		return recommendationGuard.protect(requestRecommendations(productId, limit, after, fields));
+	}
+
+	private Flux<Recommendation> requestRecommendations(int productId, int limit, Integer after, List<String> fields) {
+
+		return recommendationLoadBalancer.executeMany(recommendationServiceTimeout, baseUrl -> {
+			String url = baseUrl + "/recommendation?productId=" + productId + "&limit=" + limit + (after == null ? "" : "&after=" + after)
+					+ (fields == null ? "" : "&fields=" + String.join(",", fields));
+			log.debug("Will call the getRecommendations API on URL: {}", url);
+			return recommendationWebClient.get().uri(url).retrieve().bodyToFlux(Recommendation.class).log(log.getName(), FINE)
+					.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+		});
+	}
+
+	@Override
+	public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+
+		return recommendationGuard.protect(recommendationLoadBalancer.executeMany(baseUrl -> {
+			String url = baseUrl + "/recommendation?productIds=" + joinIds(productIds);
+			log.debug("Will call the getRecommendationsForProducts API on URL: {}", url);
+			return recommendationWebClient.get().uri(url).retrieve().bodyToFlux(Recommendation.class).log(log.getName(), FINE)
+					.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+		}));
 	}
 
 	@Override
@@ -151,9 +311,7 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		log.info("Will send a Delete Recommendations event ...");
 		Event<Integer,Recommendation> event = new Event<Integer,Recommendation>(Event.Type.DELETE, productId, null);
 		log.debug("" + event.toString());
-	    return Mono.fromRunnable(() -> {
-	        sendMessage("recommendations-out-0", event);
-	      }).subscribeOn(publishEventScheduler).then();
+	    return sendMessage("recommendations-out-0", event);
 	}
 
 	@Override
@@ -162,20 +320,85 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		log.info("Will send a Create Review event ...");
 		Event<Integer,Review> event = new Event<Integer,Review>(Event.Type.CREATE, body.getProductId(), body);
 		log.debug("" + event.toString());
-	    return Mono.fromCallable(() -> {
-	        sendMessage("reviews-out-0", event);
-	        return body;
-	      }).subscribeOn(publishEventScheduler);
+	    return sendMessage("reviews-out-0", event).thenReturn(body);
 	}
 
+	@Override
+	public Flux<Review> createReviews(List<Review> body) {
+
+		log.info("Will send Create Review batch events for {} reviews ...", body.size());
+	    return sendBatch("reviews-out-0", body, Review::getProductId);
+	}
+
+	/**
+	 * The first page of reviews (app.aggregate.page-size) and one more review when the product has more, it must be
+	 * received within the configured timeout of the review service. The request is hedged on the complete page, a hedge
+	 * can only win with all reviews.
+	 */
 	@Override
 	public Flux<Review> getReviews(int productId) {
+		return getReviews(productId, (List<String>) null);
+	}
 
-		String url = reviewServiceUrl + "?productId=" + productId;
-		log.debug("Will call the getReviews API on URL: {}", url);
-		return webClient.get().uri(url).retrieve().bodyToFlux(Review.class).log(log.getName(), FINE)
-				.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+	/**
+	 * Like getReviews, with the ETag of all the reviews of the product.
+	 */
+	public Mono<SectionPage<Review>> getReviewsFirstPage(int productId) {
+		return reviewGuard.protect(reviewHedger.hedge(() -> requestFirstPage(reviewLoadBalancer, reviewServiceTimeout,
+				reviewWebClient, "/review?productId=" + productId + "&limit=" + (pageSize + 1), Review.class)));
+	}
 
+	/**
+	 * Like getReviews, only reads the requested fields (null for all fields).
+	 */
+	public Flux<Review> getReviews(int productId, List<String> fields) {
+		return reviewGuard.protect(reviewHedger.hedge(() -> requestReviews(productId, pageSize + 1, null, fields).collectList())
+				.flatMapMany(Flux::fromIterable));
+	}
+
+	/**
+	 * Like getReviews, the fallback is used when the call is rejected by the circuit breaker or bulkhead.
+	 */
+	public Flux<Review> getReviews(int productId, Function<ServiceUnavailableException, Flux<Review>> fallback) {
+		return getReviews(productId).onErrorResume(ServiceUnavailableException.class, fallback);
+	}
+
+	/**
+	 * All reviews, read page by page. Each page must be received within the configured timeout of the
+	 * review service. The fallback is used when a call is rejected by the circuit breaker or bulkhead.
+	 */
+	public Flux<Review> streamReviews(int productId, Function<ServiceUnavailableException, Flux<Review>> fallback) {
+		return allPages(after -> reviewGuard.protect(requestReviews(productId, pageSize, after, null)),
+				Review::getReviewId)
+				.onErrorResume(ServiceUnavailableException.class, fallback);
+	}
+
+	@Override
+	public Flux<Review> getReviewsPage(int productId, int limit, Integer after, List<String> fields) {
+		return reviewGuard.protect(requestReviews(productId, limit, after, fields));
+	}
+
+	private Flux<Review> requestReviews(int productId, int limit, Integer after, List<String> fields) {
+
+		return reviewLoadBalancer.executeMany(reviewServiceTimeout, baseUrl -> {
+			String url = baseUrl + "/review?productId=" + productId + "&limit=" + limit + (after == null ? "" : "&after=" + after)
+					+ (fields == null ? "" : "&fields=" + String.join(",", fields));
+			log.debug("Will call the getReviews API on URL: {}", url);
+			return reviewWebClient.get().uri(url).retrieve().bodyToFlux(Review.class).log(log.getName(), FINE)
+					.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+		});
+
+	}
+
+	@Override
+	public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+
+		return reviewGuard.protect(reviewLoadBalancer.executeMany(baseUrl -> {
+			String url = baseUrl + "/review?productIds=" + joinIds(productIds);
+			log.debug("Will call the getReviewsForProducts API on URL: {}", url);
+			return reviewWebClient.get().uri(url).retrieve().bodyToFlux(Review.class).log(log.getName(), FINE)
+					.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+		}));
 	}
 
 	@Override
@@ -183,9 +406,7 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		log.info("Will send a Delete Reviews event ...");
 		Event<Integer,Review> event = new Event<Integer,Review>(Event.Type.DELETE, productId, null);
 		log.debug("" + event.toString());
-	    return Mono.fromRunnable(() -> {
-	        sendMessage("reviews-out-0", event);
-	      }).subscribeOn(publishEventScheduler).then();
+	    return sendMessage("reviews-out-0", event);
 	}
 	
 	@Override
@@ -206,6 +427,32 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 		return null;
 	}
 
+	// the next page is requested when the previous one is complete, a page with less than pageSize items is the last one
+	private <T> Flux<T> allPages(Function<Integer, Flux<T>> page, ToIntFunction<T> key) {
+		return page.apply(null).collectList()
+				.expand(items -> items.size() < pageSize ? Mono.empty()
+						: page.apply(key.applyAsInt(items.get(items.size() - 1))).collectList())
+				.flatMapIterable(items -> items);
+	}
+
+	// the core services tag a page with the ETag of the whole collection
+	private <T> Mono<SectionPage<T>> requestFirstPage(ServiceLoadBalancer loadBalancer, Duration timeout, WebClient webClient,
+			String path, Class<T> type) {
+
+		return loadBalancer.execute(timeout, baseUrl -> {
+			String url = baseUrl + path;
+			log.debug("Will call the first page API on URL: {}", url);
+			return webClient.get().uri(url).retrieve().toEntityList(type)
+					.map(entity -> new SectionPage<>(entity.getBody(), entity.getHeaders().getETag()))
+					.log(log.getName(), FINE)
+					.onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+		});
+	}
+
+	private String joinIds(List<Integer> productIds) {
+		return productIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+	}
+
 	private Throwable handleException(Throwable ex) {
 
 		if (!(ex instanceof WebClientResponseException)) {
@@ -232,7 +479,10 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
 	private String getErrorMessage(WebClientResponseException ex) {
 		try {
-			return mapper.readValue(ex.getResponseBodyAsString(), HttpErrorInfo.class).getMessage();
+			// the error body has the format that was asked for, see ConnectionPoolConfig
+			MediaType contentType = ex.getHeaders().getContentType();
+			ObjectMapper errorMapper = contentType != null && SMILE.isCompatibleWith(contentType) ? smileMapper : mapper;
+			return errorMapper.readValue(ex.getResponseBodyAsByteArray(), HttpErrorInfo.class).getMessage();
 		} catch (IOException ioex) {
 			return ex.getMessage();
 		}
@@ -260,28 +510,57 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 	}
 
 	public Mono<Health> getProductHealth() {
-		return getHealth(productActuatorUrl);
+		return getHealth(productWebClient, productLoadBalancer, productServiceTimeout);
 	}
 
 	public Mono<Health> getRecommendationHealth() {
-		return getHealth(recommendationActuatorUrl);
+		return getHealth(recommendationWebClient, recommendationLoadBalancer, recommendationServiceTimeout);
 	}
 
 	public Mono<Health> getReviewHealth() {
-		return getHealth(reviewActuatorUrl);
+		return getHealth(reviewWebClient, reviewLoadBalancer, reviewServiceTimeout);
+	}
+
+	// every instance is checked, the service is UP while at least one of its instances is UP
+	private Mono<Health> getHealth(WebClient webClient, ServiceLoadBalancer loadBalancer, Duration timeout) {
+		return Flux.defer(() -> Flux.fromIterable(loadBalancer.getBaseUrls()))
+				.flatMapSequential(baseUrl -> getHealth(webClient, baseUrl + "/actuator/health")
+						.timeout(timeout, Mono.fromSupplier(() -> Health.down().withDetail("reason", "timeout").build()))
+						.map(health -> Map.entry(baseUrl, health.getStatus().getCode())))
+				.collectList()
+				.map(instances -> {
+					boolean up = instances.stream().anyMatch(instance -> Status.UP.getCode().equals(instance.getValue()));
+					Health.Builder builder = up ? Health.up() : Health.down();
+					instances.forEach(instance -> builder.withDetail(instance.getKey(), instance.getValue()));
+					return builder.build();
+				});
 	}
 
-	private Mono<Health> getHealth(String url) {
+	private Mono<Health> getHealth(WebClient webClient, String url) {
 		log.debug("Will call the Health API on URL: {}", url);
 		return webClient.get().uri(url).retrieve().bodyToMono(String.class).map(s -> new Health.Builder().up().build())
 				.onErrorResume(ex -> Mono.just(new Health.Builder().down(ex).build())).log(log.getName(), FINE);
 	}
 
-	private void sendMessage(String bindingName, Event event) {
+	/**
+	 * One CREATE_BATCH event per app.event.max-batch-size items, the items belong to the same product.
+	 */
+	private <T> Flux<T> sendBatch(String bindingName, List<T> items, ToIntFunction<T> productId) {
+
+		List<Mono<Void>> sends = new ArrayList<>();
+		for (int from = 0; from < items.size(); from += maxEventBatchSize) {
+			List<T> batch = new ArrayList<>(items.subList(from, Math.min(items.size(), from + maxEventBatchSize)));
+			Event<Integer, T> event = new Event<Integer, T>(Event.Type.CREATE_BATCH, productId.applyAsInt(batch.get(0)), null, batch);
+			sends.add(sendMessage(bindingName, event));
+		}
+		return Mono.when(sends).thenMany(Flux.fromIterable(items));
+	}
+
+	private Mono<Void> sendMessage(String bindingName, Event event) {
 	    log.debug("Sending a {} message with KEY {} to {}", event.getEventType(), event.getKey(),bindingName);
 		log.debug("[{} , {}, {}, {}]", event.getEventCreatedAt(), event.getEventType(), event.getKey(),event.getData());
 		Message message = MessageBuilder.withPayload(event).setHeader("partitionKey", event.getKey()).build();
-		streamBridge.send(bindingName, message);
+		return eventJournal.append(bindingName, message);
 	}
 
 }
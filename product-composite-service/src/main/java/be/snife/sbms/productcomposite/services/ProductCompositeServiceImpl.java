@@ -3,16 +3,31 @@ package be.snife.sbms.productcomposite.services;
 import static java.util.logging.Level.FINE;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import be.snife.sbms.api.composite.product.*;
 import be.snife.sbms.api.core.product.Product;
 import be.snife.sbms.api.core.recommendation.Recommendation;
 import be.snife.sbms.api.core.review.Review;
+import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.api.exceptions.NotFoundException;
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
+import be.snife.sbms.util.http.ConditionalGet;
 import be.snife.sbms.util.http.ServiceUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -23,12 +38,40 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
 	private final ServiceUtil serviceUtil;
 	private ProductCompositeIntegration integration;
+	private final ProductAggregateCache aggregateCache;
+	private final int batchConcurrency;
+	private final int batchMaxIds;
+	private final Map<Integer, Mono<TaggedAggregate>> inFlightAggregates = new ConcurrentHashMap<>();
+	private final Counter coalescedRequests;
+	private final boolean partialResultsEnabled;
+	private final ObjectMapper mapper;
+	private final int bulkBatchSize;
+	private final int bulkMaxErrors;
+	private final int aggregatePageSize;
 
 	@Autowired
-	public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ProductCompositeIntegration integration) {
+	public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ProductCompositeIntegration integration,
+			ProductAggregateCache aggregateCache, MeterRegistry meterRegistry, ObjectMapper mapper,
+			@Value("${app.batch.concurrency:8}") int batchConcurrency,
+			@Value("${app.batch.max-ids:200}") int batchMaxIds,
+			@Value("${app.aggregate.partial-results:true}") boolean partialResultsEnabled,
+			@Value("${app.bulk.batch-size:500}") int bulkBatchSize,
+			@Value("${app.bulk.max-errors:100}") int bulkMaxErrors,
+			@Value("${app.aggregate.page-size:50}") int aggregatePageSize) {
 
 		this.serviceUtil = serviceUtil;
 		this.integration = integration;
+		this.aggregateCache = aggregateCache;
+		this.batchConcurrency = batchConcurrency;
+		this.batchMaxIds = batchMaxIds;
+		this.partialResultsEnabled = partialResultsEnabled;
+		this.mapper = mapper;
+		this.bulkBatchSize = bulkBatchSize;
+		this.bulkMaxErrors = bulkMaxErrors;
+		this.aggregatePageSize = aggregatePageSize;
+		this.coalescedRequests = Counter.builder("composite.aggregate.coalesced")
+				.description("Product aggregate requests served by joining an in-flight request for the same product")
+				.register(meterRegistry);
 	}
 
 	@Override
@@ -36,41 +79,16 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
 		try {
 
-		    List<Mono> monoList = new ArrayList<>(); // keeps results, but not used! thrash bin
-
 			log.debug("createCompositeProduct: creates a new composite entity for productId: {}", body.getProductId());
-
-			Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
-			log.debug("Product = "+product);
-			monoList.add(integration.createProduct(product));
-
-			if (body.getRecommendations() != null) {
-				body.getRecommendations().forEach(r -> {
-					Recommendation recommendation = new Recommendation(body.getProductId(), r.getRecommendationId(),
-							r.getAuthor(), r.getRate(), r.getContent(), null);
-					log.debug("Recommendation = "+recommendation);					
-					monoList.add(integration.createRecommendation(recommendation));
-				});
-			}
-
-			if (body.getReviews() != null) {
-				body.getReviews().forEach(r -> {
-					Review review = new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(),
-							r.getContent(), null);
-					log.debug("Review = "+review);					
-					monoList.add(integration.createReview(review));
-				});
-			}
+			List<Mono<?>> monoList = createEntities(body);
 
 			//monoList.forEach(mono -> mono.block());
 			log.debug("createCompositeProduct: composite entities created for productId: {}", body.getProductId());
 			
-	      return Mono.zip(
-	    		  	r -> "", 
-	    		  	monoList.toArray(new Mono[0]))
+	      // zip would cancel the other creates as soon as a batch create completes empty
+	      return Mono.when(monoList)
 					.log(log.getName(), FINE)
-	    	        .doOnError(ex -> log.warn("createCompositeProduct failed: {}", ex.toString()))
-	    	        .then();
+	    	        .doOnError(ex -> log.warn("createCompositeProduct failed: {}", ex.toString()));
 			
 		} catch (RuntimeException re) {
 			log.warn("createCompositeProduct failed", re);
@@ -78,19 +96,263 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 		}
 	}
 
+	/**
+	 * The lines are decoded as they arrive and handed to the journal a batch at a time. Only one batch of parsed
+	 * aggregates is held: the next one is only requested once the previous one is accepted, so the body is never
+	 * held in memory. Each aggregate is journaled on its own, the journal drainer publishes them to the bindings in
+	 * batches of app.journal.drain-batch.
+	 */
+	@Override
+	public Mono<BulkIngestResult> createProducts(Flux<String> lines) {
+
+		return lines.index()
+				.filter(line -> !line.getT2().isBlank())
+				.map(line -> parseAggregate(line.getT1() + 1, line.getT2()))
+				.buffer(bulkBatchSize)
+				.concatMap(batch -> Flux.fromIterable(batch).flatMap(this::ingest, bulkBatchSize), 1)
+				.reduceWith(() -> new BulkIngestSummary(bulkMaxErrors), BulkIngestSummary::add)
+				.map(BulkIngestSummary::toResult)
+				.doOnNext(result -> log.debug("createCompositeProducts: {} accepted, {} rejected", result.getAccepted(),
+						result.getRejected()))
+				.log(log.getName(), FINE);
+	}
+
+	private BulkRecord parseAggregate(long line, String json) {
+		try {
+			ProductAggregate aggregate = mapper.readValue(json, ProductAggregate.class);
+			if (aggregate.getProductId() < 1) {
+				return new BulkRecord(line, null, "Invalid productId: " + aggregate.getProductId());
+			}
+			return new BulkRecord(line, aggregate, null);
+		} catch (JsonProcessingException ex) {
+			return new BulkRecord(line, null, "Invalid composite product: " + ex.getOriginalMessage());
+		}
+	}
+
+	private Mono<BulkRecord> ingest(BulkRecord record) {
+		if (record.error != null) {
+			return Mono.just(record);
+		}
+		return Mono.when(createEntities(record.aggregate))
+				.thenReturn(record)
+				.onErrorResume(ex -> {
+					log.warn("Bulk ingest of productId = {} failed: {}", record.aggregate.getProductId(), ex.toString());
+					return Mono.just(new BulkRecord(record.line, null, ex.getMessage()));
+				});
+	}
+
+	// a create event for the product, several recommendations or reviews are created with a CREATE_BATCH event
+	private List<Mono<?>> createEntities(ProductAggregate body) {
+
+		List<Mono<?>> monoList = new ArrayList<>();
+
+		Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
+		log.debug("Product = "+product);
+		monoList.add(integration.createProduct(product));
+
+		List<Recommendation> recommendations = body.getRecommendations() == null ? List.of()
+				: body.getRecommendations().stream()
+						.map(r -> new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(),
+								r.getContent(), null))
+						.collect(Collectors.toList());
+		log.debug("Recommendations = "+recommendations);
+		if (recommendations.size() == 1) {
+			monoList.add(integration.createRecommendation(recommendations.get(0)));
+		} else if (recommendations.size() > 1) {
+			monoList.add(integration.createRecommendations(recommendations).then());
+		}
+
+		List<Review> reviews = body.getReviews() == null ? List.of()
+				: body.getReviews().stream()
+						.map(r -> new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(),
+								r.getContent(), null))
+						.collect(Collectors.toList());
+		log.debug("Reviews = "+reviews);
+		if (reviews.size() == 1) {
+			monoList.add(integration.createReview(reviews.get(0)));
+		} else if (reviews.size() > 1) {
+			monoList.add(integration.createReviews(reviews).then());
+		}
+		return monoList;
+	}
+
+	/**
+	 * A conditional GET is answered from the core services, not from the cache: a cached aggregate can be older
+	 * than the copy of the client and would answer 304 for it.
+	 */
 	@Override
 	public Mono<ProductAggregate> getProduct(int productId) {
+		return ConditionalGet.isConditional()
+				.flatMap(conditional -> ConditionalGet.get(Mono.<String>empty(), getTaggedAggregate(productId, !conditional),
+						TaggedAggregate::getEtag))
+				.map(TaggedAggregate::getAggregate);
+	}
+
+	private Mono<ProductAggregate> getProductAggregate(int productId) {
+		return getTaggedAggregate(productId, true).map(TaggedAggregate::getAggregate);
+	}
+
+	private Mono<TaggedAggregate> getTaggedAggregate(int productId, boolean useCache) {
 		log.debug("Getting Aggregate Product with productId = {} on {}", productId, serviceUtil.getServiceAddress());
 
+		TaggedAggregate cached = useCache ? aggregateCache.getTagged(productId) : null;
+		if (cached != null) {
+			log.debug("Product aggregate with productId = {} found in cache", productId);
+			return Mono.just(cached);
+		}
+
+		// join an in-flight request for the same product, if any, instead of calling the core services again
+		return Mono.defer(() -> {
+			boolean[] created = { false };
+			Mono<TaggedAggregate> shared = inFlightAggregates.computeIfAbsent(productId, id -> {
+				created[0] = true;
+				// cache() replays the result to every subscriber and does not cancel the downstream calls
+				// when one of them cancels
+				return Mono.defer(() -> loadProductAggregate(id))
+						.doFinally(signal -> inFlightAggregates.remove(id))
+						.cache();
+			});
+			if (!created[0]) {
+				log.debug("Joining in-flight request for product aggregate with productId = {}", productId);
+				coalescedRequests.increment();
+			}
+			return shared;
+		});
+	}
+
+	/**
+	 * Only the requested sections are fetched, and only with the requested fields. A cached aggregate is
+	 * projected, a projected aggregate is never cached.
+	 */
+	@Override
+	public Mono<ProductAggregate> getProduct(int productId, List<String> fields) {
+		log.debug("Getting fields {} of Aggregate Product with productId = {} on {}", fields, productId, serviceUtil.getServiceAddress());
+
+		FieldSelection selection = FieldSelection.parse(fields);
+
+		ProductAggregate cached = aggregateCache.get(productId);
+		if (cached != null) {
+			log.debug("Product aggregate with productId = {} found in cache", productId);
+			return Mono.just(selection.project(cached));
+		}
+
+		// a section that is not requested is not fetched, the projection leaves it out
+		Mono<Optional<List<Recommendation>>> recommendations = selection.includesRecommendations()
+				? optionalSection("recommendations", productId, integration.getRecommendations(productId, selection.getRecommendationFields()).collectList())
+				: Mono.just(Optional.of(List.of()));
+		Mono<Optional<List<Review>>> reviews = selection.includesReviews()
+				? optionalSection("reviews", productId, integration.getReviews(productId, selection.getReviewFields()).collectList())
+				: Mono.just(Optional.of(List.of()));
+
+		return Mono.zip(integration.getProduct(productId, selection.getProductFields()), recommendations, reviews)
+				.map(values -> selection.project(createProductAggregate(values.getT1(), values.getT2().orElse(null),
+						values.getT3().orElse(null), serviceUtil.getServiceAddress())))
+				.doOnError(ex -> log.warn("getCompositeProduct with fields failed: {}", ex.toString()))
+				.log(log.getName(), FINE);
+	}
+
+	private Mono<TaggedAggregate> loadProductAggregate(int productId) {
+
+	    // taken before the core services are called, an eviction during the load keeps the result out of the cache
+	    long generation = aggregateCache.generation();
+
+	    // the product is mandatory, recommendations and reviews are optional sections (empty Optional = missing)
 	    return Mono.zip(
-	    	      values -> createProductAggregate((Product) values[0], (List<Recommendation>) values[1], (List<Review>) values[2], serviceUtil.getServiceAddress()),
+	    	      values -> tag((Product) values[0], ((Optional<SectionPage<Recommendation>>) values[1]).orElse(null), ((Optional<SectionPage<Review>>) values[2]).orElse(null)),
 	    	      integration.getProduct(productId), // values[0]
-	    	      integration.getRecommendations(productId).collectList(), // values[1]
-	    	      integration.getReviews(productId).collectList()) // values[2]
+	    	      optionalSection("recommendations", productId, integration.getRecommendationsFirstPage(productId)), // values[1]
+	    	      optionalSection("reviews", productId, integration.getReviewsFirstPage(productId))) // values[2]
+	    	      .doOnNext(tagged -> {
+	    	    	  // a partial aggregate must not hide the complete one for the lifetime of the cache entry
+	    	    	  if (tagged.getAggregate().getMissingSections().isEmpty()) {
+	    	    		  aggregateCache.put(tagged, generation);
+	    	    	  }
+	    	      })
 	    	      .doOnError(ex -> log.warn("getCompositeProduct failed: {}", ex.toString()))
 	    	      .log(log.getName(), FINE);		
 	}
 
+	private TaggedAggregate tag(Product product, SectionPage<Recommendation> recommendations, SectionPage<Review> reviews) {
+		ProductAggregate aggregate = createProductAggregate(product, recommendations == null ? null : recommendations.getItems(),
+				reviews == null ? null : reviews.getItems(), serviceUtil.getServiceAddress());
+		return new TaggedAggregate(aggregate, etag(aggregate, recommendations == null ? null : recommendations.getEtag(),
+				reviews == null ? null : reviews.getEtag()));
+	}
+
+	private <T> Mono<Optional<T>> optionalSection(String section, int productId, Mono<T> items) {
+
+		Mono<Optional<T>> result = items.map(Optional::of);
+		if (!partialResultsEnabled) {
+			return result;
+		}
+		// client errors are real answers (e.g. invalid input), everything else leaves the section out
+		return result.onErrorResume(ex -> !(ex instanceof NotFoundException || ex instanceof InvalidInputException),
+				ex -> {
+					log.warn("Leaving {} out of the aggregate for productId = {}: {}", section, productId, ex.toString());
+					return Mono.just(Optional.empty());
+				});
+	}
+
+	@Override
+	public Flux<ProductAggregateItem> getProductStream(int productId) {
+		log.debug("Streaming Aggregate Product with productId = {} on {}", productId, serviceUtil.getServiceAddress());
+
+		ProductAggregate cached = aggregateCache.get(productId);
+		if (cached != null) {
+			log.debug("Product aggregate with productId = {} found in cache", productId);
+			return streamProductAggregate(cached);
+		}
+
+		// the product header goes out first, recommendations and reviews are passed on as they arrive,
+		// merge() only requests what the client can consume so the lists are never held in memory
+		return Mono.defer(() -> integration.getProduct(productId))
+				.flatMapMany(product -> Flux.concat(
+						Mono.just(new ProductAggregateItem(product.getProductId(), product.getName(), product.getWeight())),
+						Flux.merge(
+								integration.streamRecommendations(productId, ex -> skipSection("recommendations", productId, ex))
+										.map(r -> new ProductAggregateItem(productId, new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()))),
+								integration.streamReviews(productId, ex -> skipSection("reviews", productId, ex))
+										.map(r -> new ProductAggregateItem(productId, new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()))))))
+				.doOnError(ex -> log.warn("getCompositeProductStream failed: {}", ex.toString()))
+				.log(log.getName(), FINE);
+	}
+
+	// the header is already sent, a section whose service is unavailable is left out of the stream
+	private <T> Flux<T> skipSection(String section, int productId, ServiceUnavailableException ex) {
+		log.warn("Leaving {} out of the stream for productId = {}: {}", section, productId, ex.getMessage());
+		return Flux.empty();
+	}
+
+	private Flux<ProductAggregateItem> streamProductAggregate(ProductAggregate aggregate) {
+
+		int productId = aggregate.getProductId();
+		return Flux.concat(
+				Mono.just(new ProductAggregateItem(productId, aggregate.getName(), aggregate.getWeight())),
+				Flux.fromIterable(aggregate.getRecommendations()).map(r -> new ProductAggregateItem(productId, r)),
+				Flux.fromIterable(aggregate.getReviews()).map(r -> new ProductAggregateItem(productId, r)));
+	}
+
+	@Override
+	public Flux<ProductAggregate> getProducts(List<Integer> productIds) {
+
+		if (productIds == null || productIds.isEmpty()) {
+			throw new InvalidInputException("No product ids specified");
+		}
+		if (productIds.size() > batchMaxIds) {
+			throw new InvalidInputException("Too many product ids: " + productIds.size() + ", maximum is " + batchMaxIds);
+		}
+
+		log.debug("Getting {} Aggregate Products with concurrency {}", productIds.size(), batchConcurrency);
+
+		// flatMap emits each aggregate as soon as it is ready, errors are turned into per-item results
+		return Flux.fromIterable(productIds)
+				.distinct()
+				.flatMap(productId -> Mono.defer(() -> getProductAggregate(productId))
+						.onErrorResume(ex -> Mono.just(new ProductAggregate(productId, createAggregateError(ex)))),
+						batchConcurrency)
+				.log(log.getName(), FINE);
+	}
+
 	@Override
 	public Mono<Void> deleteProduct(int productId) {
 
@@ -98,13 +360,13 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
 		  log.debug("deleteCompositeProduct: Deletes a product aggregate for productId: {}", productId);
 
-		  return Mono.zip(
-		        r -> "",
+		  // zip would cancel the other deletes as soon as the first one completes empty
+		  return Mono.when(
 		        integration.deleteProduct(productId),
 		        integration.deleteRecommendations(productId),
 		        integration.deleteReviews(productId))
 		        .doOnError(ex -> log.warn("delete failed: {}", ex.toString()))
-		        .log(log.getName(), FINE).then();
+		        .log(log.getName(), FINE);
 
 	    } catch (RuntimeException re) {
 	      log.warn("deleteCompositeProduct failed: {}", re.toString());
@@ -112,6 +374,22 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 	    }
 	}
 
+	private AggregateError createAggregateError(Throwable ex) {
+
+		HttpStatus status;
+		if (ex instanceof NotFoundException) {
+			status = HttpStatus.NOT_FOUND;
+		} else if (ex instanceof InvalidInputException) {
+			status = HttpStatus.UNPROCESSABLE_ENTITY;
+		} else if (ex instanceof ServiceUnavailableException) {
+			status = HttpStatus.SERVICE_UNAVAILABLE;
+		} else {
+			log.warn("Batch item failed with an unexpected error: {}", ex.toString());
+			status = HttpStatus.INTERNAL_SERVER_ERROR;
+		}
+		return new AggregateError(status.value(), ex.getMessage());
+	}
+
 	private ProductAggregate createProductAggregate(Product product, List<Recommendation> recommendations,List<Review> reviews, String serviceAddress) {
 
 		log.debug("Creating Product : "+product.toString());
@@ -120,20 +398,31 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 		String name = product.getName();
 		int weight = product.getWeight();
 
-		// 2. Copy summary recommendation info, if available
+		// 2. Keep the first page of each section, the integration reads one entity more when there are more
+		List<String> truncatedSections = new ArrayList<>();
+		if (recommendations != null && recommendations.size() > aggregatePageSize) {
+			recommendations = recommendations.subList(0, aggregatePageSize);
+			truncatedSections.add("recommendations");
+		}
+		if (reviews != null && reviews.size() > aggregatePageSize) {
+			reviews = reviews.subList(0, aggregatePageSize);
+			truncatedSections.add("reviews");
+		}
+
+		// 3. Copy summary recommendation info, if available
 		List<RecommendationSummary> recommendationSummaries = (recommendations == null) ? null
 				// iterate over list
 				: recommendations.stream()
-						.map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(),r.getContent()))
+						.map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(),r.getContent(), r.getVersion()))
 						.collect(Collectors.toList());
 
-		// 3. Copy summary review info, if available
+		// 4. Copy summary review info, if available
 		List<ReviewSummary> reviewSummaries = (reviews == null) ? null
 				// iterate over list
-				: reviews.stream().map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(),r.getContent()))
+				: reviews.stream().map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(),r.getContent(), r.getVersion()))
 						.collect(Collectors.toList());
 
-		// 4. Create info regarding the involved microservices addresses
+		// 5. Create info regarding the involved microservices addresses
 		String productAddress = product.getServiceAddress();
 		String reviewAddress = (reviews != null && reviews.size() > 0) ? reviews.get(0).getServiceAddress() : "";
 		String recommendationAddress = (recommendations != null && recommendations.size() > 0)
@@ -142,7 +431,83 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 		ServiceAddresses serviceAddresses = new ServiceAddresses(serviceAddress, productAddress, reviewAddress,
 				recommendationAddress);
 
-		return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries,
-				serviceAddresses);
+		// 6. Mark the sections that could not be fetched
+		List<String> missingSections = new ArrayList<>();
+		if (recommendations == null) {
+			missingSections.add("recommendations");
+		}
+		if (reviews == null) {
+			missingSections.add("reviews");
+		}
+
+		return new ProductAggregate(productId, name, weight, product.getVersion(), recommendationSummaries, reviewSummaries,
+				serviceAddresses, missingSections, truncatedSections);
+	}
+
+	// combines the version of the product with the ETags of all its recommendations and all its reviews, as returned
+	// by the core services with the first page, a partial aggregate gets its own ETag. Without an ETag from the core
+	// service the versions of the first page are used
+	private String etag(ProductAggregate aggregate, String recommendationsEtag, String reviewsEtag) {
+
+		List<Object> parts = new ArrayList<>();
+		parts.add(aggregate.getProductId() + ":" + aggregate.getVersion());
+		if (recommendationsEtag != null) {
+			parts.add("recommendations=" + recommendationsEtag);
+		} else if (aggregate.getRecommendations() != null) {
+			aggregate.getRecommendations().stream()
+					.sorted(Comparator.comparingInt(RecommendationSummary::getRecommendationId))
+					.forEach(r -> parts.add("recommendation=" + r.getRecommendationId() + ":" + r.getVersion()));
+		}
+		if (reviewsEtag != null) {
+			parts.add("reviews=" + reviewsEtag);
+		} else if (aggregate.getReviews() != null) {
+			aggregate.getReviews().stream()
+					.sorted(Comparator.comparingInt(ReviewSummary::getReviewId))
+					.forEach(r -> parts.add("review=" + r.getReviewId() + ":" + r.getVersion()));
+		}
+		aggregate.getMissingSections().forEach(section -> parts.add("missing=" + section));
+		aggregate.getTruncatedSections().forEach(section -> parts.add("truncated=" + section));
+		return ConditionalGet.etag(parts.toArray());
+	}
+
+	private static class BulkRecord {
+
+		final long line;
+		final ProductAggregate aggregate;
+		final String error;
+
+		BulkRecord(long line, ProductAggregate aggregate, String error) {
+			this.line = line;
+			this.aggregate = aggregate;
+			this.error = error;
+		}
+	}
+
+	private static class BulkIngestSummary {
+
+		private final int maxErrors;
+		private final List<BulkIngestError> errors = new ArrayList<>();
+		private long accepted;
+		private long rejected;
+
+		BulkIngestSummary(int maxErrors) {
+			this.maxErrors = maxErrors;
+		}
+
+		BulkIngestSummary add(BulkRecord record) {
+			if (record.error == null) {
+				accepted++;
+			} else {
+				rejected++;
+				if (errors.size() < maxErrors) {
+					errors.add(new BulkIngestError(record.line, record.error));
+				}
+			}
+			return this;
+		}
+
+		BulkIngestResult toResult() {
+			return new BulkIngestResult(accepted, rejected, errors);
+		}
 	}
 }
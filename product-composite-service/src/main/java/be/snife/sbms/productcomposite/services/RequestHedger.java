@@ -0,0 +1,127 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends a second, identical request to a downstream service when the first one
+ * has not answered within the configured latency percentile of that service.
+ * The first answer wins, the other request is cancelled.
+ *
+ * The hedge delay is taken from a sliding-window percentile of the observed
+ * latencies and kept between minDelay and maxDelay; until minSamples requests
+ * have been observed maxDelay is used. The latency is the time from the start
+ * of the first request to the answer, whichever request answers: a first
+ * request that loses to its hedge is sampled as at least that slow, so its
+ * tail is not replaced by the shorter time of the hedge. Per service the following metrics are
+ * published with tag service=[name]:
+ * "composite.downstream.latency", "composite.hedge.requests" (requests that
+ * could be hedged), "composite.hedge.sent" and "composite.hedge.wins".
+ */
+@Slf4j
+public class RequestHedger {
+
+	private final String name;
+	private final boolean enabled;
+	private final double percentile;
+	private final Duration minDelay;
+	private final Duration maxDelay;
+	private final long minSamples;
+
+	private final Timer latency;
+	private final Counter requests;
+	private final Counter hedgesSent;
+	private final Counter hedgeWins;
+
+	public RequestHedger(String name, MeterRegistry meterRegistry, boolean enabled, double percentile,
+			Duration minDelay, Duration maxDelay, long minSamples) {
+
+		log.info("Creates a request hedger for {}: enabled = {}, percentile = {}, minDelay = {}, maxDelay = {}", name,
+				enabled, percentile, minDelay, maxDelay);
+
+		this.name = name;
+		this.enabled = enabled;
+		this.percentile = percentile;
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		this.minSamples = minSamples;
+
+		this.latency = Timer.builder("composite.downstream.latency")
+				.description("Time from the first request to a downstream service to its successful answer")
+				.tag("service", name)
+				.publishPercentiles(percentile)
+				.distributionStatisticExpiry(Duration.ofMinutes(1))
+				.register(meterRegistry);
+		this.requests = Counter.builder("composite.hedge.requests")
+				.description("Requests to a downstream service that could be hedged")
+				.tag("service", name)
+				.register(meterRegistry);
+		this.hedgesSent = Counter.builder("composite.hedge.sent")
+				.description("Hedge requests sent because the first request was slower than the hedge delay")
+				.tag("service", name)
+				.register(meterRegistry);
+		this.hedgeWins = Counter.builder("composite.hedge.wins")
+				.description("Hedge requests that answered before the first request")
+				.tag("service", name)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * The supplier must create a new request on each call. Only a value or an error of
+	 * the first request cancels the hedge, so client errors (404, 422) are not retried.
+	 */
+	public <T> Mono<T> hedge(Supplier<Mono<T>> request) {
+
+		if (!enabled) {
+			return Mono.defer(request);
+		}
+
+		return Mono.defer(() -> {
+			requests.increment();
+			Duration delay = hedgeDelay();
+
+			long start = System.nanoTime();
+			Mono<T> first = Mono.defer(request);
+			Mono<T> second = Mono.delay(delay)
+					.then(Mono.defer(() -> {
+						log.debug("No answer from {} after {} ms, sends a hedge request", name, delay.toMillis());
+						hedgesSent.increment();
+						return Mono.defer(request).doOnNext(value -> hedgeWins.increment());
+					}));
+
+			return Mono.firstWithSignal(first, second)
+					.doOnSuccess(value -> latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+		});
+	}
+
+	Duration hedgeDelay() {
+
+		if (latency.count() < minSamples) {
+			return maxDelay;
+		}
+
+		for (ValueAtPercentile value : latency.takeSnapshot().percentileValues()) {
+			if (value.percentile() == percentile) {
+				long nanos = (long) value.value(TimeUnit.NANOSECONDS);
+				return clamp(Duration.ofNanos(nanos));
+			}
+		}
+		return maxDelay;
+	}
+
+	private Duration clamp(Duration delay) {
+		if (delay.compareTo(minDelay) < 0) {
+			return minDelay;
+		}
+		return delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
+	}
+
+}
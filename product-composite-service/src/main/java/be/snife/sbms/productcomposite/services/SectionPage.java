@@ -0,0 +1,26 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.util.List;
+
+/**
+ * The first page of a section of the aggregate, with the ETag of the whole section as returned by the core
+ * service. The ETag is null when the core service did not return one.
+ */
+public class SectionPage<T> {
+
+	private final List<T> items;
+	private final String etag;
+
+	public SectionPage(List<T> items, String etag) {
+		this.items = items;
+		this.etag = etag;
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+}
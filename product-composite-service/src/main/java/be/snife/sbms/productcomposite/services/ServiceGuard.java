@@ -0,0 +1,77 @@
+package be.snife.sbms.productcomposite.services;
+
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Circuit breaker and bulkhead for the calls to one downstream service, configured with
+ * resilience4j.circuitbreaker.instances.[name] and resilience4j.bulkhead.instances.[name].
+ *
+ * The circuit breaker wraps the bulkhead, so an open circuit rejects a call without taking a
+ * permit. Rejected calls fail with a ServiceUnavailableException. Besides the resilience4j
+ * metrics, state transitions are counted in "composite.circuitbreaker.transitions" (tags
+ * service, from, to) and calls rejected by a full bulkhead in "composite.bulkhead.rejected".
+ */
+@Slf4j
+public class ServiceGuard {
+
+	private final String name;
+	private final CircuitBreaker circuitBreaker;
+	private final Bulkhead bulkhead;
+
+	public ServiceGuard(String name, CircuitBreakerRegistry circuitBreakerRegistry, BulkheadRegistry bulkheadRegistry,
+			MeterRegistry meterRegistry) {
+
+		this.name = name;
+		this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(name);
+		this.bulkhead = bulkheadRegistry.bulkhead(name);
+
+		circuitBreaker.getEventPublisher().onStateTransition(event -> {
+			log.warn("Circuit breaker for {}: {}", name, event.getStateTransition());
+			meterRegistry.counter("composite.circuitbreaker.transitions", "service", name,
+					"from", event.getStateTransition().getFromState().name(),
+					"to", event.getStateTransition().getToState().name()).increment();
+		});
+		bulkhead.getEventPublisher().onCallRejected(event -> meterRegistry
+				.counter("composite.bulkhead.rejected", "service", name).increment());
+	}
+
+	public <T> Mono<T> protect(Mono<T> call) {
+		return call.transformDeferred(BulkheadOperator.of(bulkhead))
+				.transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+				.onErrorMap(ServiceGuard::isRejected, this::unavailable);
+	}
+
+	public <T> Flux<T> protect(Flux<T> call) {
+		return call.transformDeferred(BulkheadOperator.of(bulkhead))
+				.transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+				.onErrorMap(ServiceGuard::isRejected, this::unavailable);
+	}
+
+	public CircuitBreaker.State getState() {
+		return circuitBreaker.getState();
+	}
+
+	/**
+	 * True for calls rejected without calling the service: open circuit or full bulkhead.
+	 */
+	public static boolean isRejected(Throwable ex) {
+		return ex instanceof CallNotPermittedException || ex instanceof BulkheadFullException;
+	}
+
+	private Throwable unavailable(Throwable ex) {
+		log.debug("Call to {} rejected: {}", name, ex.getMessage());
+		return new ServiceUnavailableException(ex.getMessage(), ex);
+	}
+}
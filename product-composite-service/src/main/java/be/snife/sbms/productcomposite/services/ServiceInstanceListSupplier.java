@@ -0,0 +1,23 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.util.List;
+
+/**
+ * Source of the instances of a downstream service, as base URLs like "http://product:8080".
+ * Called on every request, implementations must be cheap.
+ */
+public interface ServiceInstanceListSupplier {
+
+	List<String> getInstances();
+
+	/**
+	 * Accepts "host:port" as well as full base URLs, a trailing slash is removed.
+	 */
+	static String toBaseUrl(String instance) {
+		String baseUrl = instance.trim();
+		if (!baseUrl.startsWith("http://") && !baseUrl.startsWith("https://")) {
+			baseUrl = "http://" + baseUrl;
+		}
+		return baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+	}
+}
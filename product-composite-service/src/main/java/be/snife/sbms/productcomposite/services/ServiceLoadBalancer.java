@@ -0,0 +1,180 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import be.snife.sbms.api.exceptions.InvalidInputException;
+import be.snife.sbms.api.exceptions.NotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Client side load balancer for the instances of one downstream service.
+ *
+ * Uses power of two choices: two random instances are compared and the one with the
+ * fewest outstanding requests is called. An instance that fails consecutiveFailures
+ * times in a row (any error except 404 and 422, a timeout of the call included) is
+ * ejected for the ejection time, when all instances are ejected the ejected instances
+ * are used anyway. Ejections are counted in "composite.loadbalancer.ejections" with tag
+ * service=[name].
+ */
+@Slf4j
+public class ServiceLoadBalancer {
+
+	private final String name;
+	private final ServiceInstanceListSupplier instanceListSupplier;
+	private final int consecutiveFailures;
+	private final long ejectionTimeNanos;
+	private final Map<String, Instance> instances = new ConcurrentHashMap<>();
+	private final Counter ejections;
+
+	public ServiceLoadBalancer(String name, ServiceInstanceListSupplier instanceListSupplier, MeterRegistry meterRegistry,
+			int consecutiveFailures, Duration ejectionTime) {
+
+		log.info("Creates a load balancer for {}: instances = {}, consecutiveFailures = {}, ejectionTime = {}", name,
+				instanceListSupplier.getInstances(), consecutiveFailures, ejectionTime);
+
+		this.name = name;
+		this.instanceListSupplier = instanceListSupplier;
+		this.consecutiveFailures = consecutiveFailures;
+		this.ejectionTimeNanos = ejectionTime.toNanos();
+		this.ejections = Counter.builder("composite.loadbalancer.ejections")
+				.description("Instances ejected after consecutive failed requests")
+				.tag("service", name)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Chooses an instance when the returned Mono is subscribed to and calls it with the base URL of the instance.
+	 */
+	public <T> Mono<T> execute(Function<String, Mono<T>> call) {
+		return Mono.defer(() -> {
+			Instance instance = choose();
+			instance.outstanding.incrementAndGet();
+			return call.apply(instance.baseUrl)
+					.doOnSuccess(value -> recordSuccess(instance))
+					.doOnError(ex -> recordError(instance, ex))
+					.doFinally(signal -> instance.outstanding.decrementAndGet());
+		});
+	}
+
+	/**
+	 * Like execute, the call must answer within the timeout. The timeout is applied to the call on the chosen
+	 * instance, so it counts as a failure of that instance.
+	 */
+	public <T> Mono<T> execute(Duration timeout, Function<String, Mono<T>> call) {
+		return execute(baseUrl -> call.apply(baseUrl).timeout(timeout));
+	}
+
+	/**
+	 * Like execute, for a call that returns a Flux.
+	 */
+	public <T> Flux<T> executeMany(Function<String, Flux<T>> call) {
+		return Flux.defer(() -> {
+			Instance instance = choose();
+			instance.outstanding.incrementAndGet();
+			return call.apply(instance.baseUrl)
+					.doOnComplete(() -> recordSuccess(instance))
+					.doOnError(ex -> recordError(instance, ex))
+					.doFinally(signal -> instance.outstanding.decrementAndGet());
+		});
+	}
+
+	/**
+	 * Like executeMany, the whole Flux must complete within the timeout of the chosen instance. Flux.timeout(Duration)
+	 * restarts for every element, here the deadline is fixed when the call starts.
+	 */
+	public <T> Flux<T> executeMany(Duration timeout, Function<String, Flux<T>> call) {
+		return executeMany(baseUrl -> Flux.defer(() -> {
+			Mono<Long> deadline = Mono.delay(timeout).cache();
+			return call.apply(baseUrl).timeout(deadline, item -> deadline);
+		}));
+	}
+
+	/**
+	 * Base URLs of all instances, ejected or not, e.g. to check the health of each of them.
+	 */
+	public List<String> getBaseUrls() {
+		return instanceListSupplier.getInstances();
+	}
+
+	Instance choose() {
+
+		List<String> baseUrls = instanceListSupplier.getInstances();
+		if (baseUrls.isEmpty()) {
+			throw new IllegalStateException("No instances configured for " + name);
+		}
+
+		long now = System.nanoTime();
+		List<Instance> available = new ArrayList<>(baseUrls.size());
+		List<Instance> all = new ArrayList<>(baseUrls.size());
+		for (String baseUrl : baseUrls) {
+			Instance instance = instances.computeIfAbsent(baseUrl, Instance::new);
+			all.add(instance);
+			if (!instance.isEjected(now)) {
+				available.add(instance);
+			}
+		}
+
+		List<Instance> candidates = available.isEmpty() ? all : available;
+		if (candidates.size() == 1) {
+			return candidates.get(0);
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(candidates.size());
+		int second = random.nextInt(candidates.size() - 1);
+		if (second >= first) {
+			second++;
+		}
+		Instance a = candidates.get(first);
+		Instance b = candidates.get(second);
+		return a.outstanding.get() <= b.outstanding.get() ? a : b;
+	}
+
+	private void recordSuccess(Instance instance) {
+		instance.failures.set(0);
+	}
+
+	private void recordError(Instance instance, Throwable ex) {
+
+		// the instance answered, the request was wrong
+		if (ex instanceof NotFoundException || ex instanceof InvalidInputException) {
+			recordSuccess(instance);
+			return;
+		}
+
+		if (instance.failures.incrementAndGet() >= consecutiveFailures) {
+			instance.failures.set(0);
+			instance.ejectedUntil = System.nanoTime() + ejectionTimeNanos;
+			ejections.increment();
+			log.warn("Ejects {} instance {} for {} ms after {} consecutive failures, last error: {}", name,
+					instance.baseUrl, ejectionTimeNanos / 1_000_000, consecutiveFailures, ex.toString());
+		}
+	}
+
+	static class Instance {
+
+		final String baseUrl;
+		final AtomicInteger outstanding = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		volatile long ejectedUntil;
+
+		Instance(String baseUrl) {
+			this.baseUrl = baseUrl;
+		}
+
+		boolean isEjected(long now) {
+			return ejectedUntil != 0 && now - ejectedUntil < 0;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package be.snife.sbms.productcomposite.services;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Fixed instance list, e.g. from app.product-service.instances=product:8080,product-p1:8080.
+ */
+public class StaticServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+
+	private final List<String> instances;
+
+	public StaticServiceInstanceListSupplier(List<String> instances) {
+		this.instances = instances.stream()
+				.filter(instance -> !instance.isBlank())
+				.map(ServiceInstanceListSupplier::toBaseUrl)
+				.collect(Collectors.toUnmodifiableList());
+	}
+
+	/**
+	 * Parses a comma separated list of instances.
+	 */
+	public static StaticServiceInstanceListSupplier of(String instances) {
+		return new StaticServiceInstanceListSupplier(Arrays.asList(instances.split(",")));
+	}
+
+	@Override
+	public List<String> getInstances() {
+		return instances;
+	}
+}
@@ -0,0 +1,26 @@
+package be.snife.sbms.productcomposite.services;
+
+import be.snife.sbms.api.composite.product.ProductAggregate;
+
+/**
+ * A product aggregate with its ETag. The ETag covers all the recommendations and reviews of the product, the
+ * aggregate only holds their first page, so it is computed when the aggregate is loaded and cached with it.
+ */
+public class TaggedAggregate {
+
+	private final ProductAggregate aggregate;
+	private final String etag;
+
+	public TaggedAggregate(ProductAggregate aggregate, String etag) {
+		this.aggregate = aggregate;
+		this.etag = etag;
+	}
+
+	public ProductAggregate getAggregate() {
+		return aggregate;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+}
@@ -0,0 +1,172 @@
+package be.snife.sbms.productcomposite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import be.snife.sbms.productcomposite.services.EventJournal;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class EventJournalTests {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicBoolean brokerDown = new AtomicBoolean();
+  private final List<String> published = new CopyOnWriteArrayList<>();
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void publishesInOrderPerKey() throws IOException {
+
+    EventJournal journal = start(4096);
+    for (int i = 0; i < 30; i++) {
+      journal.append("products-out-0", message(i % 3, i)).block();
+    }
+
+    awaitPublished(30);
+    for (int key = 0; key < 3; key++) {
+      String prefix = "products-out-0:" + key + ":";
+      List<String> ofKey = published.stream().filter(p -> p.startsWith(prefix)).collect(Collectors.toList());
+      assertEquals(10, ofKey.size());
+      for (int n = 0; n < 10; n++) {
+        assertEquals(prefix + "{\"n\":" + (key + 3 * n) + "}", ofKey.get(n));
+      }
+    }
+    journal.stop();
+  }
+
+  @Test
+  void acceptsWritesWhileTheBrokerIsDown() throws IOException {
+
+    brokerDown.set(true);
+    EventJournal journal = start(4096);
+    journal.append("products-out-0", message(1, 1)).block(Duration.ofSeconds(1));
+    journal.append("reviews-out-0", message(1, 2)).block(Duration.ofSeconds(1));
+
+    assertEquals(0, published.size());
+    assertEquals(2, meterRegistry.get("composite.journal.pending").gauge().value());
+
+    brokerDown.set(false);
+    awaitPublished(2);
+    assertEquals(List.of("products-out-0:1:{\"n\":1}", "reviews-out-0:1:{\"n\":2}"), published);
+    journal.stop();
+  }
+
+  @Test
+  void publishesAfterRestart() throws IOException {
+
+    // a small segment size, so the messages span several segments
+    brokerDown.set(true);
+    EventJournal journal = start(256);
+    for (int i = 0; i < 20; i++) {
+      journal.append("products-out-0", message(7, i)).block();
+    }
+    journal.stop();
+    assertTrue(segments() > 1);
+
+    brokerDown.set(false);
+    EventJournal restarted = start(256);
+    awaitPublished(20);
+    for (int i = 0; i < 20; i++) {
+      assertEquals("products-out-0:7:{\"n\":" + i + "}", published.get(i));
+    }
+
+    // drained segments are deleted
+    restarted.append("products-out-0", message(7, 20)).block();
+    awaitPublished(21);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (segments() > 1 && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(1, segments());
+    restarted.stop();
+  }
+
+  @Test
+  void rollsBackAFailedFlush() throws IOException {
+
+    brokerDown.set(true);
+    EventJournal journal = start(256);
+    for (int i = 0; i < 5; i++) {
+      journal.append("products-out-0", message(7, i)).block();
+    }
+
+    // the segment fills up and the next segment cannot be created
+    Path nextSegment = Files.createDirectory(dir.resolve(String.format("segment-%020d.log", 1)));
+    List<Integer> written = new CopyOnWriteArrayList<>();
+    Flux.range(5, 5)
+      .flatMap(n -> journal.append("products-out-0", message(7, n))
+        .doOnSuccess(v -> written.add(n))
+        .onErrorResume(ex -> Mono.empty()))
+      .blockLast();
+    assertTrue(written.size() < 5);
+
+    Files.delete(nextSegment);
+    journal.append("products-out-0", message(7, 10)).block();
+    journal.stop();
+
+    // only the acknowledged messages are published, the failed ones are not read back after a restart
+    brokerDown.set(false);
+    EventJournal restarted = start(256);
+    List<Integer> expected = Stream.of(Stream.of(0, 1, 2, 3, 4), written.stream().sorted(), Stream.of(10))
+      .flatMap(n -> n).collect(Collectors.toList());
+    awaitPublished(expected.size());
+    assertEquals(expected.stream().map(n -> "products-out-0:7:{\"n\":" + n + "}").collect(Collectors.toList()), published);
+    restarted.stop();
+  }
+
+  private EventJournal start(int segmentSize) throws IOException {
+    EventJournal journal = new EventJournal(true, dir, segmentSize, 8, 4, Duration.ofMillis(20), new ObjectMapper(),
+        this::publish, meterRegistry);
+    journal.start();
+    return journal;
+  }
+
+  private Mono<Void> publish(String bindingName, Message<?> message) {
+    if (brokerDown.get()) {
+      return Mono.error(new IllegalStateException("broker down"));
+    }
+    published.add(bindingName + ":" + message.getHeaders().get("partitionKey") + ":"
+        + new String((byte[]) message.getPayload()));
+    return Mono.empty();
+  }
+
+  private Message<Map<String, Integer>> message(int key, int n) {
+    return MessageBuilder.withPayload(Map.of("n", n)).setHeader("partitionKey", key).build();
+  }
+
+  private long segments() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("segment-")).count();
+    }
+  }
+
+  private void awaitPublished(int count) {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (published.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(count, published.size());
+  }
+}
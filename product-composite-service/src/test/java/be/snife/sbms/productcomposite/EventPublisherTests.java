@@ -0,0 +1,111 @@
+package be.snife.sbms.productcomposite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
+import be.snife.sbms.util.messaging.EventPublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class EventPublisherTests {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final DirectChannel publishConfirms = new DirectChannel();
+  private final List<Message<?>> sent = new CopyOnWriteArrayList<>();
+
+  // acknowledgements are sent by the test, at most 2 messages are unacknowledged
+  private final EventPublisher publisher = new EventPublisher((binding, message) -> sent.add(message), meterRegistry,
+      publishConfirms, 2, 3, true, Duration.ofSeconds(5));
+
+  @AfterEach
+  void stop() {
+    publisher.stop();
+  }
+
+  @Test
+  void waitsForAnInFlightSlot() {
+
+    Mono<List<Void>> all = Flux.range(1, 5).flatMap(i -> publisher.publish("products-out-0", message(i))).collectList();
+
+    StepVerifier.create(all)
+      .then(() -> awaitSent(2))
+      .then(() -> {
+        assertEquals(2, meterRegistry.get("events.publish.in-flight").gauge().value());
+        assertEquals(3, meterRegistry.get("events.publish.pending").gauge().value());
+      })
+      .then(() -> ack(0, 1))
+      .then(() -> awaitSent(4))
+      .then(() -> ack(2, 3))
+      .then(() -> awaitSent(5))
+      .then(() -> ack(4))
+      .expectNextCount(1)
+      .verifyComplete();
+
+    assertEquals(5, meterRegistry.get("events.publish.latency").tag("outcome", "success").timer().count());
+    assertEquals(0, meterRegistry.get("events.publish.in-flight").gauge().value());
+  }
+
+  @Test
+  void rejectsWhenTooManyArePending() {
+
+    for (int i = 0; i < 5; i++) {
+      publisher.publish("products-out-0", message(i)).subscribe(v -> {}, ex -> {});
+    }
+
+    // 2 in flight and 3 pending, the next one is rejected
+    StepVerifier.create(publisher.publish("products-out-0", message(5)))
+      .expectError(ServiceUnavailableException.class)
+      .verify();
+
+    assertEquals(1, meterRegistry.counter("events.publish.rejected", "binding", "products-out-0").count());
+  }
+
+  @Test
+  void doesNotWaitForAnAcknowledgementOfABindingWithoutConfirmChannel() {
+
+    // only products-out-0 sends its acknowledgements, a retry topic is a dynamic destination without them
+    EventPublisher confirming = new EventPublisher((binding, message) -> sent.add(message), meterRegistry,
+        publishConfirms, 2, 3, true, "products-out-0"::equals, Duration.ofMillis(500));
+    try {
+      StepVerifier.create(confirming.publish("products-retry-1s", message(1)))
+        .verifyComplete();
+      StepVerifier.create(confirming.publish("products-out-0", message(2)))
+        .expectError(TimeoutException.class)
+        .verify(Duration.ofSeconds(5));
+    } finally {
+      confirming.stop();
+    }
+  }
+
+  private Message<Integer> message(int key) {
+    return MessageBuilder.withPayload(key).setHeader("partitionKey", key).build();
+  }
+
+  private void ack(int... indexes) {
+    for (int index : indexes) {
+      publishConfirms.send(sent.get(index));
+    }
+  }
+
+  private void awaitSent(int count) {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (sent.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(count, sent.size());
+  }
+}
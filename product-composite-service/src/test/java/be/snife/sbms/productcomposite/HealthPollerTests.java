@@ -0,0 +1,68 @@
+package be.snife.sbms.productcomposite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.actuate.health.StatusAggregator;
+
+import be.snife.sbms.productcomposite.services.HealthPoller;
+import reactor.core.publisher.Mono;
+
+class HealthPollerTests {
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  private HealthPoller createPoller(Duration maxStaleness) {
+
+    Map<String, Supplier<Mono<Health>>> checks = new LinkedHashMap<>();
+    checks.put("up", () -> Mono.fromSupplier(() -> {
+      calls.incrementAndGet();
+      return Health.up().build();
+    }));
+    checks.put("failing", () -> Mono.error(new RuntimeException("connection refused")));
+    checks.put("hanging", Mono::never);
+
+    return new HealthPoller(checks, Duration.ofMinutes(1), Duration.ofMillis(50), maxStaleness);
+  }
+
+  @Test
+  void reportsLastPolledStatusWithoutCallingTheService() {
+
+    HealthPoller poller = createPoller(Duration.ofMinutes(1));
+    assertEquals(Status.DOWN, poller.getHealth("up").getStatus());
+
+    poller.poll().block();
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Status.UP, poller.getHealth("up").getStatus());
+    }
+    assertEquals(1, calls.get());
+    assertTrue(poller.getHealth("up").getDetails().containsKey("ageMs"));
+    assertEquals(Status.DOWN, poller.getHealth("failing").getStatus());
+    // timed out
+    assertEquals(Status.DOWN, poller.getHealth("hanging").getStatus());
+  }
+
+  @Test
+  void staleStatusIsDown() throws InterruptedException {
+
+    HealthPoller poller = createPoller(Duration.ZERO);
+    poller.poll().block();
+    Thread.sleep(5);
+
+    Health stale = poller.getHealth("up");
+    assertEquals(Status.DOWN, stale.getStatus());
+    assertEquals("last check too old, was UP", stale.getDetails().get("reason"));
+    // a stopped poller does not leave the application UP
+    assertEquals(Status.DOWN, StatusAggregator.getDefault().getAggregateStatus(Status.UP, stale.getStatus()));
+  }
+}
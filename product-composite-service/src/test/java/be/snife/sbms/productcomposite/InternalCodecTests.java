@@ -0,0 +1,117 @@
+package be.snife.sbms.productcomposite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import be.snife.sbms.api.core.recommendation.Recommendation;
+import be.snife.sbms.productcomposite.services.ConnectionPoolConfig;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+/**
+ * Compares the Smile format used between the composite and the core services with JSON.
+ */
+@Slf4j
+class InternalCodecTests {
+
+  private static final int ITERATIONS = 2000;
+
+  private final List<Recommendation> recommendations = IntStream.rangeClosed(1, 50)
+      .mapToObj(i -> new Recommendation(1, i, "author " + i, i % 5, "content of recommendation " + i, "recommendation:8080"))
+      .collect(Collectors.toList());
+
+  @Test
+  void smileIsSmallerAndCheaperThanJson() throws Exception {
+
+    ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+    ObjectMapper smile = Jackson2ObjectMapperBuilder.smile().build();
+
+    byte[] jsonBytes = json.writeValueAsBytes(recommendations);
+    byte[] smileBytes = smile.writeValueAsBytes(recommendations);
+
+    List<Recommendation> decoded = smile.readValue(smileBytes, new TypeReference<List<Recommendation>>() {});
+    assertEquals(recommendations.size(), decoded.size());
+    assertEquals(recommendations.get(49).getContent(), decoded.get(49).getContent());
+
+    long jsonNanos = roundTrips(json, jsonBytes);
+    long smileNanos = roundTrips(smile, smileBytes);
+    log.info("{} recommendations: json {} bytes, {} us per round trip; smile {} bytes, {} us per round trip",
+        recommendations.size(), jsonBytes.length, jsonNanos / ITERATIONS / 1000, smileBytes.length,
+        smileNanos / ITERATIONS / 1000);
+
+    // Smile back-references repeated property names, the timings are only logged
+    assertTrue(smileBytes.length < jsonBytes.length);
+  }
+
+  @Test
+  void negotiatesSmileWithJsonFallback() {
+
+    String accept = ConnectionPoolConfig.SMILE_VALUE + ", " + MediaType.APPLICATION_JSON_VALUE + ";q=0.9";
+    WebTestClient client = WebTestClient.bindToController(new StubController()).build();
+
+    // an endpoint that produces Smile answers in Smile
+    List<Recommendation> smile = client.get().uri("/smile-and-json").header(HttpHeaders.ACCEPT, accept)
+      .exchange()
+      .expectStatus().isOk()
+      .expectHeader().contentType(ConnectionPoolConfig.SMILE_VALUE)
+      .expectBodyList(Recommendation.class).returnResult().getResponseBody();
+    assertEquals(recommendations.get(49).getContent(), smile.get(49).getContent());
+
+    // an endpoint that does not produce Smile falls back to JSON
+    List<Recommendation> json = client.get().uri("/json-only").header(HttpHeaders.ACCEPT, accept)
+      .exchange()
+      .expectStatus().isOk()
+      .expectHeader().contentType(MediaType.APPLICATION_JSON)
+      .expectBodyList(Recommendation.class).returnResult().getResponseBody();
+    assertEquals(recommendations.get(49).getContent(), json.get(49).getContent());
+
+    // with app.internal-codec=json the endpoint that produces Smile answers in JSON
+    client.get().uri("/smile-and-json").header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+      .exchange()
+      .expectStatus().isOk()
+      .expectHeader().contentType(MediaType.APPLICATION_JSON)
+      .expectBodyList(Recommendation.class).hasSize(recommendations.size());
+  }
+
+  private long roundTrips(ObjectMapper mapper, byte[] bytes) throws Exception {
+
+    TypeReference<List<Recommendation>> type = new TypeReference<>() {};
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      mapper.readValue(mapper.writeValueAsBytes(mapper.readValue(bytes, type)), type);
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Produces like the core service endpoints, the content type is negotiated from the Accept header.
+   */
+  @RestController
+  class StubController {
+
+    @GetMapping(value = "/smile-and-json", produces = { MediaType.APPLICATION_JSON_VALUE, ConnectionPoolConfig.SMILE_VALUE })
+    Flux<Recommendation> smileAndJson() {
+      return Flux.fromIterable(recommendations);
+    }
+
+    @GetMapping(value = "/json-only", produces = MediaType.APPLICATION_JSON_VALUE)
+    Flux<Recommendation> jsonOnly() {
+      return Flux.fromIterable(recommendations);
+    }
+  }
+}
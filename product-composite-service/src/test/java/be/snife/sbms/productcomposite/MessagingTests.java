@@ -2,6 +2,7 @@ package be.snife.sbms.productcomposite;
 
 import static java.util.Collections.singletonList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
@@ -21,6 +22,7 @@ import org.springframework.cloud.stream.binder.test.OutputDestination;
 import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.messaging.Message;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
@@ -32,7 +34,11 @@ import be.snife.sbms.api.core.recommendation.Recommendation;
 import be.snife.sbms.api.core.review.Review;
 import be.snife.sbms.api.event.Event;
 
-@SpringBootTest(webEnvironment = RANDOM_PORT, properties = { "spring.main.allow-bean-definition-overriding=true" })
+// the cache invalidator would otherwise consume the events published to the test binder destinations,
+// the events are published directly so they can be received right after a request (see EventJournalTests)
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = { "spring.main.allow-bean-definition-overriding=true",
+		"spring.cloud.stream.bindings.cacheInvalidator-in-0.destination=cacheInvalidation",
+		"app.journal.enabled=false" })
 @Import({ TestChannelBinderConfiguration.class })
 class MessagingTests {
 
@@ -111,6 +117,30 @@ class MessagingTests {
 		assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
 	}
 
+	@Test
+	void createCompositeProductWithBatches() {
+
+		ProductAggregate composite = new ProductAggregate(1, "name", 1,
+				List.of(new RecommendationSummary(1, "a", 1, "c"), new RecommendationSummary(2, "a", 2, "c")),
+				List.of(new ReviewSummary(1, "a", "s", "c"), new ReviewSummary(2, "a", "s", "c")), null);
+		postAndVerifyProduct(composite, ACCEPTED);
+
+		assertEquals(1, getMessages("products").size());
+
+		// one batch event per product for the recommendations and for the reviews
+		final List<String> recommendationMessages = getMessages("recommendations");
+		assertEquals(1, recommendationMessages.size());
+		Event<Integer, Recommendation> expectedRecommendationEvent = new Event<Integer, Recommendation>(Event.Type.CREATE_BATCH, 1, null,
+				List.of(new Recommendation(1, 1, "a", 1, "c", null), new Recommendation(1, 2, "a", 2, "c", null)));
+		assertThat(recommendationMessages.get(0), is(sameEventExceptCreatedAt(expectedRecommendationEvent)));
+
+		final List<String> reviewMessages = getMessages("reviews");
+		assertEquals(1, reviewMessages.size());
+		Event<Integer, Review> expectedReviewEvent = new Event<Integer, Review>(Event.Type.CREATE_BATCH, 1, null,
+				List.of(new Review(1, 1, "a", "s", "c", null), new Review(1, 2, "a", "s", "c", null)));
+		assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
+	}
+
 	@Test
 	void deleteCompositeProduct() {
 		deleteAndVerifyProduct(1, ACCEPTED);
@@ -138,6 +168,37 @@ class MessagingTests {
 		assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
 	}
 
+	@Test
+	void bulkCreateCompositeProducts() {
+
+		String body = """
+				{"productId":1,"name":"name 1","weight":1,"recommendations":[{"recommendationId":1,"author":"a","rate":1,"content":"c"}]}
+				not json
+
+				{"productId":0,"name":"name 0","weight":0}
+				{"productId":2,"name":"name 2","weight":2,"reviews":[{"reviewId":1,"author":"a","subject":"s","content":"c"}]}
+				""";
+
+		client.post().uri("/product-composite/bulk").contentType(MediaType.APPLICATION_NDJSON).bodyValue(body)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.accepted").isEqualTo(2)
+				.jsonPath("$.rejected").isEqualTo(2)
+				.jsonPath("$.errors[0].line").isEqualTo(2)
+				.jsonPath("$.errors[1].line").isEqualTo(4)
+				.jsonPath("$.errors[1].message").isEqualTo("Invalid productId: 0");
+
+		final List<String> productMessages = getMessages("products");
+		assertEquals(2, productMessages.size());
+		assertEquals(1, getMessages("recommendations").size());
+		assertEquals(1, getMessages("reviews").size());
+
+		Event<Integer, Product> expectedEvent = new Event<Integer, Product>(Event.Type.CREATE, 2,
+				new Product(2, "name 2", 2, null));
+		assertThat(productMessages, hasItem(sameEventExceptCreatedAt(expectedEvent)));
+	}
+
 	private void purgeMessages(String bindingName) {
 		getMessages(bindingName);
 	}
@@ -1,46 +1,104 @@
 package be.snife.sbms.productcomposite;
 
 import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static reactor.core.publisher.Mono.just;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
 import be.snife.sbms.api.composite.product.ProductAggregate;
+import be.snife.sbms.api.composite.product.ProductAggregateItem;
+import be.snife.sbms.api.composite.product.ProductCompositeService;
 import be.snife.sbms.api.composite.product.RecommendationSummary;
 import be.snife.sbms.api.composite.product.ReviewSummary;
 import be.snife.sbms.api.core.product.Product;
 import be.snife.sbms.api.core.recommendation.Recommendation;
 import be.snife.sbms.api.core.review.Review;
+import be.snife.sbms.api.event.Event;
 import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.api.exceptions.NotFoundException;
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
+import be.snife.sbms.productcomposite.services.ProductAggregateCache;
 import be.snife.sbms.productcomposite.services.ProductCompositeIntegration;
+import be.snife.sbms.productcomposite.services.SectionPage;
+import be.snife.sbms.productcomposite.services.TaggedAggregate;
+import be.snife.sbms.util.messaging.ChangePublisher;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.test.StepVerifier;
 
-@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {"app.review-service.pool.max-connections=5"})
+@Import({ TestChannelBinderConfiguration.class })
 @Slf4j
 class ProductCompositeServiceApplicationTests {
 
   private static final int PRODUCT_ID_OK = 1;
   private static final int PRODUCT_ID_NOT_FOUND = 2;
   private static final int PRODUCT_ID_INVALID = 3;
+  private static final int PRODUCT_ID_SLOW = 4;
+  private static final int PRODUCT_ID_PARTIAL = 5;
+  private static final int PRODUCT_ID_UNAVAILABLE = 6;
+  private static final int PRODUCT_ID_TRUNCATED = 7;
 
   @Autowired private WebTestClient client;
 
   @MockBean private ProductCompositeIntegration compositeIntegration;
 
+  @Autowired private ProductAggregateCache aggregateCache;
+
+  @Autowired private ProductCompositeService compositeService;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired
+  @Qualifier("productConnectionProvider")
+  private ConnectionProvider productConnectionProvider;
+
+  @Autowired
+  @Qualifier("reviewConnectionProvider")
+  private ConnectionProvider reviewConnectionProvider;
+
+  @Autowired
+  @Qualifier("cacheInvalidator")
+  private Consumer<Message<Event<Integer, Object>>> cacheInvalidator;
+
   @BeforeEach
   void setUp() {
 
@@ -48,20 +106,40 @@ class ProductCompositeServiceApplicationTests {
     when(compositeIntegration.getProduct(PRODUCT_ID_OK))
       .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
 
-    when(compositeIntegration.getRecommendations(PRODUCT_ID_OK))
+    when(compositeIntegration.getRecommendationsFirstPage(PRODUCT_ID_OK))
+      .thenReturn(page(singletonList(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"))));
+
+    when(compositeIntegration.getReviewsFirstPage(PRODUCT_ID_OK))
+      .thenReturn(page(singletonList(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address"))));
+
+    when(compositeIntegration.streamRecommendations(eq(PRODUCT_ID_OK), any()))
       .thenReturn(Flux.fromIterable(singletonList(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"))));
 
-    when(compositeIntegration.getReviews(PRODUCT_ID_OK))
+    when(compositeIntegration.streamReviews(eq(PRODUCT_ID_OK), any()))
       .thenReturn(Flux.fromIterable(singletonList(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address"))));
 
     when(compositeIntegration.getProduct(PRODUCT_ID_NOT_FOUND)).thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
 
     when(compositeIntegration.getProduct(PRODUCT_ID_INVALID)).thenThrow(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
+
+    when(compositeIntegration.getProduct(PRODUCT_ID_UNAVAILABLE))
+      .thenReturn(Mono.error(new ServiceUnavailableException("CircuitBreaker 'product' is OPEN")));
+    when(compositeIntegration.getRecommendationsFirstPage(PRODUCT_ID_UNAVAILABLE)).thenReturn(page(List.of()));
+    when(compositeIntegration.getReviewsFirstPage(PRODUCT_ID_UNAVAILABLE)).thenReturn(page(List.of()));
   }
 
   @Test
   void contextLoads() {}
 
+  @Test
+  void connectionPoolPerService() {
+
+    assertNotSame(productConnectionProvider, reviewConnectionProvider);
+    assertEquals(50, productConnectionProvider.maxConnections());
+    // overridden for the review service in the test properties
+    assertEquals(5, reviewConnectionProvider.maxConnections());
+  }
+
 /*  
   @Test
   void createCompositeProduct1() {
@@ -105,6 +183,258 @@ class ProductCompositeServiceApplicationTests {
       .jsonPath("$.reviews.length()").isEqualTo(1);
   }
 
+  @Test
+  void getProductFromCache() {
+
+    aggregateCache.evict(PRODUCT_ID_OK);
+
+    getAndVerifyProduct(PRODUCT_ID_OK, OK).jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+    getAndVerifyProduct(PRODUCT_ID_OK, OK).jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+    verify(compositeIntegration, times(1)).getProduct(PRODUCT_ID_OK);
+
+    // a command event is consumed by the core service before the write, it does not evict
+    cacheInvalidator.accept(MessageBuilder.withPayload(new Event<Integer, Object>(Event.Type.DELETE, PRODUCT_ID_OK, null)).build());
+    getAndVerifyProduct(PRODUCT_ID_OK, OK).jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+    verify(compositeIntegration, times(1)).getProduct(PRODUCT_ID_OK);
+
+    // the change event published after the delete evicts the cached aggregate
+    cacheInvalidator.accept(MessageBuilder.withPayload(new Event<Integer, Object>(Event.Type.DELETE, PRODUCT_ID_OK, null))
+      .setHeader(ChangePublisher.SOURCE_HEADER, "product-service").build());
+
+    getAndVerifyProduct(PRODUCT_ID_OK, OK).jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+    verify(compositeIntegration, times(2)).getProduct(PRODUCT_ID_OK);
+  }
+
+  @Test
+  void evictionDuringLoadIsNotCachedOver() {
+
+    aggregateCache.evict(PRODUCT_ID_OK);
+    long generation = aggregateCache.generation();
+    TaggedAggregate loaded = new TaggedAggregate(new ProductAggregate(PRODUCT_ID_OK, "name", 1, null, null, null), "\"etag\"");
+
+    // the product changed while the aggregate was loaded, the loaded state is already old
+    aggregateCache.evict(PRODUCT_ID_OK);
+    aggregateCache.put(loaded, generation);
+    assertNull(aggregateCache.get(PRODUCT_ID_OK));
+
+    aggregateCache.put(loaded, aggregateCache.generation());
+    assertNotNull(aggregateCache.get(PRODUCT_ID_OK));
+    aggregateCache.evict(PRODUCT_ID_OK);
+  }
+
+  @Test
+  void getProductNotModified() {
+
+    aggregateCache.evict(PRODUCT_ID_OK);
+
+    String etag = client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .returnResult(ProductAggregate.class)
+      .getResponseHeaders().getETag();
+    assertNotNull(etag);
+
+    // a conditional GET is not answered from the cached aggregate, the aggregate is read again and still matches
+    getAndVerifyNotModified(PRODUCT_ID_OK, etag);
+    verify(compositeIntegration, times(2)).getProduct(PRODUCT_ID_OK);
+
+    // an unconditional GET is answered from the cache, with the same ETag
+    assertEquals(etag, client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .returnResult(ProductAggregate.class)
+      .getResponseHeaders().getETag());
+    verify(compositeIntegration, times(2)).getProduct(PRODUCT_ID_OK);
+  }
+
+  @Test
+  void getProductEtagCoversAllReviews() {
+
+    when(compositeIntegration.getReviewsFirstPage(PRODUCT_ID_OK))
+      .thenReturn(Mono.just(new SectionPage<>(singletonList(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")), "\"v1\"")));
+    aggregateCache.evict(PRODUCT_ID_OK);
+
+    String etag = client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .returnResult(ProductAggregate.class)
+      .getResponseHeaders().getETag();
+
+    // a review after the first page changed: same first page, another ETag of all the reviews
+    when(compositeIntegration.getReviewsFirstPage(PRODUCT_ID_OK))
+      .thenReturn(Mono.just(new SectionPage<>(singletonList(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")), "\"v2\"")));
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .header("If-None-Match", etag)
+      .exchange()
+      .expectStatus().isEqualTo(OK);
+
+    aggregateCache.evict(PRODUCT_ID_OK);
+  }
+
+  @Test
+  void getProductTruncated() {
+
+    // the integration reads one recommendation more than the page (app.aggregate.page-size=50) when there are more
+    when(compositeIntegration.getProduct(PRODUCT_ID_TRUNCATED))
+      .thenReturn(Mono.just(new Product(PRODUCT_ID_TRUNCATED, "name", 1, "mock-address")));
+    when(compositeIntegration.getRecommendationsFirstPage(PRODUCT_ID_TRUNCATED))
+      .thenReturn(page(IntStream.rangeClosed(1, 51)
+        .mapToObj(id -> new Recommendation(PRODUCT_ID_TRUNCATED, id, "author", 1, "content", "mock address")).toList()));
+    when(compositeIntegration.getReviewsFirstPage(PRODUCT_ID_TRUNCATED))
+      .thenReturn(page(singletonList(new Review(PRODUCT_ID_TRUNCATED, 1, "author", "subject", "content", "mock address"))));
+
+    aggregateCache.evict(PRODUCT_ID_TRUNCATED);
+
+    getAndVerifyProduct(PRODUCT_ID_TRUNCATED, OK)
+      .jsonPath("$.recommendations.length()").isEqualTo(50)
+      .jsonPath("$.reviews.length()").isEqualTo(1)
+      .jsonPath("$.truncatedSections.length()").isEqualTo(1)
+      .jsonPath("$.truncatedSections[0]").isEqualTo("recommendations");
+  }
+
+  @Test
+  void getProductPartial() {
+
+    when(compositeIntegration.getProduct(PRODUCT_ID_PARTIAL))
+      .thenReturn(Mono.just(new Product(PRODUCT_ID_PARTIAL, "name", 1, "mock-address")));
+    when(compositeIntegration.getRecommendationsFirstPage(PRODUCT_ID_PARTIAL))
+      .thenReturn(page(singletonList(new Recommendation(PRODUCT_ID_PARTIAL, 1, "author", 1, "content", "mock address"))));
+    when(compositeIntegration.getReviewsFirstPage(PRODUCT_ID_PARTIAL)).thenReturn(Mono.error(new TimeoutException()));
+
+    aggregateCache.evict(PRODUCT_ID_PARTIAL);
+
+    getAndVerifyProduct(PRODUCT_ID_PARTIAL, OK)
+      .jsonPath("$.productId").isEqualTo(PRODUCT_ID_PARTIAL)
+      .jsonPath("$.recommendations.length()").isEqualTo(1)
+      .jsonPath("$.reviews").doesNotExist()
+      .jsonPath("$.missingSections.length()").isEqualTo(1)
+      .jsonPath("$.missingSections[0]").isEqualTo("reviews");
+
+    // partial aggregates are not cached
+    assertNull(aggregateCache.get(PRODUCT_ID_PARTIAL));
+  }
+
+  @Test
+  void getProductWithFields() {
+
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_OK), anyList()))
+      .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
+    when(compositeIntegration.getReviews(eq(PRODUCT_ID_OK), anyList()))
+      .thenReturn(Flux.fromIterable(singletonList(new Review(PRODUCT_ID_OK, 1, null, "subject", null, "mock address"))));
+
+    aggregateCache.evict(PRODUCT_ID_OK);
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK + "?fields=name,reviews.subject")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody()
+      .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
+      .jsonPath("$.name").isEqualTo("name")
+      .jsonPath("$.reviews[0].subject").isEqualTo("subject")
+      .jsonPath("$.reviews[0].content").doesNotExist()
+      .jsonPath("$.recommendations").doesNotExist()
+      .jsonPath("$.serviceAddresses").doesNotExist();
+
+    verify(compositeIntegration).getProduct(PRODUCT_ID_OK, List.of("name"));
+    verify(compositeIntegration).getReviews(PRODUCT_ID_OK, List.of("subject"));
+    verify(compositeIntegration, never()).getRecommendations(anyInt(), anyList());
+  }
+
+  @Test
+  void getProductWithInvalidField() {
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK + "?fields=name,weight")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(UNPROCESSABLE_ENTITY)
+      .expectBody()
+      .jsonPath("$.message").isEqualTo("Invalid field: weight");
+  }
+
+  @Test
+  void getProductCoalesced() {
+
+    when(compositeIntegration.getProduct(PRODUCT_ID_SLOW))
+      .thenReturn(Mono.delay(Duration.ofMillis(200)).map(l -> new Product(PRODUCT_ID_SLOW, "name", 1, "mock-address")));
+    when(compositeIntegration.getRecommendationsFirstPage(PRODUCT_ID_SLOW)).thenReturn(page(List.of()));
+    when(compositeIntegration.getReviewsFirstPage(PRODUCT_ID_SLOW)).thenReturn(page(List.of()));
+
+    aggregateCache.evict(PRODUCT_ID_SLOW);
+    double coalescedBefore = meterRegistry.counter("composite.aggregate.coalesced").count();
+
+    // the first caller gives up, the callers that joined its request must still get the aggregate
+    Disposable cancelledCaller = compositeService.getProduct(PRODUCT_ID_SLOW).subscribe();
+    Mono<ProductAggregate> secondCaller = compositeService.getProduct(PRODUCT_ID_SLOW);
+    Mono<ProductAggregate> thirdCaller = compositeService.getProduct(PRODUCT_ID_SLOW);
+    cancelledCaller.dispose();
+
+    StepVerifier.create(Mono.zip(secondCaller, thirdCaller))
+      .expectNextMatches(aggregates -> aggregates.getT1().getProductId() == PRODUCT_ID_SLOW
+          && aggregates.getT2().getProductId() == PRODUCT_ID_SLOW)
+      .verifyComplete();
+
+    verify(compositeIntegration, times(1)).getProduct(PRODUCT_ID_SLOW);
+    assertEquals(2, meterRegistry.counter("composite.aggregate.coalesced").count() - coalescedBefore);
+  }
+
+  @Test
+  void getProductStream() {
+
+    aggregateCache.evict(PRODUCT_ID_OK);
+
+    Flux<ProductAggregateItem> items = client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK + "/stream")
+      .accept(APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(APPLICATION_NDJSON)
+      .returnResult(ProductAggregateItem.class)
+      .getResponseBody();
+
+    StepVerifier.create(items)
+      .expectNextMatches(item -> item.getType() == ProductAggregateItem.Type.PRODUCT && "name".equals(item.getName()))
+      .expectNextCount(2)
+      .verifyComplete();
+  }
+
+  @Test
+  void getProductStreamNotFound() {
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_NOT_FOUND + "/stream")
+      .accept(APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_FOUND);
+  }
+
+  @Test
+  void getProductsBatch() {
+
+    client.get()
+      .uri("/product-composite?ids=" + PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND + "," + PRODUCT_ID_INVALID)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(3)
+      .jsonPath("$[?(@.productId == " + PRODUCT_ID_OK + ")].name").isEqualTo("name")
+      .jsonPath("$[?(@.productId == " + PRODUCT_ID_NOT_FOUND + ")].error.status").isEqualTo(NOT_FOUND.value())
+      .jsonPath("$[?(@.productId == " + PRODUCT_ID_NOT_FOUND + ")].error.message").isEqualTo("NOT FOUND: " + PRODUCT_ID_NOT_FOUND)
+      .jsonPath("$[?(@.productId == " + PRODUCT_ID_INVALID + ")].error.status").isEqualTo(UNPROCESSABLE_ENTITY.value());
+  }
+
   @Test
   void getProductNotFound() {
 
@@ -121,6 +451,18 @@ class ProductCompositeServiceApplicationTests {
       .jsonPath("$.message").isEqualTo("INVALID: " + PRODUCT_ID_INVALID);
   }
 
+  @Test
+  void getProductServiceUnavailable() {
+
+    getAndVerifyProduct(PRODUCT_ID_UNAVAILABLE, SERVICE_UNAVAILABLE)
+      .jsonPath("$.path").isEqualTo("/product-composite/" + PRODUCT_ID_UNAVAILABLE)
+      .jsonPath("$.message").isEqualTo("CircuitBreaker 'product' is OPEN");
+  }
+
+  private static <T> Mono<SectionPage<T>> page(List<T> items) {
+    return Mono.just(new SectionPage<>(items, null));
+  }
+
   private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
     return client.get()
       .uri("/product-composite/" + productId)
@@ -131,6 +473,17 @@ class ProductCompositeServiceApplicationTests {
       .expectBody();
   }
 
+  private void getAndVerifyNotModified(int productId, String etag) {
+    client.get()
+      .uri("/product-composite/" + productId)
+      .accept(APPLICATION_JSON)
+      .ifNoneMatch(etag)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_MODIFIED)
+      .expectHeader().valueEquals("ETag", etag)
+      .expectBody().isEmpty();
+  }
+
   private void postAndVerifyProduct(ProductAggregate compositeProduct, HttpStatus expectedStatus) {
     client.post()
       .uri("/product-composite")
@@ -0,0 +1,81 @@
+package be.snife.sbms.productcomposite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import be.snife.sbms.api.exceptions.NotFoundException;
+import be.snife.sbms.productcomposite.services.RequestHedger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class RequestHedgerTests {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  // no samples yet, so the hedge delay is the max delay
+  private final RequestHedger hedger = new RequestHedger("test", meterRegistry, true, 0.95,
+      Duration.ofMillis(10), Duration.ofMillis(50), 100);
+
+  @Test
+  void hedgeWinsWhenFirstRequestIsSlow() {
+
+    AtomicInteger calls = new AtomicInteger();
+    AtomicBoolean firstCancelled = new AtomicBoolean();
+
+    Mono<String> result = hedger.hedge(() -> calls.incrementAndGet() == 1
+        ? Mono.delay(Duration.ofSeconds(5)).map(l -> "first").doOnCancel(() -> firstCancelled.set(true))
+        : Mono.just("hedge"));
+
+    StepVerifier.create(result).expectNext("hedge").verifyComplete();
+
+    assertEquals(2, calls.get());
+    assertTrue(firstCancelled.get());
+    assertEquals(1, meterRegistry.counter("composite.hedge.sent", "service", "test").count());
+    assertEquals(1, meterRegistry.counter("composite.hedge.wins", "service", "test").count());
+
+    // the slow first request is sampled from its start, not the hedge from its own start
+    Timer latency = meterRegistry.get("composite.downstream.latency").timer();
+    assertEquals(1, latency.count());
+    assertTrue(latency.totalTime(TimeUnit.MILLISECONDS) >= 50);
+  }
+
+  @Test
+  void noHedgeWhenFirstRequestIsFast() {
+
+    AtomicInteger calls = new AtomicInteger();
+
+    StepVerifier.create(hedger.hedge(() -> Mono.fromCallable(() -> "first-" + calls.incrementAndGet())))
+      .expectNext("first-1")
+      .verifyComplete();
+
+    assertEquals(1, calls.get());
+    assertEquals(0, meterRegistry.counter("composite.hedge.sent", "service", "test").count());
+    assertEquals(1, meterRegistry.counter("composite.hedge.requests", "service", "test").count());
+  }
+
+  @Test
+  void noHedgeWhenFirstRequestFails() {
+
+    AtomicInteger calls = new AtomicInteger();
+
+    StepVerifier.create(hedger.hedge(() -> {
+        calls.incrementAndGet();
+        return Mono.error(new NotFoundException("NOT FOUND"));
+      }))
+      .expectError(NotFoundException.class)
+      .verify();
+
+    assertEquals(1, calls.get());
+    assertEquals(0, meterRegistry.counter("composite.hedge.sent", "service", "test").count());
+  }
+}
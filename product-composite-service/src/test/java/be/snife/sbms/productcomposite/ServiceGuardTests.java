@@ -0,0 +1,85 @@
+package be.snife.sbms.productcomposite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import be.snife.sbms.api.exceptions.NotFoundException;
+import be.snife.sbms.api.exceptions.ServiceUnavailableException;
+import be.snife.sbms.productcomposite.services.ServiceGuard;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ServiceGuardTests {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+      .slidingWindowSize(4)
+      .minimumNumberOfCalls(4)
+      .failureRateThreshold(50)
+      .ignoreExceptions(NotFoundException.class)
+      .build());
+
+  private final BulkheadRegistry bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+      .maxConcurrentCalls(1)
+      .maxWaitDuration(Duration.ZERO)
+      .build());
+
+  private final ServiceGuard guard = new ServiceGuard("test", circuitBreakerRegistry, bulkheadRegistry, meterRegistry);
+
+  @Test
+  void opensAfterFailuresAndFailsFast() {
+
+    for (int i = 0; i < 4; i++) {
+      StepVerifier.create(guard.protect(Mono.error(new RuntimeException("boom")))).expectError().verify();
+    }
+    assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+    assertEquals(1, meterRegistry.counter("composite.circuitbreaker.transitions",
+        "service", "test", "from", "CLOSED", "to", "OPEN").count());
+
+    // the service is not called when the circuit is open
+    AtomicBoolean called = new AtomicBoolean();
+    StepVerifier.create(guard.protect(Mono.fromCallable(() -> called.getAndSet(true))))
+      .expectError(ServiceUnavailableException.class)
+      .verify();
+    assertFalse(called.get());
+  }
+
+  @Test
+  void notFoundDoesNotOpen() {
+
+    for (int i = 0; i < 10; i++) {
+      StepVerifier.create(guard.protect(Mono.error(new NotFoundException("NOT FOUND"))))
+        .expectError(NotFoundException.class)
+        .verify();
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+  }
+
+  @Test
+  void rejectsWhenBulkheadIsFull() {
+
+    Disposable outstanding = guard.protect(Mono.never()).subscribe();
+
+    StepVerifier.create(guard.protect(Mono.just("second")))
+      .expectError(ServiceUnavailableException.class)
+      .verify();
+    assertEquals(1, meterRegistry.counter("composite.bulkhead.rejected", "service", "test").count());
+
+    outstanding.dispose();
+    StepVerifier.create(guard.protect(Mono.just("third"))).expectNext("third").verifyComplete();
+  }
+}
@@ -0,0 +1,105 @@
+package be.snife.sbms.productcomposite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import be.snife.sbms.api.exceptions.NotFoundException;
+import be.snife.sbms.productcomposite.services.FileServiceInstanceListSupplier;
+import be.snife.sbms.productcomposite.services.ServiceLoadBalancer;
+import be.snife.sbms.productcomposite.services.StaticServiceInstanceListSupplier;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+class ServiceLoadBalancerTests {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final ServiceLoadBalancer loadBalancer = new ServiceLoadBalancer("test",
+      StaticServiceInstanceListSupplier.of("a:8080,b:8080"), meterRegistry, 2, Duration.ofMinutes(1));
+
+  @Test
+  void choosesInstanceWithFewestOutstandingRequests() {
+
+    // keeps a request outstanding on one of the two instances
+    String[] busy = new String[1];
+    Disposable outstanding = loadBalancer.execute(baseUrl -> {
+      busy[0] = baseUrl;
+      return Mono.never();
+    }).subscribe();
+
+    for (int i = 0; i < 10; i++) {
+      String chosen = loadBalancer.execute(Mono::just).block();
+      assertEquals(other(busy[0]), chosen);
+    }
+
+    outstanding.dispose();
+  }
+
+  @Test
+  void ejectsInstanceAfterConsecutiveFailures() {
+
+    for (int i = 0; i < 10; i++) {
+      loadBalancer.execute(baseUrl -> baseUrl.equals("http://a:8080")
+          ? Mono.<String>error(new RuntimeException("connection refused"))
+          : Mono.just(baseUrl)).onErrorResume(ex -> Mono.empty()).block();
+    }
+
+    assertEquals(1, meterRegistry.counter("composite.loadbalancer.ejections", "service", "test").count());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("http://b:8080", loadBalancer.execute(Mono::just).block());
+    }
+  }
+
+  @Test
+  void timeoutsEjectTheSlowInstance() {
+
+    for (int i = 0; i < 10; i++) {
+      loadBalancer.execute(Duration.ofMillis(20), baseUrl -> baseUrl.equals("http://a:8080")
+          ? Mono.<String>never()
+          : Mono.just(baseUrl)).onErrorResume(ex -> Mono.empty()).block();
+    }
+
+    assertEquals(1, meterRegistry.counter("composite.loadbalancer.ejections", "service", "test").count());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("http://b:8080", loadBalancer.execute(Mono::just).block());
+    }
+  }
+
+  @Test
+  void clientErrorsDoNotEject() {
+
+    for (int i = 0; i < 10; i++) {
+      loadBalancer.execute(baseUrl -> Mono.error(new NotFoundException("NOT FOUND")))
+          .onErrorResume(ex -> Mono.empty()).block();
+    }
+
+    assertEquals(0, meterRegistry.counter("composite.loadbalancer.ejections", "service", "test").count());
+  }
+
+  @Test
+  void readsInstancesFromFile(@TempDir Path dir) throws IOException {
+
+    Path file = dir.resolve("instances");
+    FileServiceInstanceListSupplier supplier = new FileServiceInstanceListSupplier(file, Duration.ZERO,
+        StaticServiceInstanceListSupplier.of("fallback:8080"));
+
+    assertEquals(List.of("http://fallback:8080"), supplier.getInstances());
+
+    Files.write(file, List.of("# product replicas", "product:8080", "", "http://product-p1:8080/"));
+    assertEquals(List.of("http://product:8080", "http://product-p1:8080"), supplier.getInstances());
+  }
+
+  private String other(String baseUrl) {
+    return baseUrl.equals("http://a:8080") ? "http://b:8080" : "http://a:8080";
+  }
+}
@@ -1,13 +1,11 @@
 package be.snife.sbms.product;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration;
 import org.springframework.context.ConfigurableApplicationContext;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
@@ -21,17 +19,12 @@ import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
 
 import be.snife.sbms.product.persistence.ProductEntity;
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 @SpringBootApplication
 @ComponentScan("be.snife.sbms")
 @Slf4j
 public class ProductServiceApplication {
 
-	private final Integer threadPoolSize;
-	private final Integer taskQueueSize;
-
 	public static void main(String[] args) {
 		ConfigurableApplicationContext ctx = SpringApplication.run(ProductServiceApplication.class, args);
 		log.info("Starting ProductServiceApplication microservice ...");
@@ -58,18 +51,6 @@ public class ProductServiceApplication {
 	}
 	
 
-	@Autowired
-	public ProductServiceApplication(@Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-			@Value("${app.taskQueueSize:100}") Integer taskQueueSize) {
-		this.threadPoolSize = threadPoolSize;
-		this.taskQueueSize = taskQueueSize;
-	}
-
-	@Bean
-	public Scheduler publishEventScheduler() {
-		log.info("Creates a messagingScheduler with connectionPoolSize = {}", threadPoolSize);
-		return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
-	}
 	
 
 }
@@ -1,11 +1,17 @@
 package be.snife.sbms.product.persistence;
 
+import java.util.Collection;
+
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
+public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String>, ProductRepositoryCustom {
 	  Mono<ProductEntity> findByProductId(int productId);
+
+	  // single $in query, served by the unique productId index
+	  Flux<ProductEntity> findByProductIdInOrderByProductIdAsc(Collection<Integer> productIds);
 	}
 
 /*
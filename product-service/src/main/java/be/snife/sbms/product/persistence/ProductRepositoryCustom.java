@@ -0,0 +1,16 @@
+package be.snife.sbms.product.persistence;
+
+import java.util.Collection;
+import java.util.List;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface ProductRepositoryCustom {
+
+	// projection: only productId, weight and the requested fields are read
+	Mono<ProductEntity> findByProductId(int productId, Collection<String> fields);
+
+	// new entities only, one unordered insertMany: a failed insert does not stop the others (BulkWriteException)
+	Flux<ProductEntity> insertAllUnordered(List<ProductEntity> entities);
+}
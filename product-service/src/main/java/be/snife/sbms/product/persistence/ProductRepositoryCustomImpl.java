@@ -0,0 +1,39 @@
+package be.snife.sbms.product.persistence;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import be.snife.sbms.util.persistence.MongoBulkInserts;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class ProductRepositoryCustomImpl implements ProductRepositoryCustom {
+
+	private final ReactiveMongoTemplate mongoTemplate;
+
+	@Autowired
+	public ProductRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	@Override
+	public Mono<ProductEntity> findByProductId(int productId, Collection<String> fields) {
+
+		Query query = query(where("productId").is(productId));
+		// the version is always read, it is the ETag of the product
+		query.fields().include("productId", "weight", "version").include(fields.toArray(new String[0]));
+		return mongoTemplate.findOne(query, ProductEntity.class);
+	}
+
+	@Override
+	public Flux<ProductEntity> insertAllUnordered(List<ProductEntity> entities) {
+		return MongoBulkInserts.insertAllUnordered(mongoTemplate, ProductEntity.class, entities);
+	}
+}
@@ -1,54 +1,122 @@
 package be.snife.sbms.product.services;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
 import be.snife.sbms.api.core.product.Product;
 import be.snife.sbms.api.core.product.ProductService;
 import be.snife.sbms.api.event.Event;
 import be.snife.sbms.api.exceptions.EventProcessingException;
+import be.snife.sbms.util.messaging.DeadLetterPublisher;
+import be.snife.sbms.util.messaging.EventBatchProcessor;
+import be.snife.sbms.util.messaging.EventPublisher;
+import be.snife.sbms.util.messaging.ReactiveEventProcessor;
+import be.snife.sbms.util.messaging.RetryTopics;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Configuration
 @Slf4j
 public class MessageProcessorConfig {
 
   private final ProductService productService;
+  private final RetryTopics retryTopics;
+  private final int concurrency;
+  private final int workers;
+  private final MeterRegistry meterRegistry;
 
   @Autowired
-  public MessageProcessorConfig(ProductService productService) {
+  public MessageProcessorConfig(ProductService productService, EventPublisher eventPublisher,
+      MeterRegistry meterRegistry,
+      @Value("${spring.cloud.stream.bindings.messageProcessor-in-0.destination}") String destination,
+      @Value("${spring.cloud.stream.bindings.messageProcessor-in-0.group}") String group,
+      @Value("${app.consumer.retry.delays}") List<Duration> retryDelays,
+      @Value("${app.consumer.concurrency}") int concurrency, @Value("${app.consumer.workers}") int workers) {
+
     this.productService = productService;
+    this.retryTopics = new RetryTopics(eventPublisher, destination, retryDelays,
+        new DeadLetterPublisher(eventPublisher, destination, group));
+    this.concurrency = concurrency;
+    this.workers = workers;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * The app.consumer.workers threads shared by messageProcessor and retryProcessor, disposed with the context.
+   */
+  @Bean(destroyMethod = "dispose")
+  public Scheduler eventWorkers() {
+    return Schedulers.newParallel("event-worker", workers, true);
+  }
+
+  /**
+   * Writes the events of up to app.consumer.concurrency keys at the same time on app.consumer.workers threads,
+   * the events of a key in order. A failed event is forwarded to the first retry topic, the binding does not wait.
+   */
+  @Bean
+  public Function<Flux<Message<Event<Integer, Product>>>, Mono<Void>> messageProcessor() {
+
+    ReactiveEventProcessor<Product> processor = new ReactiveEventProcessor<>("messageProcessor-in-0",
+        message -> process(message.getPayload()), retryTopics, concurrency, eventWorkers(), meterRegistry);
+    return processor::process;
+  }
+
+  /**
+   * Consumes a retry topic of messageProcessor, RetryBindings binds a copy per delay of app.consumer.retry.delays.
+   * An event is handled when it is due and forwarded to the next retry topic when it fails again, or parked in the
+   * dead letter destination. An event behind an older event of its key waits on its topic until that one is done.
+   */
+  @Bean
+  public Function<Flux<Message<Event<Integer, Product>>>, Mono<Void>> retryProcessor() {
+
+    ReactiveEventProcessor<Product> processor = new ReactiveEventProcessor<>("retryProcessor-in-0",
+        message -> process(message.getPayload()), retryTopics, concurrency, eventWorkers(), meterRegistry);
+    return processor::processRetries;
   }
 
+  /**
+   * Used instead of messageProcessor with the batch_consumer profile, the binder passes the records of a poll
+   * (app.consumer.batch.max-size, app.consumer.batch.max-wait-ms) and the creates are written with one bulk insert.
+   */
   @Bean
-  public Consumer<Event<Integer, Product>> messageProcessor() {
-    return event -> {
-      log.info("Product Event received at {}...", event.getEventCreatedAt());
-      log.debug("[{} , {}, {}, {}]",event.getEventCreatedAt(),event.getEventType(),event.getKey(),event.getData());
-
-      switch (event.getEventType()) {
-
-        case CREATE:
-          Product product = event.getData();
-          log.info("Creating Product with ID: {}", product.getProductId());
-          productService.createProduct(product).block();
-          break;
-
-        case DELETE:
-          int productId = event.getKey();
-          log.info("Deleting Product with ID: {}", productId);
-          productService.deleteProduct(productId).block();
-          break;
-
-        default:
-          String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
-          log.warn(errorMessage);
-          throw new EventProcessingException(errorMessage);
-      }
-
-      log.info("Message processing done!");
-
-    };
+  public Consumer<List<Event<Integer, Product>>> batchMessageProcessor(
+    @Value("${app.consumer.batch.attempts}") int attempts, @Value("${app.consumer.batch.backoff}") Duration backoff) {
+
+    EventBatchProcessor<Product> processor = new EventBatchProcessor<>("messageProcessor-in-0",
+        productService::createProducts, event -> process(event).block(), retryTopics, attempts, backoff, meterRegistry);
+    return processor::process;
+  }
+
+  private Mono<Void> process(Event<Integer, Product> event) {
+    log.info("Product Event received at {}...", event.getEventCreatedAt());
+    log.debug("[{} , {}, {}, {}]",event.getEventCreatedAt(),event.getEventType(),event.getKey(),event.getData());
+
+    switch (event.getEventType()) {
+
+      case CREATE:
+        Product product = event.getData();
+        log.info("Creating Product with ID: {}", product.getProductId());
+        return productService.createProduct(product).then();
+
+      case DELETE:
+        int productId = event.getKey();
+        log.info("Deleting Product with ID: {}", productId);
+        return productService.deleteProduct(productId);
+
+      default:
+        String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+        log.warn(errorMessage);
+        throw new EventProcessingException(errorMessage);
+    }
   }
 }
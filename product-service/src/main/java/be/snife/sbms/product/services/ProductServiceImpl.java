@@ -2,9 +2,12 @@ package be.snife.sbms.product.services;
 
 import static java.util.logging.Level.FINE;
 
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
@@ -19,10 +22,14 @@ import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.api.exceptions.NotFoundException;
 import be.snife.sbms.product.persistence.ProductEntity;
 import be.snife.sbms.product.persistence.ProductRepository;
+import be.snife.sbms.util.http.ConditionalGet;
+import be.snife.sbms.util.http.MultiGetValidator;
 import be.snife.sbms.util.http.ServiceUtil;
+import be.snife.sbms.util.messaging.ChangePublisher;
+import be.snife.sbms.util.messaging.EventPublisher;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 
 @RestController
 @Slf4j
@@ -31,18 +38,25 @@ public class ProductServiceImpl implements ProductService {
 	private final ServiceUtil serviceUtil;
 	private final ProductRepository repository;
 	private final ProductMapper mapper;
-	private final StreamBridge streamBridge;
-    private final Scheduler publishEventScheduler;
+	private final EventPublisher eventPublisher;
+	private final ChangePublisher changePublisher;
+    private final int multiGetMaxIds;
+
+    // productId and weight are always returned
+    private static final Set<String> SELECTABLE_FIELDS = Set.of("name");
 
 
 
 	@Autowired
-	public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, ServiceUtil serviceUtil, StreamBridge streamBridge,@Qualifier("publishEventScheduler") Scheduler publishEventScheduler) {
+	public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, ServiceUtil serviceUtil, EventPublisher eventPublisher,
+			@Value("${app.multi-get.max-ids:1000}") int multiGetMaxIds,
+			@Value("${app.changes.destination:products-changes}") String changesDestination) {
 		this.repository = repository;
 		this.mapper = mapper;
 		this.serviceUtil = serviceUtil;
-		this.streamBridge = streamBridge;
-		this.publishEventScheduler = publishEventScheduler;
+		this.eventPublisher = eventPublisher;
+		this.changePublisher = new ChangePublisher(eventPublisher, changesDestination, "product-service");
+		this.multiGetMaxIds = multiGetMaxIds;
 	}
 
 	@Override
@@ -57,11 +71,28 @@ public class ProductServiceImpl implements ProductService {
 				//.log(log.getName(), FINE)
 				.onErrorMap(DuplicateKeyException.class,
 						ex -> new InvalidInputException("Duplicate key, Product Id: " + body.getProductId()))
-				.map(ent -> mapper.entityToApi(ent));
+				.map(ent -> mapper.entityToApi(ent))
+				.flatMap(p -> changePublisher.changed(Type.CREATE, p.getProductId()).thenReturn(p));
 
 		return newEntity;
 	}
 
+	@Override
+	public Flux<Product> createProducts(List<Product> body) {
+		body.forEach(product -> {
+			if (product.getProductId() < 1) {
+				throw new InvalidInputException("Invalid productId: " + product.getProductId());
+			}
+		});
+
+		log.debug("Creating {} Product entities with one bulk insert ...", body.size());
+		List<ProductEntity> entities = body.stream().map(p -> mapper.apiToEntity(p)).collect(Collectors.toList());
+		return repository.insertAllUnordered(entities)
+				.map(ent -> mapper.entityToApi(ent))
+				// the inserted products are published before a BulkWriteException for the others
+				.concatMapDelayError(p -> changePublisher.changed(Type.CREATE, p.getProductId()).thenReturn(p));
+	}
+
 	@Override
 	public Mono<Product> getProduct(int productId) {
 		log.debug("Getting Product with productId = {} on {}", productId, serviceUtil.getServiceAddress());
@@ -78,7 +109,38 @@ public class ProductServiceImpl implements ProductService {
 				.map(p -> mapper.entityToApi(p))
 				.map(e -> setServiceAddress(e));
 		
-		return prod;
+		// an If-None-Match is checked against the version only, the document is not read when it matches
+		return ConditionalGet.get(
+				repository.findByProductId(productId, List.of("version")).map(p -> ConditionalGet.etag(p.getProductId(), p.getVersion())),
+				prod, p -> ConditionalGet.etag(p.getProductId(), p.getVersion()));
+	}
+
+	@Override
+	public Mono<Product> getProduct(int productId, List<String> fields) {
+		log.debug("Getting fields {} of Product with productId = {} on {}", fields, productId, serviceUtil.getServiceAddress());
+
+		if (productId < 1) {
+			throw new InvalidInputException("Invalid productId: " + productId);
+		}
+		fields.stream().filter(field -> !SELECTABLE_FIELDS.contains(field)).findFirst().ifPresent(field -> {
+			throw new InvalidInputException("Invalid field: " + field + ", expected one of " + SELECTABLE_FIELDS);
+		});
+
+		return repository.findByProductId(productId, fields)
+				.switchIfEmpty(Mono.error(new NotFoundException("No product found for productId: " + productId)))
+				.map(p -> mapper.entityToApi(p))
+				.map(e -> setServiceAddress(e));
+	}
+
+	@Override
+	public Flux<Product> getProducts(List<Integer> productIds) {
+		log.debug("Getting {} Products on {}", productIds.size(), serviceUtil.getServiceAddress());
+
+		MultiGetValidator.validateIds("productId", productIds, multiGetMaxIds);
+
+		return repository.findByProductIdInOrderByProductIdAsc(productIds)
+				.map(p -> mapper.entityToApi(p))
+				.map(e -> setServiceAddress(e));
 	}
 
 	@Override
@@ -88,7 +150,8 @@ public class ProductServiceImpl implements ProductService {
 		return repository.findByProductId(productId)
 				//.log(log.getName(), FINE)
 				.map(p -> repository.delete(p))
-				.flatMap(p -> p);
+				.flatMap(p -> p)
+				.then(changePublisher.changed(Type.DELETE, productId));
 	}
 
 	private Product setServiceAddress(Product e) {
@@ -98,22 +161,17 @@ public class ProductServiceImpl implements ProductService {
 	
 	@Override
 	public Mono<Void> publishProductEvent(@RequestBody Event<Integer, Product> event) {
-	    return Mono.fromCallable(() -> {
-	        sendMessage("products-out-0", new Event<Integer, Product>(event.getEventType(), event.getKey(), event.getData()));
-	        return event;
-	      }).then()
-	      .subscribeOn(publishEventScheduler);
+	    return sendMessage("products-out-0", new Event<Integer, Product>(event.getEventType(), event.getKey(), event.getData()));
 	}
 	
 
-    private void sendMessage(String bindingName, Event<Integer, Product> event) {
+    private Mono<Void> sendMessage(String bindingName, Event<Integer, Product> event) {
 	    log.debug("Sending a Product {} message with ID {} to {}", event.getEventType(), event.getKey(),bindingName);
         Message<Event<Integer, Product>> message = MessageBuilder.withPayload(event)
             .setHeader("partitionKey", event.getKey())
             .build();
-        streamBridge.send(bindingName, message);
-	    log.debug("{} Product Message with ID {} sent to {}", event.getEventType(), event.getEventType(), bindingName);
-
+        return eventPublisher.publish(bindingName, message)
+            .doOnSuccess(v -> log.debug("{} Product Message with ID {} sent to {}", event.getEventType(), event.getEventType(), bindingName));
   }
 	
 
@@ -0,0 +1,150 @@
+package be.snife.sbms.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+
+import be.snife.sbms.api.exceptions.InvalidInputException;
+import be.snife.sbms.util.messaging.DeadLetter;
+import be.snife.sbms.util.messaging.DeadLetterEndpoint;
+import be.snife.sbms.util.messaging.DeadLetterReplayer;
+import be.snife.sbms.util.messaging.DeadLetterReplayer.DeadLetterSummary;
+import be.snife.sbms.util.messaging.DeadLetterReplayer.ReplayProgress;
+import be.snife.sbms.util.messaging.DeadLetterReplayer.ReplayState;
+import be.snife.sbms.util.messaging.DeadLetterSource;
+import be.snife.sbms.util.messaging.EventPublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DeadLetterReplayerTests {
+
+  private static final String DUPLICATE_KEY = "be.snife.sbms.api.exceptions.InvalidInputException";
+  private static final String TIMEOUT = "java.util.concurrent.TimeoutException";
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final List<String> published = new CopyOnWriteArrayList<>();
+  private final EventPublisher eventPublisher = new EventPublisher(this::publish, meterRegistry, new DirectChannel(),
+      10, 100, false, Duration.ofSeconds(5));
+
+  private final List<DeadLetter> deadLetters = new ArrayList<>(List.of(
+      deadLetter(0, 1, DUPLICATE_KEY), deadLetter(1, 2, TIMEOUT), deadLetter(2, 3, TIMEOUT),
+      deadLetter(3, 2, TIMEOUT), deadLetter(4, 4, TIMEOUT)));
+  private final List<DeadLetter> markedReplayed = new ArrayList<>();
+
+  private final DeadLetterReplayer replayer = new DeadLetterReplayer(new DeadLetterSource() {
+
+    @Override
+    public String getDestination() {
+      return "error.products.productsGroup";
+    }
+
+    @Override
+    public List<DeadLetter> read() {
+      return deadLetters;
+    }
+
+    @Override
+    public void markReplayed(List<DeadLetter> replayed) {
+      markedReplayed.addAll(replayed);
+    }
+  }, eventPublisher, meterRegistry);
+
+  @AfterEach
+  void stop() {
+    eventPublisher.stop();
+  }
+
+  @Test
+  void groupsByException() {
+
+    DeadLetterSummary summary = replayer.summary();
+
+    assertEquals(5, summary.getRecords());
+    assertEquals(2, summary.getExceptions().size());
+    assertEquals(TIMEOUT, summary.getExceptions().get(0).getException());
+    assertEquals(4, summary.getExceptions().get(0).getCount());
+    assertEquals(3, summary.getExceptions().get(0).getKeys());
+    assertEquals(DUPLICATE_KEY, summary.getExceptions().get(1).getException());
+  }
+
+  @Test
+  void replaysOnceAtTheRate() {
+
+    long start = System.currentTimeMillis();
+    ReplayProgress progress = replayer.replay(null, 2, 2);
+    assertSame(progress, replayer.replay(null, 2, 2));
+    awaitDone(progress);
+
+    // the record at offset 3 is a duplicate of the one at offset 1, 4 records in windows of 2 per second
+    assertTrue(System.currentTimeMillis() - start >= 1000);
+    assertEquals(List.of("products:1", "products:2", "products:3", "products:4"), published.stream().sorted().toList());
+    assertEquals(5, progress.getTotal());
+    assertEquals(4, progress.getReplayed());
+    assertEquals(1, progress.getDuplicates());
+    assertEquals(0, progress.getFailed());
+    assertEquals(5, markedReplayed.size());
+    assertSame(progress, replayer.progress(progress.getId()));
+  }
+
+  @Test
+  void replaysOneException() {
+
+    awaitDone(replayer.replay(DUPLICATE_KEY, 100, 1));
+
+    // the record at offset 0 is the first of its partition
+    assertEquals(List.of("products:1"), published);
+    assertEquals(List.of(0L), markedReplayed.stream().map(DeadLetter::getOffset).toList());
+  }
+
+  @Test
+  void marksAnExceptionReplayedOnceTheRecordsBeforeItAre() {
+
+    // the records at offsets 1 to 4 wait for the record at offset 0
+    awaitDone(replayer.replay(TIMEOUT, 100, 2));
+    assertEquals(0, markedReplayed.size());
+
+    awaitDone(replayer.replay(DUPLICATE_KEY, 100, 1));
+    assertEquals(List.of(0L, 1L, 2L, 3L, 4L), markedReplayed.stream().map(DeadLetter::getOffset).toList());
+  }
+
+  @Test
+  void rejectsARateOrConcurrencyBelowOne() {
+
+    DeadLetterEndpoint endpoint = new DeadLetterEndpoint(replayer, 50, 4);
+
+    assertThrows(InvalidInputException.class, () -> endpoint.replay(null, 0, null));
+    assertThrows(InvalidInputException.class, () -> endpoint.replay(null, null, 0));
+    assertTrue(published.isEmpty());
+  }
+
+  private void awaitDone(ReplayProgress progress) {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (progress.getState() == ReplayState.RUNNING && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(ReplayState.DONE, progress.getState());
+  }
+
+  private boolean publish(String destination, Message<?> message) {
+    published.add(destination + ":" + message.getHeaders().get("partitionKey"));
+    return true;
+  }
+
+  private DeadLetter deadLetter(long offset, int productId, String exception) {
+    String payload = "{\"eventType\":\"CREATE\",\"key\":" + productId + ",\"data\":{\"productId\":" + productId + "}}";
+    return new DeadLetter(0, offset, "products", exception, "failed", String.valueOf(productId), null,
+        payload.getBytes(StandardCharsets.UTF_8));
+  }
+}
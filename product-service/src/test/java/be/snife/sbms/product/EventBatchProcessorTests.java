@@ -0,0 +1,128 @@
+package be.snife.sbms.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+
+import be.snife.sbms.api.core.product.Product;
+import be.snife.sbms.api.event.Event;
+import be.snife.sbms.api.exceptions.BulkWriteException;
+import be.snife.sbms.api.exceptions.InvalidInputException;
+import be.snife.sbms.util.messaging.DeadLetterPublisher;
+import be.snife.sbms.util.messaging.EventBatchProcessor;
+import be.snife.sbms.util.messaging.EventPublisher;
+import be.snife.sbms.util.messaging.RetryTopics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+class EventBatchProcessorTests {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final List<String> forwarded = new ArrayList<>();
+  private final EventPublisher eventPublisher = new EventPublisher(this::forward, meterRegistry, new DirectChannel(),
+      10, 100, false, Duration.ofSeconds(5));
+
+  // what the processor did, in order
+  private final List<String> calls = new ArrayList<>();
+
+  private final EventBatchProcessor<Product> processor = new EventBatchProcessor<>("messageProcessor-in-0",
+      this::bulkCreate, this::single, new RetryTopics(eventPublisher, "products", List.of(Duration.ofSeconds(1)),
+          new DeadLetterPublisher(eventPublisher, "products", "productsGroup")),
+      3, Duration.ofMillis(10), meterRegistry);
+
+  // fails the first attempts of product 14
+  private int transientFailures;
+
+  @AfterEach
+  void stop() {
+    eventPublisher.stop();
+  }
+
+  @Test
+  void bulkCreatesBetweenOtherEvents() {
+
+    processor.process(List.of(create(1), create(2), delete(3), create(4)));
+
+    assertEquals(List.of("bulk [1, 2]", "DELETE 3", "bulk [4]"), calls);
+    assertEquals(3, meterRegistry.get("events.consumed").tag("mode", "bulk").counter().count());
+    assertEquals(1, meterRegistry.get("events.consumed").tag("mode", "single").counter().count());
+  }
+
+  @Test
+  void onlyFailedItemsAreCreatedOneByOne() {
+
+    // product 13 is not stored by the bulk create, and fails on its own as well
+    processor.process(List.of(create(11), create(12), create(13)));
+
+    assertEquals(List.of("bulk [11, 12, 13]", "CREATE 12", "CREATE 13"), calls);
+    assertEquals(List.of("error.products.productsGroup: 13 Duplicate key, Product Id: 13"), forwarded);
+    assertEquals(1, meterRegistry.get("events.consumed").tag("mode", "bulk").counter().count());
+    assertEquals(1, meterRegistry.get("events.consumed").tag("mode", "single").counter().count());
+    assertEquals(1, meterRegistry.get("events.consumed").tag("mode", "dead-letter").counter().count());
+  }
+
+  @Test
+  void retriesATransientFailureBeforeForwarding() {
+
+    // product 14 is stored on the third attempt, product 13 fails with a non transient error and is parked
+    transientFailures = 2;
+    processor.process(List.of(delete(14), delete(13)));
+
+    assertEquals(List.of("DELETE 14", "DELETE 14", "DELETE 14", "DELETE 13"), calls);
+    assertEquals(List.of("error.products.productsGroup: 13 Duplicate key, Product Id: 13"), forwarded);
+    assertEquals(1, meterRegistry.get("events.consumed").tag("mode", "single").counter().count());
+  }
+
+  @Test
+  void forwardsWhenTheAttemptsAreUsedUp() {
+
+    transientFailures = 3;
+    processor.process(List.of(delete(14)));
+
+    assertEquals(List.of("DELETE 14", "DELETE 14", "DELETE 14"), calls);
+    assertEquals(List.of("products-retry-1s: 14 database down"), forwarded);
+  }
+
+  private Flux<Product> bulkCreate(List<Product> products) {
+    List<Integer> ids = products.stream().map(Product::getProductId).collect(Collectors.toList());
+    calls.add("bulk " + ids);
+    if (ids.contains(12)) {
+      throw new BulkWriteException("duplicate keys", List.of(ids.indexOf(12), ids.indexOf(13)), null);
+    }
+    return Flux.fromIterable(products);
+  }
+
+  private void single(Event<Integer, Product> event) {
+    calls.add(event.getEventType() + " " + event.getKey());
+    if (event.getKey() == 14 && transientFailures > 0) {
+      transientFailures--;
+      throw new IllegalStateException("database down");
+    }
+    if (event.getKey() == 13) {
+      throw new InvalidInputException("Duplicate key, Product Id: 13");
+    }
+  }
+
+  private boolean forward(String destination, Message<?> message) {
+    forwarded.add(destination + ": " + message.getHeaders().get("partitionKey") + " "
+        + message.getHeaders().get(DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER));
+    return true;
+  }
+
+  private Event<Integer, Product> create(int productId) {
+    return new Event<>(Event.Type.CREATE, productId, new Product(productId, "n", 1, null));
+  }
+
+  private Event<Integer, Product> delete(int productId) {
+    return new Event<>(Event.Type.DELETE, productId, null);
+  }
+}
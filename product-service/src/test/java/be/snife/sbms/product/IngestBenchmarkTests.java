@@ -0,0 +1,126 @@
+package be.snife.sbms.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import be.snife.sbms.api.core.product.Product;
+import be.snife.sbms.api.event.Event;
+import be.snife.sbms.util.messaging.DeadLetterPublisher;
+import be.snife.sbms.util.messaging.EventBatchProcessor;
+import be.snife.sbms.util.messaging.EventPublisher;
+import be.snife.sbms.util.messaging.ReactiveEventProcessor;
+import be.snife.sbms.util.messaging.RetryTopics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Ingest in events per second of the consumer modes, against a simulated database instead of Mongo or MySQL: a
+ * write costs a round trip plus a cost per item. Compares one write per event on the consumer thread, one write
+ * per event on app.consumer.concurrency lanes (messageProcessor) and one bulk write per poll (batchMessageProcessor
+ * with the batch_consumer profile).
+ *
+ * The sizes can be raised for a longer run, e.g. mvn test -Dtest=IngestBenchmarkTests -Dbenchmark.events=100000
+ * -Dbenchmark.round-trip-us=500.
+ */
+@Slf4j
+class IngestBenchmarkTests {
+
+  private final int events = Integer.getInteger("benchmark.events", 1000);
+  private final long roundTripNanos = TimeUnit.MICROSECONDS.toNanos(Long.getLong("benchmark.round-trip-us", 1000));
+  private final long itemNanos = TimeUnit.MICROSECONDS.toNanos(Long.getLong("benchmark.item-us", 10));
+  private final int batchSize = Integer.getInteger("benchmark.batch-size", 500);
+  private final int concurrency = Integer.getInteger("benchmark.concurrency", 4);
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final EventPublisher eventPublisher = new EventPublisher((destination, message) -> true, meterRegistry,
+      new DirectChannel(), 10, 100, false, Duration.ofSeconds(5));
+  private final RetryTopics retryTopics = new RetryTopics(eventPublisher, "products", List.of(Duration.ofSeconds(1)),
+      new DeadLetterPublisher(eventPublisher, "products", "productsGroup"));
+  private final Scheduler workers = Schedulers.newParallel("event-worker", concurrency, true);
+
+  // the items written by the simulated database
+  private final AtomicLong written = new AtomicLong();
+
+  @AfterEach
+  void stop() {
+    eventPublisher.stop();
+    workers.dispose();
+  }
+
+  @Test
+  void batchIngestIsFasterThanPerRecord() {
+
+    double sequential = eventsPerSecond("per record, sequential", () -> events().forEach(event -> write(1)));
+
+    ReactiveEventProcessor<Product> reactive = new ReactiveEventProcessor<>("messageProcessor-in-0",
+        message -> Mono.fromRunnable(() -> write(1)), retryTopics, concurrency, workers, meterRegistry);
+    double lanes = eventsPerSecond("per record, " + concurrency + " lanes",
+        () -> reactive.process(Flux.fromIterable(messages())).block(Duration.ofMinutes(10)));
+
+    EventBatchProcessor<Product> batchProcessor = new EventBatchProcessor<>("messageProcessor-in-0", products -> {
+      write(products.size());
+      return Flux.fromIterable(products);
+    }, event -> write(1), retryTopics, 3, Duration.ofMillis(10), meterRegistry);
+    double batch = eventsPerSecond("batch of " + batchSize, () -> {
+      List<Event<Integer, Product>> all = events();
+      for (int from = 0; from < all.size(); from += batchSize) {
+        batchProcessor.process(all.subList(from, Math.min(from + batchSize, all.size())));
+      }
+    });
+
+    assertTrue(batch > lanes && batch > sequential,
+        "batch " + batch + " events/s, lanes " + lanes + " events/s, sequential " + sequential + " events/s");
+  }
+
+  private double eventsPerSecond(String mode, Runnable ingest) {
+
+    written.set(0);
+    long start = System.nanoTime();
+    ingest.run();
+    long elapsed = System.nanoTime() - start;
+
+    assertEquals(events, written.get());
+    double eventsPerSecond = events * 1e9 / elapsed;
+    log.info("Ingest {}: {} events in {} ms, {} events/s", mode, events, TimeUnit.NANOSECONDS.toMillis(elapsed),
+        Math.round(eventsPerSecond));
+    return eventsPerSecond;
+  }
+
+  // a round trip to the database, plus the cost of each item
+  private void write(int items) {
+    LockSupport.parkNanos(roundTripNanos + items * itemNanos);
+    written.addAndGet(items);
+  }
+
+  private List<Event<Integer, Product>> events() {
+    List<Event<Integer, Product>> all = new ArrayList<>();
+    for (int productId = 1; productId <= events; productId++) {
+      all.add(new Event<>(Event.Type.CREATE, productId, new Product(productId, "n", 1, null)));
+    }
+    return all;
+  }
+
+  private List<Message<Event<Integer, Product>>> messages() {
+    List<Message<Event<Integer, Product>>> all = new ArrayList<>();
+    events().forEach(event -> all.add(MessageBuilder.withPayload(event).build()));
+    return all;
+  }
+}
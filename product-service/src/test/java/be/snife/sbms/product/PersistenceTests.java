@@ -18,6 +18,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 
+import be.snife.sbms.api.exceptions.BulkWriteException;
 import be.snife.sbms.product.persistence.ProductEntity;
 import be.snife.sbms.product.persistence.ProductRepository;
 import lombok.extern.slf4j.Slf4j;
@@ -142,6 +143,52 @@ class PersistenceTests extends MongoDbTestBase {
 		
 	}
 
+	@Test
+	void getByProductIds() {
+
+		ProductEntity otherEntity = repository.save(new ProductEntity(2, "n", 2)).block();
+		repository.save(new ProductEntity(3, "n", 3)).block();
+
+		StepVerifier
+			.create(repository.findByProductIdInOrderByProductIdAsc(List.of(2, 1, 13)))
+			.expectNextMatches(foundEntity -> areProductEqual(savedEntity, foundEntity))
+			.expectNextMatches(foundEntity -> areProductEqual(otherEntity, foundEntity))
+			.verifyComplete();
+	}
+
+	@Test
+	void getByProductIdWithFields() {
+
+		StepVerifier.create(repository.findByProductId(savedEntity.getProductId(), List.of()))
+			.expectNextMatches(foundEntity -> foundEntity.getProductId() == savedEntity.getProductId()
+				&& foundEntity.getWeight() == savedEntity.getWeight()
+				&& foundEntity.getName() == null)
+			.verifyComplete();
+
+		StepVerifier.create(repository.findByProductId(savedEntity.getProductId(), List.of("name")))
+			.expectNextMatches(foundEntity -> savedEntity.getName().equals(foundEntity.getName()))
+			.verifyComplete();
+
+		StepVerifier.create(repository.findByProductId(savedEntity.getProductId(), List.of("version")))
+			.expectNextMatches(foundEntity -> savedEntity.getVersion().equals(foundEntity.getVersion())
+				&& foundEntity.getName() == null)
+			.verifyComplete();
+	}
+
+	@Test
+	void insertAllUnorderedEmitsTheInsertedBeforeTheError() {
+
+		// product 1 is a duplicate, products 2 and 3 are inserted and emitted before the error
+		List<ProductEntity> entities = List.of(new ProductEntity(2, "n", 2), new ProductEntity(1, "n", 1),
+				new ProductEntity(3, "n", 3));
+		StepVerifier.create(repository.insertAllUnordered(entities).map(ProductEntity::getProductId))
+				.expectNext(2, 3)
+				.expectErrorMatches(ex -> ex instanceof BulkWriteException
+						&& ((BulkWriteException) ex).getFailedIndexes().equals(List.of(1)))
+				.verify();
+		assertEquals(3, (long) repository.count().block());
+	}
+
 	@Test
 	void duplicateError() {
 	//	assertThrows(DuplicateKeyException.class, () -> {
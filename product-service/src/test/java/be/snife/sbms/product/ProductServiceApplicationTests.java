@@ -11,7 +11,7 @@ import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static reactor.core.publisher.Mono.just;
 
-import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -21,6 +21,8 @@ import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWeb
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.test.web.reactive.server.WebTestClient.ResponseSpec;
 
@@ -32,6 +34,8 @@ import be.snife.sbms.product.persistence.ProductEntity;
 import be.snife.sbms.product.persistence.ProductRepository;
 import be.snife.sbms.util.http.ServiceUtil;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
@@ -48,7 +52,7 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 
 	@Autowired
 	@Qualifier("messageProcessor")
-	private Consumer<Event<Integer, Product>> messageProcessor;
+	private Function<Flux<Message<Event<Integer, Product>>>, Mono<Void>> messageProcessor;
 
 	@BeforeEach
 	void setupDb() {
@@ -195,16 +199,16 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
 
 	private void sendCreateProductEvent(Product product) {
 		Event<Integer, Product> event = new Event<>(Type.CREATE, product.getProductId(), product);
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 
 	private void sendDeleteProductEvent(int productId) {
 		Event<Integer, Product> event = new Event(Type.DELETE, productId, null);
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 
 	private void publishProductEvent(Event<Integer, Product> event) {
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 	
 	/*
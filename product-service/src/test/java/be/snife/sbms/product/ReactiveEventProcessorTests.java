@@ -0,0 +1,222 @@
+package be.snife.sbms.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import be.snife.sbms.api.core.product.Product;
+import be.snife.sbms.api.event.Event;
+import be.snife.sbms.api.exceptions.BulkWriteException;
+import be.snife.sbms.api.exceptions.InvalidInputException;
+import be.snife.sbms.util.messaging.DeadLetterPublisher;
+import be.snife.sbms.util.messaging.EventPublisher;
+import be.snife.sbms.util.messaging.ReactiveEventProcessor;
+import be.snife.sbms.util.messaging.RetryTopics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+class ReactiveEventProcessorTests {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final List<String> destinations = new CopyOnWriteArrayList<>();
+  private final List<Message<?>> forwarded = new CopyOnWriteArrayList<>();
+  private final EventPublisher eventPublisher = new EventPublisher(this::forward, meterRegistry, new DirectChannel(),
+      10, 100, false, Duration.ofSeconds(5));
+
+  private final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+  private final List<Integer> acknowledged = new CopyOnWriteArrayList<>();
+
+  private final RetryTopics retryTopics = new RetryTopics(eventPublisher, "products",
+      List.of(Duration.ofMillis(50), Duration.ofMillis(100)),
+      new DeadLetterPublisher(eventPublisher, "products", "productsGroup"));
+  private final Scheduler workers = Schedulers.newParallel("event-worker", 4, true);
+  private final ReactiveEventProcessor<Product> processor = new ReactiveEventProcessor<>("messageProcessor-in-0",
+      this::handle, retryTopics, 4, workers, meterRegistry);
+
+  // the events handled, in order
+  private final List<String> handled = new CopyOnWriteArrayList<>();
+
+  @AfterEach
+  void stop() {
+    eventPublisher.stop();
+    workers.dispose();
+  }
+
+  @Test
+  void forwardsFailedEventsWithoutWaiting() {
+
+    // product 2 fails once, it is forwarded to the first retry topic and the record is acknowledged
+    processor.process(Flux.just(message(1), message(2), message(3))).block(Duration.ofSeconds(5));
+
+    assertEquals(1, attempts.get(2).get());
+    assertEquals(List.of("products-retry-50ms: 2"), destinations);
+    assertEquals(List.of(1, 2, 3), acknowledged.stream().sorted().toList());
+    assertEquals(2, meterRegistry.get("events.consumed").tag("mode", "single").counter().count());
+    assertEquals(1, meterRegistry.get("events.consumed").tag("mode", "retry").counter().count());
+
+    // it is written when it is retried
+    long start = System.currentTimeMillis();
+    processor.processRetries(Flux.just(retryMessage(0, 0))).block(Duration.ofSeconds(5));
+
+    assertTrue(System.currentTimeMillis() - start >= 40);
+    assertEquals(2, attempts.get(2).get());
+    assertEquals(List.of("products-retry-50ms: 2"), destinations);
+    assertEquals(3, meterRegistry.get("events.consumed").tag("mode", "single").counter().count());
+  }
+
+  @Test
+  void parksAfterTheLastRetryTopic() {
+
+    processor.process(Flux.just(message(13))).block(Duration.ofSeconds(5));
+    processor.processRetries(Flux.just(retryMessage(0, 0))).block(Duration.ofSeconds(5));
+    processor.processRetries(Flux.just(retryMessage(1, 1))).block(Duration.ofSeconds(5));
+
+    assertEquals(3, attempts.get(13).get());
+    assertEquals(List.of("products-retry-50ms: 13", "products-retry-100ms: 13", "error.products.productsGroup: 13"),
+        destinations);
+    assertEquals("Not available, Product Id: 13",
+        forwarded.get(2).getHeaders().get(DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER));
+    assertEquals(2, meterRegistry.get("events.consumed").tag("mode", "retry").counter().count());
+    assertEquals(1, meterRegistry.get("events.consumed").tag("mode", "dead-letter").counter().count());
+  }
+
+  @Test
+  void parksAnInvalidEventRightAway() {
+
+    processor.process(Flux.just(message(14), message(14, Event.Type.DELETE, 0))).block(Duration.ofSeconds(5));
+
+    // it fails again on every retry, the later events of the key do not wait for it
+    assertEquals(List.of("error.products.productsGroup: 14", "error.products.productsGroup: 14"), destinations);
+    assertFalse(retryTopics.isInRetry(14));
+    assertEquals(2, meterRegistry.get("events.consumed").tag("mode", "dead-letter").counter().count());
+  }
+
+  @Test
+  void forwardsOnlyTheFailedItemsOfABatch() {
+
+    Message<Event<Integer, Product>> batch = MessageBuilder.withPayload(new Event<>(Event.Type.CREATE_BATCH, 30, null,
+        List.of(new Product(301, "n", 1, null), new Product(302, "n", 1, null), new Product(303, "n", 1, null))))
+        .build();
+    processor.process(Flux.just(batch)).block(Duration.ofSeconds(5));
+
+    assertEquals(List.of("products-retry-50ms: 30"), destinations);
+    @SuppressWarnings("unchecked")
+    Event<Integer, Product> retried = (Event<Integer, Product>) forwarded.get(0).getPayload();
+    assertEquals(List.of(302), retried.getItems().stream().map(Product::getProductId).toList());
+
+    processor.processRetries(Flux.just(retryMessage(0, 0))).block(Duration.ofSeconds(5));
+    assertEquals(List.of("30 CREATE_BATCH"), handled);
+    assertFalse(retryTopics.isInRetry(30));
+  }
+
+  @Test
+  void keepsTheOrderOfAKeyInRetry() {
+
+    // the DELETE of product 2 follows its failed CREATE to the retry topic
+    processor.process(Flux.just(message(2), message(2, Event.Type.DELETE, 0))).block(Duration.ofSeconds(5));
+
+    assertEquals(1, attempts.get(2).get());
+    assertEquals(List.of("products-retry-50ms: 2", "products-retry-50ms: 2"), destinations);
+    assertEquals(List.of(2, 2), acknowledged);
+    assertTrue(retryTopics.isInRetry(2));
+
+    // the DELETE is due first, it goes back to its retry topic until the CREATE is done
+    processor.processRetries(Flux.just(retryMessage(1, 0))).block(Duration.ofSeconds(5));
+    assertEquals(List.of("products-retry-50ms: 2", "products-retry-50ms: 2", "products-retry-50ms: 2"), destinations);
+    assertTrue(handled.isEmpty());
+
+    processor.processRetries(Flux.just(retryMessage(0, 0))).block(Duration.ofSeconds(5));
+    processor.processRetries(Flux.just(retryMessage(2, 0))).block(Duration.ofSeconds(5));
+
+    assertEquals(List.of("2 CREATE", "2 DELETE"), handled);
+    assertFalse(retryTopics.isInRetry(2));
+    assertEquals("An earlier event with key 2 is in retry",
+        forwarded.get(2).getHeaders().get(DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER));
+  }
+
+  @Test
+  void keepsTheOrderOfEachKey() {
+
+    // the first events of each key are the slowest, later events of the key must wait for them
+    List<Message<Event<Integer, Product>>> messages = new ArrayList<>();
+    for (int n = 0; n < 5; n++) {
+      for (int productId = 20; productId < 26; productId++) {
+        messages.add(message(productId, n % 2 == 0 ? Event.Type.CREATE : Event.Type.DELETE, 50 - 10 * n));
+      }
+    }
+    processor.process(Flux.fromIterable(messages)).block(Duration.ofSeconds(5));
+
+    assertEquals(30, handled.size());
+    for (int productId = 20; productId < 26; productId++) {
+      String prefix = productId + " ";
+      assertEquals(List.of(prefix + "CREATE", prefix + "DELETE", prefix + "CREATE", prefix + "DELETE", prefix + "CREATE"),
+          handled.stream().filter(h -> h.startsWith(prefix)).toList());
+    }
+    assertEquals(30, acknowledged.size());
+  }
+
+  private Mono<Void> handle(Message<Event<Integer, Product>> message) {
+    int productId = message.getPayload().getKey();
+    int attempt = attempts.computeIfAbsent(productId, id -> new AtomicInteger()).incrementAndGet();
+    if (productId == 13 || (productId == 2 && attempt == 1)) {
+      throw new IllegalStateException("Not available, Product Id: " + productId);
+    }
+    if (productId == 14) {
+      throw new InvalidInputException("Invalid name, Product Id: " + productId);
+    }
+    if (message.getPayload().getEventType() == Event.Type.CREATE_BATCH && attempt == 1) {
+      // the second item is a duplicate, the others are stored
+      throw new BulkWriteException("duplicate key", List.of(1), null);
+    }
+    Long delay = message.getHeaders().get("delay", Long.class);
+    return Mono.delay(Duration.ofMillis(delay == null ? 0 : delay))
+        .doOnNext(d -> handled.add(productId + " " + message.getPayload().getEventType()))
+        .then();
+  }
+
+  private boolean forward(String destination, Message<?> message) {
+    destinations.add(destination + ": " + message.getHeaders().get("partitionKey"));
+    forwarded.add(message);
+    return true;
+  }
+
+  // the nth message forwarded, to the retry topic of the tier
+  @SuppressWarnings("unchecked")
+  private Message<Event<Integer, Product>> retryMessage(int n, int tier) {
+    Message<?> message = forwarded.get(n);
+    assertEquals(tier, RetryTopics.tier(message));
+    return (Message<Event<Integer, Product>>) message;
+  }
+
+  private Message<Event<Integer, Product>> message(int productId) {
+    return message(productId, Event.Type.CREATE, 0);
+  }
+
+  private Message<Event<Integer, Product>> message(int productId, Event.Type type, long delay) {
+    Acknowledgment acknowledgment = () -> acknowledged.add(productId);
+    return MessageBuilder.withPayload(new Event<>(type, productId, new Product(productId, "n", 1, null)))
+        .setHeader(KafkaHeaders.ACKNOWLEDGMENT, acknowledgment)
+        .setHeader("delay", delay)
+        .build();
+  }
+}
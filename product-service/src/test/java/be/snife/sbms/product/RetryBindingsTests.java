@@ -0,0 +1,53 @@
+package be.snife.sbms.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.mock.env.MockEnvironment;
+
+import be.snife.sbms.util.messaging.RetryBindings;
+
+class RetryBindingsTests {
+
+  private final DefaultListableBeanFactory registry = new DefaultListableBeanFactory();
+  private final MockEnvironment environment = new MockEnvironment()
+      .withProperty("spring.cloud.function.definition", "messageProcessor;retryProcessor")
+      .withProperty("app.consumer.retry.delays", "1s,10s,500ms")
+      .withProperty("spring.cloud.stream.bindings.messageProcessor-in-0.destination", "products")
+      .withProperty("spring.cloud.stream.bindings.messageProcessor-in-0.group", "productsGroup");
+  private final RetryBindings retryBindings = new RetryBindings();
+
+  @Test
+  void bindsEachRetryTopicToItsOwnFunction() {
+
+    registry.registerBeanDefinition("retryProcessor", new RootBeanDefinition(Object.class));
+    retryBindings.setEnvironment(environment);
+    retryBindings.postProcessBeanDefinitionRegistry(registry);
+
+    assertEquals("messageProcessor;retryProcessor0;retryProcessor1;retryProcessor2",
+        environment.getProperty("spring.cloud.function.definition"));
+    assertTrue(registry.containsBeanDefinition("retryProcessor2"));
+    assertEquals("products-retry-1s", environment.getProperty("spring.cloud.stream.bindings.retryProcessor0-in-0.destination"));
+    assertEquals("products-retry-10s", environment.getProperty("spring.cloud.stream.bindings.retryProcessor1-in-0.destination"));
+    assertEquals("products-retry-500ms", environment.getProperty("spring.cloud.stream.bindings.retryProcessor2-in-0.destination"));
+    assertEquals("productsGroup", environment.getProperty("spring.cloud.stream.bindings.retryProcessor1-in-0.group"));
+    assertEquals("1", environment.getProperty("spring.cloud.stream.bindings.retryProcessor1-in-0.consumer.maxAttempts"));
+    assertEquals("MANUAL", environment.getProperty("spring.cloud.stream.kafka.bindings.retryProcessor1-in-0.consumer.ackMode"));
+  }
+
+  @Test
+  void leavesAServiceWithoutRetryProcessorAlone() {
+
+    environment.setProperty("spring.cloud.function.definition", "batchMessageProcessor");
+    registry.registerBeanDefinition("retryProcessor", new RootBeanDefinition(Object.class));
+    retryBindings.setEnvironment(environment);
+    retryBindings.postProcessBeanDefinitionRegistry(registry);
+
+    assertEquals("batchMessageProcessor", environment.getProperty("spring.cloud.function.definition"));
+    assertFalse(registry.containsBeanDefinition("retryProcessor0"));
+  }
+}
@@ -1,11 +1,9 @@
 package be.snife.sbms.recommendation;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ConfigurableApplicationContext;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
@@ -20,17 +18,12 @@ import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
 
 import be.snife.sbms.recommendation.persistence.RecommendationEntity;
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 @SpringBootApplication
 @ComponentScan("be.snife.sbms")
 @Slf4j
 public class RecommendationServiceApplication {
 
-	private final Integer threadPoolSize;
-	private final Integer taskQueueSize;
-
 	public static void main(String[] args) {
 		ConfigurableApplicationContext ctx = SpringApplication.run(RecommendationServiceApplication.class, args);
 		log.info("Starting RecommendationServiceApplication microservice ...");
@@ -55,17 +48,4 @@ public class RecommendationServiceApplication {
 		resolver.resolveIndexFor(RecommendationEntity.class).forEach(e -> indexOps.ensureIndex(e));
 	}
 
-	@Autowired
-	public RecommendationServiceApplication(@Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-			@Value("${app.taskQueueSize:100}") Integer taskQueueSize) {
-		this.threadPoolSize = threadPoolSize;
-		this.taskQueueSize = taskQueueSize;
-	}
-
-	@Bean
-	public Scheduler publishEventScheduler() {
-		log.info("Creates a messagingScheduler with connectionPoolSize = {}", threadPoolSize);
-		return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
-	}
-
 }
@@ -1,10 +1,21 @@
 package be.snife.sbms.recommendation.persistence;
 
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 
 import reactor.core.publisher.Flux;
 
-public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
+public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String>, RecommendationRepositoryCustom {
   Flux<RecommendationEntity> findByProductId(int productId);
+
+  // ids and versions only, for the ETag of the recommendations of a product
+  Flux<RecommendationVersion> findVersionsByProductIdOrderByRecommendationIdAsc(int productId);
+
+  // keyset page, the range scan follows the prod-rec-id compound index
+  Flux<RecommendationEntity> findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(int productId, int recommendationId, Pageable pageable);
+
+  // single $in query, the sort follows the prod-rec-id compound index
+  Flux<RecommendationEntity> findByProductIdInOrderByProductIdAscRecommendationIdAsc(Collection<Integer> productIds);
 }
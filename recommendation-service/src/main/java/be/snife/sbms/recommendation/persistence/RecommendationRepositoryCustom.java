@@ -0,0 +1,15 @@
+package be.snife.sbms.recommendation.persistence;
+
+import java.util.Collection;
+import java.util.List;
+
+import reactor.core.publisher.Flux;
+
+public interface RecommendationRepositoryCustom {
+
+	// keyset page with a projection: only the ids, the rating, the version and the requested fields are read
+	Flux<RecommendationEntity> findPageByProductId(int productId, int afterRecommendationId, int limit, Collection<String> fields);
+
+	// new entities only, one unordered insertMany: a failed insert does not stop the others (BulkWriteException)
+	Flux<RecommendationEntity> insertAllUnordered(List<RecommendationEntity> entities);
+}
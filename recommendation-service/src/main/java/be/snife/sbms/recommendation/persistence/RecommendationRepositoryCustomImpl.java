@@ -0,0 +1,45 @@
+package be.snife.sbms.recommendation.persistence;
+
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import be.snife.sbms.util.persistence.MongoBulkInserts;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public class RecommendationRepositoryCustomImpl implements RecommendationRepositoryCustom {
+
+	private final ReactiveMongoTemplate mongoTemplate;
+
+	@Autowired
+	public RecommendationRepositoryCustomImpl(ReactiveMongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	@Override
+	public Flux<RecommendationEntity> findPageByProductId(int productId, int afterRecommendationId, int limit,
+			Collection<String> fields) {
+
+		// same range scan on the prod-rec-id index as findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc
+		Query query = query(where("productId").is(productId).and("recommendationId").gt(afterRecommendationId))
+				.with(Sort.by(ASC, "recommendationId"))
+				.limit(limit);
+		// the version is always read, the ETag of the recommendations is derived from it
+		query.fields().include("productId", "recommendationId", "rating", "version").include(fields.toArray(new String[0]));
+		return mongoTemplate.find(query, RecommendationEntity.class);
+	}
+
+	@Override
+	public Flux<RecommendationEntity> insertAllUnordered(List<RecommendationEntity> entities) {
+		return MongoBulkInserts.insertAllUnordered(mongoTemplate, RecommendationEntity.class, entities);
+	}
+}
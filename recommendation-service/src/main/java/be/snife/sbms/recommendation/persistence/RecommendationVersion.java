@@ -0,0 +1,11 @@
+package be.snife.sbms.recommendation.persistence;
+
+/**
+ * Closed projection of RecommendationEntity, only the id and the version are read.
+ */
+public interface RecommendationVersion {
+
+  int getRecommendationId();
+
+  Integer getVersion();
+}
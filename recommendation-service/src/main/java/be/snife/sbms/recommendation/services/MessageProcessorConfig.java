@@ -1,56 +1,128 @@
 package be.snife.sbms.recommendation.services;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
 import be.snife.sbms.api.core.recommendation.Recommendation;
 import be.snife.sbms.api.core.recommendation.RecommendationService;
 import be.snife.sbms.api.event.Event;
 import be.snife.sbms.api.exceptions.EventProcessingException;
+import be.snife.sbms.util.messaging.DeadLetterPublisher;
+import be.snife.sbms.util.messaging.EventBatchProcessor;
+import be.snife.sbms.util.messaging.EventPublisher;
+import be.snife.sbms.util.messaging.ReactiveEventProcessor;
+import be.snife.sbms.util.messaging.RetryTopics;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Configuration
 @Slf4j
 public class MessageProcessorConfig {
 
 	private final RecommendationService recommendationService;
+	private final RetryTopics retryTopics;
+	private final int concurrency;
+	private final int workers;
+	private final MeterRegistry meterRegistry;
 
 	@Autowired
-	public MessageProcessorConfig(RecommendationService recommendationService) {
+	public MessageProcessorConfig(RecommendationService recommendationService, EventPublisher eventPublisher, MeterRegistry meterRegistry,
+			@Value("${spring.cloud.stream.bindings.messageProcessor-in-0.destination}") String destination,
+			@Value("${spring.cloud.stream.bindings.messageProcessor-in-0.group}") String group,
+			@Value("${app.consumer.retry.delays}") List<Duration> retryDelays,
+			@Value("${app.consumer.concurrency}") int concurrency, @Value("${app.consumer.workers}") int workers) {
+
 		this.recommendationService = recommendationService;
+		this.retryTopics = new RetryTopics(eventPublisher, destination, retryDelays,
+				new DeadLetterPublisher(eventPublisher, destination, group));
+		this.concurrency = concurrency;
+		this.workers = workers;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * The app.consumer.workers threads shared by messageProcessor and retryProcessor, disposed with the context.
+	 */
+	@Bean(destroyMethod = "dispose")
+	public Scheduler eventWorkers() {
+		return Schedulers.newParallel("event-worker", workers, true);
+	}
+
+	/**
+	 * Writes the events of up to app.consumer.concurrency keys at the same time on app.consumer.workers threads,
+	 * the events of a key in order. A failed event is forwarded to the first retry topic, the binding does not wait.
+	 */
+	@Bean
+	public Function<Flux<Message<Event<Integer, Recommendation>>>, Mono<Void>> messageProcessor() {
+
+		ReactiveEventProcessor<Recommendation> processor = new ReactiveEventProcessor<>("messageProcessor-in-0",
+				message -> process(message.getPayload()), retryTopics, concurrency, eventWorkers(), meterRegistry);
+		return processor::process;
 	}
 
+	/**
+	 * Consumes a retry topic of messageProcessor, RetryBindings binds a copy per delay of app.consumer.retry.delays.
+	 * An event is handled when it is due and forwarded to the next retry topic when it fails again, or parked in the
+	 * dead letter destination. An event behind an older event of its key waits on its topic until that one is done.
+	 */
 	@Bean
-	public Consumer<Event<Integer, Recommendation>> messageProcessor() {
-		return event -> {
-			log.info("Recommendation Event received at {}...", event.getEventCreatedAt());
-			log.debug("[{} , {}, {}, {}]", event.getEventCreatedAt(), event.getEventType(), event.getKey(),
-					event.getData());
-
-			switch (event.getEventType()) {
-
-			case CREATE:
-				Recommendation recommendation = event.getData();
-				log.info("Creating Recommendation with ID: {} for Product with ID {}", recommendation.getRecommendationId(), recommendation.getProductId());
-				recommendationService.createRecommendation(recommendation).block();
-				break;
-
-			case DELETE:
-				int recommendationId = event.getKey();
-				log.info("Deleting Recommendation with ID: {}", recommendationId);
-				recommendationService.deleteRecommendations(recommendationId).block();
-				break;
-
-			default:
-				String errorMessage = "Incorrect event type: " + event.getEventType()
-						+ ", expected a CREATE or DELETE event";
-				log.warn(errorMessage);
-				throw new EventProcessingException(errorMessage);
-			}
-
-			log.info("Message processing done!");
-
-		};
+	public Function<Flux<Message<Event<Integer, Recommendation>>>, Mono<Void>> retryProcessor() {
+
+		ReactiveEventProcessor<Recommendation> processor = new ReactiveEventProcessor<>("retryProcessor-in-0",
+				message -> process(message.getPayload()), retryTopics, concurrency, eventWorkers(), meterRegistry);
+		return processor::processRetries;
+	}
+
+	/**
+	 * Used instead of messageProcessor with the batch_consumer profile, the binder passes the records of a poll
+	 * (app.consumer.batch.max-size, app.consumer.batch.max-wait-ms) and the creates are written with one bulk insert.
+	 */
+	@Bean
+	public Consumer<List<Event<Integer, Recommendation>>> batchMessageProcessor(
+			@Value("${app.consumer.batch.attempts}") int attempts, @Value("${app.consumer.batch.backoff}") Duration backoff) {
+
+		EventBatchProcessor<Recommendation> processor = new EventBatchProcessor<>("messageProcessor-in-0",
+				recommendationService::createRecommendations, event -> process(event).block(), retryTopics,
+				attempts, backoff, meterRegistry);
+		return processor::process;
+	}
+
+	private Mono<Void> process(Event<Integer, Recommendation> event) {
+		log.info("Recommendation Event received at {}...", event.getEventCreatedAt());
+		log.debug("[{} , {}, {}, {}]", event.getEventCreatedAt(), event.getEventType(), event.getKey(),
+				event.getData());
+
+		switch (event.getEventType()) {
+
+		case CREATE:
+			Recommendation recommendation = event.getData();
+			log.info("Creating Recommendation with ID: {} for Product with ID {}", recommendation.getRecommendationId(), recommendation.getProductId());
+			return recommendationService.createRecommendation(recommendation).then();
+
+		case CREATE_BATCH:
+			log.info("Creating {} Recommendations for Product with ID {}", event.getItems().size(), event.getKey());
+			return recommendationService.createRecommendations(event.getItems()).then();
+
+		case DELETE:
+			int recommendationId = event.getKey();
+			log.info("Deleting Recommendation with ID: {}", recommendationId);
+			return recommendationService.deleteRecommendations(recommendationId);
+
+		default:
+			String errorMessage = "Incorrect event type: " + event.getEventType()
+					+ ", expected a CREATE, CREATE_BATCH or DELETE event";
+			log.warn(errorMessage);
+			throw new EventProcessingException(errorMessage);
+		}
 	}
 }
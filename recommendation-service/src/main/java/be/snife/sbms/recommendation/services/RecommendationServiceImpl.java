@@ -3,13 +3,18 @@ package be.snife.sbms.recommendation.services;
 import static java.util.logging.Level.FINE;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -19,7 +24,6 @@ import org.springframework.web.bind.annotation.RestController;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 import be.snife.sbms.api.core.product.Product;
 import be.snife.sbms.api.core.recommendation.Recommendation;
 import be.snife.sbms.api.core.recommendation.RecommendationService;
@@ -28,7 +32,11 @@ import be.snife.sbms.api.event.Event.Type;
 import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.recommendation.persistence.RecommendationEntity;
 import be.snife.sbms.recommendation.persistence.RecommendationRepository;
+import be.snife.sbms.util.http.ConditionalGet;
+import be.snife.sbms.util.http.MultiGetValidator;
 import be.snife.sbms.util.http.ServiceUtil;
+import be.snife.sbms.util.messaging.ChangePublisher;
+import be.snife.sbms.util.messaging.EventPublisher;
 
 @RestController
 @Slf4j
@@ -37,16 +45,26 @@ public class RecommendationServiceImpl implements RecommendationService {
 	private final ServiceUtil serviceUtil;
 	private final RecommendationRepository repository;
 	private final RecommendationMapper mapper;
-	private final StreamBridge streamBridge;
-    private final Scheduler publishEventScheduler;
+	private final EventPublisher eventPublisher;
+	private final ChangePublisher changePublisher;
+    private final int multiGetMaxIds;
+    private final int pageMaxLimit;
+
+    // API field -> entity field, the ids and the rate are always returned
+    private static final Map<String, String> SELECTABLE_FIELDS = Map.of("author", "author", "content", "content");
 
 	@Autowired
-	public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper,ServiceUtil serviceUtil, StreamBridge streamBridge,@Qualifier("publishEventScheduler") Scheduler publishEventScheduler) {
+	public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper,ServiceUtil serviceUtil, EventPublisher eventPublisher,
+			@Value("${app.multi-get.max-ids:1000}") int multiGetMaxIds,
+			@Value("${app.page.max-limit:100}") int pageMaxLimit,
+			@Value("${app.changes.destination:recommendations-changes}") String changesDestination) {
 		this.serviceUtil = serviceUtil;
 		this.mapper = mapper;
 		this.repository = repository;
-		this.streamBridge = streamBridge;
-		this.publishEventScheduler = publishEventScheduler;
+		this.eventPublisher = eventPublisher;
+		this.changePublisher = new ChangePublisher(eventPublisher, changesDestination, "recommendation-service");
+		this.multiGetMaxIds = multiGetMaxIds;
+		this.pageMaxLimit = pageMaxLimit;
 	}
 
 	@Override
@@ -65,11 +83,37 @@ public class RecommendationServiceImpl implements RecommendationService {
 				//.log(log.getName(), FINE)
 				.onErrorMap(DuplicateKeyException.class,
 						ex -> new InvalidInputException("Duplicate key, Product Id: " + body.getProductId() + ", Recommendation Id:" + body.getRecommendationId()))
-				.map(ent -> mapper.entityToApi(ent));
+				.map(ent -> mapper.entityToApi(ent))
+				.flatMap(r -> changePublisher.changed(Type.CREATE, r.getProductId()).thenReturn(r));
 		
 		return newEntity;
 	}
 
+	@Override
+	public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+		body.forEach(recommendation -> {
+			if (recommendation.getProductId() < 1) {
+				throw new InvalidInputException("Invalid productId: " + recommendation.getProductId());
+			}
+			if (recommendation.getRecommendationId() < 1) {
+				throw new InvalidInputException("Invalid recommendationId: " + recommendation.getRecommendationId());
+			}
+		});
+
+		log.debug("Creating {} Recommendation entities with one bulk insert ...", body.size());
+		List<RecommendationEntity> entities = body.stream().map(r -> mapper.apiToEntity(r)).collect(Collectors.toList());
+		// one change event per product, published as soon as its first recommendation is written
+		return Flux.defer(() -> {
+			Set<Integer> changed = ConcurrentHashMap.newKeySet();
+			return repository.insertAllUnordered(entities)
+					.map(ent -> mapper.entityToApi(ent))
+					// the inserted recommendations are published before a BulkWriteException for the others
+					.concatMapDelayError(r -> changed.add(r.getProductId())
+							? changePublisher.changed(Type.CREATE, r.getProductId()).thenReturn(r)
+							: Mono.just(r));
+		});
+	}
+
 	@Override
 	public Flux<Recommendation> getRecommendations(int productId) {
 		log.debug("Getting Recommendations for Product with ID = {} on {}", productId, serviceUtil.getServiceAddress());
@@ -81,13 +125,65 @@ public class RecommendationServiceImpl implements RecommendationService {
 		Flux<Recommendation> recstream = repository.findByProductId(productId)
 				.map(r -> mapper.entityToApi(r))
 				.map(e -> setServiceAddress(e));
-		return recstream;	
+
+		// an If-None-Match is checked against the ids and versions only
+		return ConditionalGet.getAll(recommendationsEtag(productId),
+				recstream, recommendations -> ConditionalGet.etag(recommendations.stream()
+						.sorted(Comparator.comparingInt(Recommendation::getRecommendationId))
+						.map(r -> r.getRecommendationId() + ":" + r.getVersion()).toArray()));
+	}
+
+	@Override
+	public Flux<Recommendation> getRecommendationsPage(int productId, int limit, Integer after, List<String> fields) {
+		log.debug("Getting a page of {} Recommendations after {} for Product with ID = {} on {}", limit, after, productId,
+				serviceUtil.getServiceAddress());
+
+		if (productId < 1) {
+			throw new InvalidInputException("Invalid productId: " + productId);
+		}
+		if (limit < 1 || limit > pageMaxLimit) {
+			throw new InvalidInputException("Invalid limit: " + limit + ", expected 1 to " + pageMaxLimit);
+		}
+		if (fields != null) {
+			fields.stream().filter(field -> !SELECTABLE_FIELDS.containsKey(field)).findFirst().ifPresent(field -> {
+				throw new InvalidInputException("Invalid field: " + field + ", expected one of " + SELECTABLE_FIELDS.keySet());
+			});
+		}
+
+		int afterRecommendationId = after == null ? Integer.MIN_VALUE : after;
+		Flux<RecommendationEntity> page = fields == null
+				? repository.findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(productId, afterRecommendationId, PageRequest.of(0, limit))
+				: repository.findPageByProductId(productId, afterRecommendationId, limit,
+						fields.stream().map(SELECTABLE_FIELDS::get).collect(Collectors.toList()));
+
+		// the page has the ETag of all the recommendations of the product, read from the ids and versions only
+		return ConditionalGet.getPage(recommendationsEtag(productId), page
+				.map(r -> mapper.entityToApi(r))
+				.map(e -> setServiceAddress(e)));
+	}
+
+	private Mono<String> recommendationsEtag(int productId) {
+		return repository.findVersionsByProductIdOrderByRecommendationIdAsc(productId)
+				.map(r -> r.getRecommendationId() + ":" + r.getVersion()).collectList()
+				.map(versions -> ConditionalGet.etag(versions.toArray()));
+	}
+
+	@Override
+	public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+		log.debug("Getting Recommendations for {} Products on {}", productIds.size(), serviceUtil.getServiceAddress());
+
+		MultiGetValidator.validateIds("productId", productIds, multiGetMaxIds);
+
+		return repository.findByProductIdInOrderByProductIdAscRecommendationIdAsc(productIds)
+				.map(r -> mapper.entityToApi(r))
+				.map(e -> setServiceAddress(e));
 	}
 
 	@Override
 	public Mono<Void> deleteRecommendations(int productId) {
 		log.debug("Deleting Recommendations with productId: {}",productId);
-		return repository.deleteAll(repository.findByProductId(productId));
+		return repository.deleteAll(repository.findByProductId(productId))
+				.then(changePublisher.changed(Type.DELETE, productId));
 	}
 	
 	private Recommendation setServiceAddress(Recommendation e) {
@@ -97,22 +193,17 @@ public class RecommendationServiceImpl implements RecommendationService {
 	
 	@Override
 	public Mono<Void> publishRecommendationEvent(@RequestBody Event<Integer, Recommendation> event) {
-	    return Mono.fromCallable(() -> {
-	        sendMessage("recommendations-out-0", new Event<Integer, Recommendation>(event.getEventType(), event.getKey(), event.getData()));
-	        return event;
-	      }).then()
-	      .subscribeOn(publishEventScheduler);
+	    return sendMessage("recommendations-out-0", new Event<Integer, Recommendation>(event.getEventType(), event.getKey(), event.getData()));
 	}
 	
 
-    private void sendMessage(String bindingName, Event<Integer, Recommendation> event) {
+    private Mono<Void> sendMessage(String bindingName, Event<Integer, Recommendation> event) {
 	    log.debug("Sending a Recommendation {} message with ID {} to {}", event.getEventType(), event.getKey(),bindingName);
         Message<Event<Integer, Recommendation>> message = MessageBuilder.withPayload(event)
             .setHeader("partitionKey", event.getKey())
             .build();
-        streamBridge.send(bindingName, message);
-	    log.debug("{} Recommendation Message with ID {} sent to {}", event.getEventType(), event.getKey(), bindingName);
-
+        return eventPublisher.publish(bindingName, message)
+            .doOnSuccess(v -> log.debug("{} Recommendation Message with ID {} sent to {}", event.getEventType(), event.getKey(), bindingName));
   }
 	
 	
@@ -4,6 +4,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,6 +13,7 @@ import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoCo
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 
 import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.recommendation.persistence.RecommendationEntity;
@@ -116,6 +119,56 @@ class PersistenceTests extends MongoDbTestBase {
 	  
   }
 
+  @Test
+  void getByProductIds() {
+
+	RecommendationEntity otherProduct = repository.save(new RecommendationEntity(2, 1, "a", 9, "c")).block();
+	repository.save(new RecommendationEntity(3, 1, "a", 9, "c")).block();
+
+	StepVerifier.create(repository.findByProductIdInOrderByProductIdAscRecommendationIdAsc(List.of(2, 1)))
+      .expectNextMatches(foundEntity -> areRecommendationsEqual(savedEntity1, foundEntity))
+      .expectNextMatches(foundEntity -> areRecommendationsEqual(savedEntity2, foundEntity))
+      .expectNextMatches(foundEntity -> areRecommendationsEqual(otherProduct, foundEntity))
+     .verifyComplete();
+
+  }
+
+
+  @Test
+  void getPageByProductId() {
+
+	RecommendationEntity third = repository.save(new RecommendationEntity(1, 3, "a", 9, "c")).block();
+
+	StepVerifier.create(repository.findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(1, Integer.MIN_VALUE, PageRequest.of(0, 2)))
+      .expectNextMatches(foundEntity -> areRecommendationsEqual(savedEntity1, foundEntity))
+      .expectNextMatches(foundEntity -> areRecommendationsEqual(savedEntity2, foundEntity))
+      .verifyComplete();
+
+	StepVerifier.create(repository.findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(1, savedEntity2.getRecommendationId(), PageRequest.of(0, 2)))
+      .expectNextMatches(foundEntity -> areRecommendationsEqual(third, foundEntity))
+      .verifyComplete();
+  }
+
+  @Test
+  void getPageByProductIdWithFields() {
+
+	StepVerifier.create(repository.findPageByProductId(1, savedEntity1.getRecommendationId(), 2, List.of("author")))
+      .expectNextMatches(foundEntity -> foundEntity.getRecommendationId() == savedEntity2.getRecommendationId()
+          && foundEntity.getRating() == savedEntity2.getRating()
+          && savedEntity2.getAuthor().equals(foundEntity.getAuthor())
+          && foundEntity.getContent() == null)
+      .verifyComplete();
+  }
+
+  @Test
+  void getVersionsByProductId() {
+
+	StepVerifier.create(repository.findVersionsByProductIdOrderByRecommendationIdAsc(1))
+      .expectNextMatches(found -> found.getRecommendationId() == savedEntity1.getRecommendationId()
+          && savedEntity1.getVersion().equals(found.getVersion()))
+      .expectNextMatches(found -> found.getRecommendationId() == savedEntity2.getRecommendationId())
+      .verifyComplete();
+  }
 
 /* doesn't work with test container  
   @Test
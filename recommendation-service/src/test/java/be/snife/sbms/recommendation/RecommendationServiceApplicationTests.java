@@ -10,7 +10,7 @@ import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static reactor.core.publisher.Mono.just;
 
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -20,6 +20,8 @@ import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWeb
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.test.web.reactive.server.WebTestClient.BodyContentSpec;
 import org.springframework.test.web.reactive.server.WebTestClient.ResponseSpec;
@@ -32,6 +34,8 @@ import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.recommendation.persistence.RecommendationEntity;
 import be.snife.sbms.recommendation.persistence.RecommendationRepository;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
@@ -47,7 +51,7 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 	
 	@Autowired
 	@Qualifier("messageProcessor")
-	private Consumer<Event<Integer, Recommendation>> messageProcessor;
+	private Function<Flux<Message<Event<Integer, Recommendation>>>, Mono<Void>> messageProcessor;
 	
 
 	@BeforeEach
@@ -134,6 +138,20 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 		
 	}
 
+	@Test
+	void createRecommendationsBatch() {
+
+		int productId = 2;
+		List<Recommendation> recommendations = List.of(new Recommendation(productId, 1, "Author 2-1", 21, "Content 2-1", "AD1"),
+				new Recommendation(productId, 2, "Author 2-2", 22, "Content 2-2", "AD1"));
+
+		assertEquals(0,repository.findByProductId(productId).count().block());
+
+		publishRecommendationEvent(new Event<>(Type.CREATE_BATCH, productId, null, recommendations));
+
+		assertEquals(2,repository.findByProductId(productId).count().block());
+	}
+
 	/* doesn't work with test container  
 	@Test
 	void duplicateError() {
@@ -195,16 +213,16 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
 	
 	private void sendCreateRecommendationEvent(Recommendation recommendation) {
 		Event<Integer, Recommendation> event = new Event<>(Type.CREATE, recommendation.getProductId(), recommendation);
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 
 	private void sendDeleteRecommendationEvent(int productId) {
 		Event<Integer, Recommendation> event = new Event(Type.DELETE, productId, null);
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 
 	private void publishRecommendationEvent(Event<Integer, Recommendation> event) {
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 	
 }
\ No newline at end of file
@@ -1,6 +1,9 @@
 package be.snife.sbms.review;
 
+import java.time.Duration;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -8,6 +11,10 @@ import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 
+import be.snife.sbms.review.persistence.OutboxRepository;
+import be.snife.sbms.review.services.ReviewOutboxRelay;
+import be.snife.sbms.util.messaging.EventPublisher;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
@@ -33,6 +40,16 @@ public class ReviewServiceApplication {
 		return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "jdbc-pool");
 	}
 
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public ReviewOutboxRelay reviewOutboxRelay(OutboxRepository outboxRepository, EventPublisher eventPublisher,
+			@Qualifier("jdbcScheduler") Scheduler jdbcScheduler, MeterRegistry meterRegistry,
+			@Value("${app.outbox.relay.enabled:true}") boolean enabled,
+			@Value("${app.outbox.relay.poll-interval:500ms}") Duration pollInterval,
+			@Value("${app.outbox.relay.batch-size:200}") int batchSize) {
+		return new ReviewOutboxRelay(outboxRepository, eventPublisher, jdbcScheduler, meterRegistry, enabled,
+				"reviews-out-0", pollInterval, batchSize);
+	}
+
 	public static void main(String[] args) {
 		ConfigurableApplicationContext ctx = SpringApplication.run(ReviewServiceApplication.class, args);
 		log.info("Starting ReviewServiceApplication microservice ...");
@@ -40,10 +57,4 @@ public class ReviewServiceApplication {
 		log.info("Connected to MySQL: " + mysqlUri);
 	}
 
-	@Bean
-	public Scheduler publishEventScheduler() {
-		log.info("Creates a messagingScheduler with connectionPoolSize = {}", threadPoolSize);
-		return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
-	}
-	
 }
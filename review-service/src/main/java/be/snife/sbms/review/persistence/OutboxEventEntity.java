@@ -0,0 +1,36 @@
+package be.snife.sbms.review.persistence;
+
+import javax.persistence.*;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Entity
+// written in the same transaction as the reviews, read and deleted in id order by the outbox relay
+@Table(name = "review_outbox")
+@NoArgsConstructor
+
+public class OutboxEventEntity {
+
+  @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Getter
+  // PK, increasing in insert order
+  private long id;
+
+  @Getter
+  private int partitionKey;
+  @Getter
+  @Lob
+  // the event as JSON
+  private String payload;
+  @Getter
+  // epoch millis
+  private long createdAt;
+
+  public OutboxEventEntity(int partitionKey, String payload, long createdAt) {
+    this.partitionKey = partitionKey;
+    this.payload = payload;
+    this.createdAt = createdAt;
+  }
+
+}
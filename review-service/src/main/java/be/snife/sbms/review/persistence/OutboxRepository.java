@@ -0,0 +1,23 @@
+package be.snife.sbms.review.persistence;
+
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface OutboxRepository extends CrudRepository<OutboxEventEntity, Long> {
+
+  // the oldest events first, the page follows the primary key
+  @Transactional(readOnly = true)
+  List<OutboxEventEntity> findAllByOrderByIdAsc(Pageable pageable);
+
+  // one statement for a published batch
+  @Transactional
+  @Modifying
+  @Query("delete from OutboxEventEntity e where e.id in :ids")
+  int deletePublished(@Param("ids") Collection<Long> ids);
+}
@@ -14,7 +14,10 @@ import lombok.Setter;
 
 public class ReviewEntity {
 
-  @Id @GeneratedValue
+  @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "review_id")
+  // MySQL has no sequences, the ids are taken from the hibernate_sequence table used before by AUTO, in blocks of
+  // allocationSize (the JDBC batch size) so a batch of reviews is inserted without a round trip per id
+  @SequenceGenerator(name = "review_id", sequenceName = "hibernate_sequence", allocationSize = 50)
   @Getter @Setter
   // PK
   public int id;
@@ -0,0 +1,19 @@
+package be.snife.sbms.review.persistence;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Constructor projection of ReviewEntity without the content column, see ReviewRepository. The version is
+ * always read, the ETag of the reviews is derived from it.
+ */
+@AllArgsConstructor
+@Getter
+public class ReviewHeader {
+
+  private final int productId;
+  private final int reviewId;
+  private final String author;
+  private final String subject;
+  private final int version;
+}
@@ -1,11 +1,40 @@
 package be.snife.sbms.review.persistence;
 
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
 public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer> {
 
   @Transactional(readOnly = true)
   List<ReviewEntity> findByProductId(int productId);
+
+  // ids and versions only, for the ETag of the reviews of a product
+  @Transactional(readOnly = true)
+  List<ReviewVersion> findVersionsByProductIdOrderByReviewIdAsc(int productId);
+
+  // keyset page, the range scan follows the reviews_unique_idx index
+  @Transactional(readOnly = true)
+  List<ReviewEntity> findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(int productId, int reviewId, Pageable pageable);
+
+  // same keyset page without reading the content column
+  @Transactional(readOnly = true)
+  @Query("select new be.snife.sbms.review.persistence.ReviewHeader(r.productId, r.reviewId, r.author, r.subject, r.version) "
+      + "from ReviewEntity r where r.productId = :productId and r.reviewId > :reviewId order by r.reviewId")
+  List<ReviewHeader> findHeaderPageByProductId(@Param("productId") int productId, @Param("reviewId") int reviewId, Pageable pageable);
+
+  // single IN query, the sort follows the reviews_unique_idx index
+  @Transactional(readOnly = true)
+  List<ReviewEntity> findByProductIdInOrderByProductIdAscReviewIdAsc(Collection<Integer> productIds);
+
+  // keyset page of the same IN query, after the (productId, reviewId) of the last row of the previous page
+  @Transactional(readOnly = true)
+  @Query("select r from ReviewEntity r where r.productId in :productIds and (r.productId > :productId "
+      + "or (r.productId = :productId and r.reviewId > :reviewId)) order by r.productId, r.reviewId")
+  List<ReviewEntity> findPageByProductIdIn(@Param("productIds") Collection<Integer> productIds,
+      @Param("productId") int productId, @Param("reviewId") int reviewId, Pageable pageable);
 }
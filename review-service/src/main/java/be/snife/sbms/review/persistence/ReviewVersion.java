@@ -0,0 +1,11 @@
+package be.snife.sbms.review.persistence;
+
+/**
+ * Closed projection of ReviewEntity, only the id and the version columns are selected.
+ */
+public interface ReviewVersion {
+
+  int getReviewId();
+
+  int getVersion();
+}
@@ -1,56 +1,160 @@
 package be.snife.sbms.review.services;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
 import be.snife.sbms.api.core.review.Review;
 import be.snife.sbms.api.core.review.ReviewService;
 import be.snife.sbms.api.event.Event;
 import be.snife.sbms.api.exceptions.EventProcessingException;
+import be.snife.sbms.util.messaging.DeadLetterPublisher;
+import be.snife.sbms.util.messaging.EventBatchProcessor;
+import be.snife.sbms.util.messaging.EventPublisher;
+import be.snife.sbms.util.messaging.ReactiveEventProcessor;
+import be.snife.sbms.util.messaging.RetryTopics;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @Configuration
 @Slf4j
 public class MessageProcessorConfig {
 
 	private final ReviewService reviewService;
+	private final RetryTopics retryTopics;
+	private final int concurrency;
+	private final int workers;
+	private final MeterRegistry meterRegistry;
 
 	@Autowired
-	public MessageProcessorConfig(ReviewService reviewService) {
+	public MessageProcessorConfig(ReviewService reviewService, EventPublisher eventPublisher, MeterRegistry meterRegistry,
+			@Value("${spring.cloud.stream.bindings.messageProcessor-in-0.destination}") String destination,
+			@Value("${spring.cloud.stream.bindings.messageProcessor-in-0.group}") String group,
+			@Value("${app.consumer.retry.delays}") List<Duration> retryDelays,
+			@Value("${app.consumer.concurrency}") int concurrency, @Value("${app.consumer.workers}") int workers) {
+
 		this.reviewService = reviewService;
+		this.retryTopics = new RetryTopics(eventPublisher, destination, retryDelays,
+				new DeadLetterPublisher(eventPublisher, destination, group));
+		this.concurrency = concurrency;
+		this.workers = workers;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * The app.consumer.workers threads shared by messageProcessor and retryProcessor, disposed with the context.
+	 */
+	@Bean(destroyMethod = "dispose")
+	public Scheduler eventWorkers() {
+		return Schedulers.newParallel("event-worker", workers, true);
 	}
 
+	/**
+	 * Writes the events of up to app.consumer.concurrency keys at the same time on app.consumer.workers threads,
+	 * the events of a key in order. A failed event is forwarded to the first retry topic, the binding does not wait.
+	 */
 	@Bean
-	public Consumer<Event<Integer, Review>> messageProcessor() {
-		return event -> {
-			log.info("Review Event received at {}...", event.getEventCreatedAt());
-			log.debug("[{} , {}, {}, {}]", event.getEventCreatedAt(), event.getEventType(), event.getKey(),
-					event.getData());
-
-			switch (event.getEventType()) {
-
-			case CREATE:
-				Review review = event.getData();
-				log.info("Creating Review with ID: {} for Product with ID {}", review.getReviewId(), review.getProductId());
-				reviewService.createReview(review).block();
-				break;
-
-			case DELETE:
-				int productId = event.getKey();
-				log.info("Deleting Review with ID: {}", productId);
-				reviewService.deleteReviews(productId).block();
-				break;
-
-			default:
-				String errorMessage = "Incorrect event type: " + event.getEventType()
-						+ ", expected a CREATE or DELETE event";
-				log.warn(errorMessage);
-				throw new EventProcessingException(errorMessage);
-			}
+	public Function<Flux<Message<Event<Integer, Review>>>, Mono<Void>> messageProcessor() {
+
+		ReactiveEventProcessor<Review> processor = new ReactiveEventProcessor<>("messageProcessor-in-0", this::handle,
+				retryTopics, concurrency, eventWorkers(), meterRegistry);
+		return processor::process;
+	}
 
-			log.info("Message processing done!");
+	/**
+	 * Consumes a retry topic of messageProcessor, RetryBindings binds a copy per delay of app.consumer.retry.delays.
+	 * An event is handled when it is due and forwarded to the next retry topic when it fails again, or parked in the
+	 * dead letter destination. An event behind an older event of its key waits on its topic until that one is done.
+	 */
+	@Bean
+	public Function<Flux<Message<Event<Integer, Review>>>, Mono<Void>> retryProcessor() {
+
+		ReactiveEventProcessor<Review> processor = new ReactiveEventProcessor<>("retryProcessor-in-0",
+				this::handle, retryTopics, concurrency, eventWorkers(), meterRegistry);
+		return processor::processRetries;
+	}
 
+	/**
+	 * Used instead of messageProcessor with the batch_consumer profile (Kafka binder), the binder passes the records
+	 * of a poll (app.consumer.batch.max-size, app.consumer.batch.max-wait-ms) and the creates are written with one
+	 * JDBC batch insert.
+	 */
+	@Bean
+	public Consumer<Message<List<Event<Integer, Review>>>> batchMessageProcessor(
+			@Value("${app.consumer.batch.attempts}") int attempts, @Value("${app.consumer.batch.backoff}") Duration backoff) {
+
+		EventBatchProcessor<Review> processor = new EventBatchProcessor<>("messageProcessor-in-0",
+				reviewService::createReviews, event -> process(event).block(), retryTopics, attempts, backoff, meterRegistry);
+		return message -> {
+			// the headers of each record of the batch
+			List<?> headers = message.getHeaders().get(KafkaHeaders.BATCH_CONVERTED_HEADERS, List.class);
+			List<Event<Integer, Review>> events = new ArrayList<>();
+			for (int i = 0; i < message.getPayload().size(); i++) {
+				Object source = headers == null ? null : ((Map<?, ?>) headers.get(i)).get(ReviewOutboxRelay.SOURCE_HEADER);
+				if (!isOwnEvent(source)) {
+					events.add(message.getPayload().get(i));
+				}
+			}
+			processor.process(events);
 		};
 	}
+
+	private Mono<Void> handle(Message<Event<Integer, Review>> message) {
+		Event<Integer, Review> event = message.getPayload();
+
+		// the outbox events of this service are published to the same destination
+		if (isOwnEvent(message.getHeaders().get(ReviewOutboxRelay.SOURCE_HEADER))) {
+			log.debug("Skips the Review {} event with key {} published by this service", event.getEventType(),
+					event.getKey());
+			return Mono.empty();
+		}
+		return process(event);
+	}
+
+	private boolean isOwnEvent(Object source) {
+		Object value = source instanceof byte[] ? new String((byte[]) source, StandardCharsets.UTF_8) : source;
+		return ReviewOutboxRelay.SOURCE.equals(value);
+	}
+
+	private Mono<Void> process(Event<Integer, Review> event) {
+		log.info("Review Event received at {}...", event.getEventCreatedAt());
+		log.debug("[{} , {}, {}, {}]", event.getEventCreatedAt(), event.getEventType(), event.getKey(),
+				event.getData());
+
+		switch (event.getEventType()) {
+
+		case CREATE:
+			Review review = event.getData();
+			log.info("Creating Review with ID: {} for Product with ID {}", review.getReviewId(), review.getProductId());
+			return reviewService.createReview(review).then();
+
+		case CREATE_BATCH:
+			log.info("Creating {} Reviews for Product with ID {}", event.getItems().size(), event.getKey());
+			return reviewService.createReviews(event.getItems()).then();
+
+		case DELETE:
+			int productId = event.getKey();
+			log.info("Deleting Review with ID: {}", productId);
+			return reviewService.deleteReviews(productId);
+
+		default:
+			String errorMessage = "Incorrect event type: " + event.getEventType()
+					+ ", expected a CREATE, CREATE_BATCH or DELETE event";
+			log.warn(errorMessage);
+			throw new EventProcessingException(errorMessage);
+		}
+	}
 }
@@ -0,0 +1,149 @@
+package be.snife.sbms.review.services;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import be.snife.sbms.review.persistence.OutboxEventEntity;
+import be.snife.sbms.review.persistence.OutboxRepository;
+import be.snife.sbms.util.messaging.ChangePublisher;
+import be.snife.sbms.util.messaging.EventPublisher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Publishes the events of the review outbox, in id order, to the reviews-out-0 binding.
+ *
+ * Every poll interval a batch of at most batchSize events is read, published and then deleted, each in
+ * its own short transaction; a full batch is followed by the next one right away. A batch that is not
+ * completely published is read again at the next poll, so delivery is at least once. The events are
+ * published with header eventSource=review-service, so the message processor of this service skips them.
+ *
+ * Only one instance may relay the outbox of a database, otherwise the order per product is lost.
+ * Metrics: "review.outbox.lag" (age of the oldest event not yet published), "review.outbox.batch.size"
+ * and "review.outbox.published".
+ */
+@Slf4j
+public class ReviewOutboxRelay {
+
+	// the outbox events are the change events of the review service (see ChangePublisher)
+	public static final String SOURCE_HEADER = ChangePublisher.SOURCE_HEADER;
+	public static final String SOURCE = "review-service";
+
+	private final OutboxRepository repository;
+	private final EventPublisher eventPublisher;
+	private final Scheduler jdbcScheduler;
+	private final boolean enabled;
+	private final String bindingName;
+	private final Duration pollInterval;
+	private final int batchSize;
+
+	private final AtomicLong lagMillis = new AtomicLong();
+	private final DistributionSummary batchSizes;
+	private final Counter published;
+	private Disposable polling;
+
+	public ReviewOutboxRelay(OutboxRepository repository, EventPublisher eventPublisher, Scheduler jdbcScheduler,
+			MeterRegistry meterRegistry, boolean enabled, String bindingName, Duration pollInterval, int batchSize) {
+
+		log.info("Creates a review outbox relay: enabled = {}, bindingName = {}, pollInterval = {}, batchSize = {}",
+				enabled, bindingName, pollInterval, batchSize);
+
+		this.repository = repository;
+		this.eventPublisher = eventPublisher;
+		this.jdbcScheduler = jdbcScheduler;
+		this.enabled = enabled;
+		this.bindingName = bindingName;
+		this.pollInterval = pollInterval;
+		this.batchSize = batchSize;
+
+		Gauge.builder("review.outbox.lag", lagMillis, AtomicLong::get)
+				.description("Age of the oldest outbox event not yet published")
+				.baseUnit("milliseconds")
+				.register(meterRegistry);
+		this.batchSizes = DistributionSummary.builder("review.outbox.batch.size")
+				.description("Outbox events read per batch")
+				.register(meterRegistry);
+		this.published = Counter.builder("review.outbox.published")
+				.description("Outbox events published")
+				.register(meterRegistry);
+	}
+
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		// a relay round that takes longer than the interval skips the next tick instead of queueing it
+		polling = Flux.interval(pollInterval)
+				.onBackpressureDrop()
+				.flatMap(tick -> relay(), 1)
+				.subscribe();
+	}
+
+	public void stop() {
+		if (polling != null) {
+			polling.dispose();
+		}
+	}
+
+	/**
+	 * Relays batches until the outbox is empty, a failure ends the round.
+	 */
+	Mono<Void> relay() {
+		return relayBatch()
+				.expand(count -> count == batchSize ? relayBatch() : Mono.empty())
+				.then()
+				.onErrorResume(ex -> {
+					log.warn("Failed to relay the review outbox, retries in {}: {}", pollInterval, ex.toString());
+					return Mono.empty();
+				});
+	}
+
+	private Mono<Integer> relayBatch() {
+		return Mono.fromCallable(() -> repository.findAllByOrderByIdAsc(PageRequest.of(0, batchSize)))
+				.subscribeOn(jdbcScheduler)
+				.flatMap(batch -> {
+					lagMillis.set(batch.isEmpty() ? 0 : System.currentTimeMillis() - batch.get(0).getCreatedAt());
+					if (batch.isEmpty()) {
+						return Mono.just(0);
+					}
+					batchSizes.record(batch.size());
+
+					// queued in id order, the EventPublisher hands them to the binder in that order
+					List<Long> ids = batch.stream().map(OutboxEventEntity::getId).collect(Collectors.toList());
+					return Flux.fromIterable(batch)
+							.flatMap(event -> eventPublisher.publish(bindingName, toMessage(event)), batch.size())
+							.then(Mono.fromCallable(() -> repository.deletePublished(ids)).subscribeOn(jdbcScheduler))
+							.doOnSuccess(deleted -> {
+								published.increment(batch.size());
+								log.debug("Relayed {} review outbox events", batch.size());
+							})
+							.thenReturn(batch.size());
+				});
+	}
+
+	// the payload is already JSON, the binder sends a byte[] as it is
+	private Message<byte[]> toMessage(OutboxEventEntity event) {
+		return MessageBuilder.withPayload(event.getPayload().getBytes(UTF_8))
+				.setHeader("partitionKey", event.getPartitionKey())
+				.setHeader(SOURCE_HEADER, SOURCE)
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON_VALUE)
+				.build();
+	}
+}
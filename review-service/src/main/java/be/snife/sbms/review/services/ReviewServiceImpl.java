@@ -3,18 +3,27 @@ package be.snife.sbms.review.services;
 import static java.util.logging.Level.FINE;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -23,10 +32,16 @@ import be.snife.sbms.api.core.review.Review;
 import be.snife.sbms.api.core.review.ReviewService;
 import be.snife.sbms.api.event.Event;
 import be.snife.sbms.api.event.Event.Type;
+import be.snife.sbms.api.exceptions.BulkWriteException;
 import be.snife.sbms.api.exceptions.InvalidInputException;
+import be.snife.sbms.review.persistence.OutboxEventEntity;
+import be.snife.sbms.review.persistence.OutboxRepository;
 import be.snife.sbms.review.persistence.ReviewEntity;
 import be.snife.sbms.review.persistence.ReviewRepository;
+import be.snife.sbms.util.http.ConditionalGet;
+import be.snife.sbms.util.http.MultiGetValidator;
 import be.snife.sbms.util.http.ServiceUtil;
+import be.snife.sbms.util.messaging.EventPublisher;
 
 @RestController
 @Slf4j
@@ -36,19 +51,36 @@ public class ReviewServiceImpl implements ReviewService {
 	private final ReviewRepository repository;
 	private final ReviewMapper mapper;
 	private final Scheduler jdbcScheduler;
-	private final StreamBridge streamBridge;
-    private final Scheduler publishEventScheduler;
+	private final EventPublisher eventPublisher;
+	private final OutboxRepository outboxRepository;
+	private final TransactionTemplate transactionTemplate;
+	private final ObjectMapper objectMapper;
+    private final int multiGetMaxIds;
+    private final int multiGetPageSize;
+    private final int pageMaxLimit;
+
+    // the ids are always returned
+    private static final Set<String> SELECTABLE_FIELDS = Set.of("author", "subject", "content");
 	
 
 	@Autowired
 	public ReviewServiceImpl(@Qualifier("jdbcScheduler") Scheduler jdbcScheduler, ReviewRepository repository,
-			ReviewMapper mapper, ServiceUtil serviceUtil, StreamBridge streamBridge,@Qualifier("publishEventScheduler") Scheduler publishEventScheduler) {
+			ReviewMapper mapper, ServiceUtil serviceUtil, EventPublisher eventPublisher,
+			OutboxRepository outboxRepository, TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+			@Value("${app.multi-get.max-ids:1000}") int multiGetMaxIds,
+			@Value("${app.multi-get.page-size:500}") int multiGetPageSize,
+			@Value("${app.page.max-limit:100}") int pageMaxLimit) {
 		this.jdbcScheduler = jdbcScheduler;
 		this.repository = repository;
 		this.mapper = mapper;
 		this.serviceUtil = serviceUtil;
-		this.streamBridge = streamBridge;
-		this.publishEventScheduler = publishEventScheduler;
+		this.eventPublisher = eventPublisher;
+		this.outboxRepository = outboxRepository;
+		this.transactionTemplate = transactionTemplate;
+		this.objectMapper = objectMapper;
+		this.multiGetMaxIds = multiGetMaxIds;
+		this.multiGetPageSize = multiGetPageSize;
+		this.pageMaxLimit = pageMaxLimit;
 	}
 
 	@Override
@@ -66,7 +98,12 @@ public class ReviewServiceImpl implements ReviewService {
 
 		try {
 			ReviewEntity entity = mapper.apiToEntity(body);
-			ReviewEntity newEntity = repository.save(entity);
+			// the review and its outbox event are committed together
+			ReviewEntity newEntity = transactionTemplate.execute(status -> {
+				ReviewEntity saved = repository.save(entity);
+				addToOutbox(new Event<Integer, Review>(Type.CREATE, saved.getProductId(), mapper.entityToApi(saved)));
+				return saved;
+			});
 
 			log.debug("Review for Product with ID = {} and ReviewID {} is stored", body.getProductId(),body.getReviewId());
 			Review res = mapper.entityToApi(newEntity);
@@ -80,6 +117,70 @@ public class ReviewServiceImpl implements ReviewService {
 		}
 	}
 
+	@Override
+	public Flux<Review> createReviews(List<Review> body) {
+
+		body.forEach(review -> {
+			if (review.getProductId() < 1) {
+				throw new InvalidInputException("Invalid productId: " + review.getProductId());
+			}
+		});
+		if (body.isEmpty()) {
+			return Flux.empty();
+		}
+		return Mono.fromCallable(() -> internalCreateReviews(body)).flatMapMany(Flux::fromIterable).subscribeOn(jdbcScheduler);
+	}
+
+	/**
+	 * The inserts are sent as JDBC batches (spring.jpa.properties.hibernate.jdbc.batch_size), the reviews and
+	 * a CREATE_BATCH outbox event per product are committed together. When the transaction fails on a duplicate key
+	 * the reviews are split in halves, each saved in its own transaction, down to the reviews that fail on their own:
+	 * the others are stored and the error is a BulkWriteException listing the reviews that are not.
+	 */
+	public List<Review> internalCreateReviews(List<Review> body) {
+		log.debug("Creating {} Reviews with one bulk write on {}", body.size(), serviceUtil.getServiceAddress());
+
+		List<ReviewEntity> newEntities = new ArrayList<>();
+		List<Integer> failed = new ArrayList<>();
+		saveAllSplitting(body, 0, newEntities, failed);
+		if (!failed.isEmpty()) {
+			throw new BulkWriteException("Duplicate key for " + failed.size() + " of a batch of " + body.size() + " reviews",
+					failed, null);
+		}
+
+		List<Review> list = mapper.entityListToApiList(newEntities);
+		list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+		return list;
+	}
+
+	private void saveAllSplitting(List<Review> body, int offset, List<ReviewEntity> saved, List<Integer> failed) {
+		try {
+			saved.addAll(saveAll(body));
+		} catch (DataIntegrityViolationException dive) {
+			if (body.size() == 1) {
+				failed.add(offset);
+				return;
+			}
+			int half = body.size() / 2;
+			saveAllSplitting(body.subList(0, half), offset, saved, failed);
+			saveAllSplitting(body.subList(half, body.size()), offset + half, saved, failed);
+		}
+	}
+
+	private List<ReviewEntity> saveAll(List<Review> body) {
+		// new entities for every transaction, an entity of a rolled back transaction keeps its generated id
+		List<ReviewEntity> entities = body.stream().map(r -> mapper.apiToEntity(r)).collect(Collectors.toList());
+		return transactionTemplate.execute(status -> {
+			List<ReviewEntity> saved = new ArrayList<>();
+			repository.saveAll(entities).forEach(saved::add);
+			// one outbox event per product, the reviews of a consumed batch can belong to several products
+			mapper.entityListToApiList(saved).stream()
+					.collect(Collectors.groupingBy(Review::getProductId, LinkedHashMap::new, Collectors.toList()))
+					.forEach((productId, created) -> addToOutbox(new Event<Integer, Review>(Type.CREATE_BATCH, productId, null, created)));
+			return saved;
+		});
+	}
+
 	@Override
 	public Flux<Review> getReviews(int productId) {
 
@@ -89,8 +190,20 @@ public class ReviewServiceImpl implements ReviewService {
 
 		log.info("Will get reviews for product with id={}", productId);
 
-		return Mono.fromCallable(() -> internalGetReviews(productId)).flatMapMany(Flux::fromIterable)
+		Flux<Review> reviews = Mono.fromCallable(() -> internalGetReviews(productId)).flatMapMany(Flux::fromIterable)
 				.log(log.getName(), FINE).subscribeOn(jdbcScheduler);
+
+		// an If-None-Match is checked against the ids and versions only
+		return ConditionalGet.getAll(
+				Mono.fromCallable(() -> internalGetReviewsEtag(productId)).subscribeOn(jdbcScheduler),
+				reviews, list -> ConditionalGet.etag(list.stream()
+						.sorted(Comparator.comparingInt(Review::getReviewId))
+						.map(r -> r.getReviewId() + ":" + r.getVersion()).toArray()));
+	}
+
+	public String internalGetReviewsEtag(int productId) {
+		return ConditionalGet.etag(repository.findVersionsByProductIdOrderByReviewIdAsc(productId).stream()
+				.map(r -> r.getReviewId() + ":" + r.getVersion()).toArray());
 	}
 
 	public List<Review> internalGetReviews(int productId) {
@@ -109,6 +222,96 @@ public class ReviewServiceImpl implements ReviewService {
 		return list;
 	}
 
+	@Override
+	public Flux<Review> getReviewsPage(int productId, int limit, Integer after, List<String> fields) {
+
+		if (productId < 1) {
+			throw new InvalidInputException("Invalid productId: " + productId);
+		}
+		if (limit < 1 || limit > pageMaxLimit) {
+			throw new InvalidInputException("Invalid limit: " + limit + ", expected 1 to " + pageMaxLimit);
+		}
+		if (fields != null) {
+			fields.stream().filter(field -> !SELECTABLE_FIELDS.contains(field)).findFirst().ifPresent(field -> {
+				throw new InvalidInputException("Invalid field: " + field + ", expected one of " + SELECTABLE_FIELDS);
+			});
+		}
+
+		log.info("Will get a page of {} reviews after {} for product with id={}", limit, after, productId);
+
+		// the page has the ETag of all the reviews of the product, read from the ids and versions only
+		return ConditionalGet.getPage(Mono.fromCallable(() -> internalGetReviewsEtag(productId)).subscribeOn(jdbcScheduler),
+				Mono.fromCallable(() -> internalGetReviewsPage(productId, limit, after, fields)).flatMapMany(Flux::fromIterable)
+						.log(log.getName(), FINE).subscribeOn(jdbcScheduler));
+	}
+
+	public List<Review> internalGetReviewsPage(int productId, int limit, Integer after, List<String> fields) {
+		log.debug("Getting a page of Reviews for Product with ID = {} on {}", productId, serviceUtil.getServiceAddress());
+
+		int afterReviewId = after == null ? Integer.MIN_VALUE : after;
+		List<Review> list;
+		if (fields == null || fields.contains("content")) {
+			List<ReviewEntity> entityList = repository.findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(productId,
+					afterReviewId, PageRequest.of(0, limit));
+			list = mapper.entityListToApiList(entityList);
+		} else {
+			// the content column is not needed, only read the header columns
+			list = repository.findHeaderPageByProductId(productId, afterReviewId, PageRequest.of(0, limit)).stream()
+					.map(h -> {
+						Review review = new Review(h.getProductId(), h.getReviewId(), h.getAuthor(), h.getSubject(), null, null);
+						review.setVersion(h.getVersion());
+						return review;
+					})
+					.collect(Collectors.toList());
+		}
+		list.forEach(e -> {
+			e.setServiceAddress(serviceUtil.getServiceAddress());
+			if (fields != null) {
+				e.setAuthor(fields.contains("author") ? e.getAuthor() : null);
+				e.setSubject(fields.contains("subject") ? e.getSubject() : null);
+			}
+		});
+
+		log.debug("/reviews page response size: {}", list.size());
+
+		return list;
+	}
+
+	@Override
+	public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+
+		MultiGetValidator.validateIds("productId", productIds, multiGetMaxIds);
+
+		log.info("Will get reviews for {} products", productIds.size());
+
+		// keyset pages read on the jdbc scheduler, the next page is only read when the previous one is consumed
+		return readReviewsPageForProducts(productIds, 0, 0)
+				.expand(page -> page.size() < multiGetPageSize ? Mono.empty()
+						: readReviewsPageForProducts(productIds, page.get(page.size() - 1).getProductId(),
+								page.get(page.size() - 1).getReviewId()))
+				.flatMapIterable(page -> page, 1)
+				.log(log.getName(), FINE);
+	}
+
+	private Mono<List<Review>> readReviewsPageForProducts(List<Integer> productIds, int afterProductId, int afterReviewId) {
+		return Mono.fromCallable(() -> internalGetReviewsPageForProducts(productIds, afterProductId, afterReviewId))
+				.subscribeOn(jdbcScheduler);
+	}
+
+	public List<Review> internalGetReviewsPageForProducts(List<Integer> productIds, int afterProductId, int afterReviewId) {
+		log.debug("Getting a page of Reviews for {} Products after {}/{} on {}", productIds.size(), afterProductId,
+				afterReviewId, serviceUtil.getServiceAddress());
+
+		List<ReviewEntity> entityList = repository.findPageByProductIdIn(productIds, afterProductId, afterReviewId,
+				PageRequest.of(0, multiGetPageSize));
+		List<Review> list = mapper.entityListToApiList(entityList);
+		list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+
+		log.debug("/reviews page response size: {}", list.size());
+
+		return list;
+	}
+
 	@Override
 	public Mono<Void> deleteReviews(int productId) {
 
@@ -122,28 +325,39 @@ public class ReviewServiceImpl implements ReviewService {
 	public void internalDeleteReviews(int productId) {
 		log.debug("Deleting all Reviews for Product with ID = {} on {}", productId, serviceUtil.getServiceAddress());
 
-		repository.deleteAll(repository.findByProductId(productId));
+		transactionTemplate.executeWithoutResult(status -> {
+			repository.deleteAll(repository.findByProductId(productId));
+			addToOutbox(new Event<Integer, Review>(Type.DELETE, productId, null));
+		});
 		log.debug("All Reviews Deleted for Product with ID = {} on {}", productId, serviceUtil.getServiceAddress());
 	}
 	
+	/**
+	 * Must be called in the transaction that changes the reviews, the ReviewOutboxRelay publishes the event
+	 * after the commit.
+	 */
+	private void addToOutbox(Event<Integer, Review> event) {
+		try {
+			outboxRepository.save(new OutboxEventEntity(event.getKey(), objectMapper.writeValueAsString(event),
+					System.currentTimeMillis()));
+		} catch (JsonProcessingException ex) {
+			throw new IllegalStateException("Failed to serialize a review " + event.getEventType() + " event", ex);
+		}
+	}
+
 	@Override
 	public Mono<Void> publishReviewEvent(@RequestBody Event<Integer, Review> msg) {
-	    return Mono.fromCallable(() -> {
-	        sendMessage("reviews-out-0", new Event<Integer, Review>(msg.getEventType(), msg.getKey(), msg.getData()));
-	        return msg;
-	      }).then()
-	      .subscribeOn(publishEventScheduler);
+	    return sendMessage("reviews-out-0", new Event<Integer, Review>(msg.getEventType(), msg.getKey(), msg.getData()));
 	}
 	
 
-    private void sendMessage(String bindingName, Event<Integer, Review> event) {
+    private Mono<Void> sendMessage(String bindingName, Event<Integer, Review> event) {
 	    log.debug("Sending a Review {} message with ID {} to {}", event.getEventType(), event.getKey(),bindingName);
         Message<Event<Integer, Review>> message = MessageBuilder.withPayload(event)
             .setHeader("partitionKey", event.getKey())
             .build();
-        streamBridge.send(bindingName, message);
-	    log.debug("{} Review Message with ID {} sent to {}", event.getEventType(), event.getKey(), bindingName);
-
+        return eventPublisher.publish(bindingName, message)
+            .doOnSuccess(v -> log.debug("{} Review Message with ID {} sent to {}", event.getEventType(), event.getKey(), bindingName));
   }
 
 
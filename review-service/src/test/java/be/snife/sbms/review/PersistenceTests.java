@@ -13,10 +13,15 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.transaction.annotation.Transactional;
 
+import be.snife.sbms.review.persistence.OutboxEventEntity;
+import be.snife.sbms.review.persistence.OutboxRepository;
 import be.snife.sbms.review.persistence.ReviewEntity;
+import be.snife.sbms.review.persistence.ReviewHeader;
 import be.snife.sbms.review.persistence.ReviewRepository;
+import be.snife.sbms.review.persistence.ReviewVersion;
 
 @DataJpaTest
 @Transactional(propagation = NOT_SUPPORTED)
@@ -26,11 +31,15 @@ class PersistenceTests extends MySqlTestBase {
   @Autowired
   private ReviewRepository repository;
 
+  @Autowired
+  private OutboxRepository outboxRepository;
+
   private ReviewEntity savedEntity;
 
   @BeforeEach
   void setupDb() {
     repository.deleteAll();
+    outboxRepository.deleteAll();
 
     ReviewEntity entity = new ReviewEntity(1, 2, "a", "s", "c");
     savedEntity = repository.save(entity);
@@ -75,6 +84,81 @@ class PersistenceTests extends MySqlTestBase {
     assertEqualsReview(savedEntity, entityList.get(0));
   }
 
+  @Test
+  void getByProductIds() {
+    ReviewEntity otherProduct = repository.save(new ReviewEntity(2, 1, "a", "s", "c"));
+    repository.save(new ReviewEntity(3, 1, "a", "s", "c"));
+
+    List<ReviewEntity> entityList = repository.findByProductIdInOrderByProductIdAscReviewIdAsc(List.of(2, 1));
+
+    assertThat(entityList, hasSize(2));
+    assertEqualsReview(savedEntity, entityList.get(0));
+    assertEqualsReview(otherProduct, entityList.get(1));
+  }
+
+  @Test
+  void getPageByProductIds() {
+    ReviewEntity otherProduct = repository.save(new ReviewEntity(2, 1, "a", "s", "c"));
+    repository.save(new ReviewEntity(3, 1, "a", "s", "c"));
+
+    // the page after the last review of product 1 starts at the first review of product 2
+    List<ReviewEntity> entityList = repository.findPageByProductIdIn(List.of(2, 1), savedEntity.getProductId(),
+        savedEntity.getReviewId(), PageRequest.of(0, 10));
+
+    assertThat(entityList, hasSize(1));
+    assertEqualsReview(otherProduct, entityList.get(0));
+  }
+
+  @Test
+  void getPageByProductId() {
+    ReviewEntity first = repository.save(new ReviewEntity(1, 1, "a", "s", "c"));
+    ReviewEntity third = repository.save(new ReviewEntity(1, 3, "a", "s", "c"));
+
+    List<ReviewEntity> firstPage = repository.findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(1, Integer.MIN_VALUE, PageRequest.of(0, 2));
+    assertThat(firstPage, hasSize(2));
+    assertEqualsReview(first, firstPage.get(0));
+    assertEqualsReview(savedEntity, firstPage.get(1));
+
+    List<ReviewEntity> lastPage = repository.findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(1, savedEntity.getReviewId(), PageRequest.of(0, 2));
+    assertThat(lastPage, hasSize(1));
+    assertEqualsReview(third, lastPage.get(0));
+  }
+
+  @Test
+  void getVersionsByProductId() {
+    List<ReviewVersion> versions = repository.findVersionsByProductIdOrderByReviewIdAsc(1);
+
+    assertThat(versions, hasSize(1));
+    assertEquals(savedEntity.getReviewId(), versions.get(0).getReviewId());
+    assertEquals(savedEntity.getVersion(), versions.get(0).getVersion());
+  }
+
+  @Test
+  void getHeaderPageByProductId() {
+    List<ReviewHeader> page = repository.findHeaderPageByProductId(1, Integer.MIN_VALUE, PageRequest.of(0, 2));
+
+    assertThat(page, hasSize(1));
+    assertEquals(savedEntity.getReviewId(), page.get(0).getReviewId());
+    assertEquals(savedEntity.getAuthor(), page.get(0).getAuthor());
+    assertEquals(savedEntity.getSubject(), page.get(0).getSubject());
+  }
+
+  @Test
+  void readAndDeleteOutboxInIdOrder() {
+    OutboxEventEntity first = outboxRepository.save(new OutboxEventEntity(1, "{\"n\":1}", 1));
+    OutboxEventEntity second = outboxRepository.save(new OutboxEventEntity(2, "{\"n\":2}", 2));
+    outboxRepository.save(new OutboxEventEntity(1, "{\"n\":3}", 3));
+
+    List<OutboxEventEntity> batch = outboxRepository.findAllByOrderByIdAsc(PageRequest.of(0, 2));
+    assertThat(batch, hasSize(2));
+    assertEquals(first.getId(), batch.get(0).getId());
+    assertEquals(second.getId(), batch.get(1).getId());
+    assertEquals("{\"n\":1}", batch.get(0).getPayload());
+
+    assertEquals(2, outboxRepository.deletePublished(List.of(first.getId(), second.getId())));
+    assertEquals(1, outboxRepository.count());
+  }
+
   @Test
   void duplicateError() {
     assertThrows(DataIntegrityViolationException.class, () -> {
@@ -8,7 +8,8 @@ import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static reactor.core.publisher.Mono.just;
 
-import java.util.function.Consumer;
+import java.util.List;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -18,16 +19,24 @@ import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWeb
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
 import be.snife.sbms.api.core.recommendation.Recommendation;
 import be.snife.sbms.api.core.review.Review;
+import be.snife.sbms.api.core.review.ReviewService;
 import be.snife.sbms.api.event.Event;
 import be.snife.sbms.api.event.Event.Type;
+import be.snife.sbms.api.exceptions.BulkWriteException;
 import be.snife.sbms.api.exceptions.InvalidInputException;
 import be.snife.sbms.review.persistence.ReviewEntity;
 import be.snife.sbms.review.persistence.ReviewRepository;
+import be.snife.sbms.review.services.ReviewOutboxRelay;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
 @AutoConfigureWebTestClient
@@ -40,6 +49,9 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 	@Autowired
 	private ReviewRepository repository;
 
+	@Autowired
+	private ReviewService reviewService;
+
 	@BeforeEach
 	void setupDb() {
 		repository.deleteAll();
@@ -53,7 +65,10 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 
 	@Autowired
 	@Qualifier("messageProcessor")
-	private Consumer<Event<Integer, Review>> messageProcessor;
+	private Function<Flux<Message<Event<Integer, Review>>>, Mono<Void>> messageProcessor;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
 
 	@Test
 	void getReviewsByProductId() {
@@ -123,6 +138,36 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 		
 	}	
 	
+	@Test
+	void createReviewsBatch() {
+
+		int productId = 2;
+		List<Review> reviews = List.of(new Review(productId, 1, "Author 2-1", "Subject 2-1", "Content 2-1", "AD1"),
+				new Review(productId, 2, "Author 2-2", "Subject 2-2", "Content 2-2", "AD1"));
+
+		assertEquals(0,repository.findByProductId(productId).size());
+
+		publishReviewEvent(new Event<>(Type.CREATE_BATCH, productId, null, reviews));
+
+		assertEquals(2,repository.findByProductId(productId).size());
+	}
+
+	@Test
+	void createReviewsBatchStoresAllButTheDuplicates() {
+
+		int productId = 1;
+		List<Review> reviews = List.of(new Review(productId, 4, "Author 4", "Subject 4", "Content 4", "AD1"),
+				new Review(productId, 2, "Author 2", "Subject 2", "Content 2", "AD1"),
+				new Review(productId, 5, "Author 5", "Subject 5", "Content 5", "AD1"),
+				new Review(productId, 3, "Author 3", "Subject 3", "Content 3", "AD1"));
+
+		BulkWriteException ex = assertThrows(BulkWriteException.class,
+				() -> reviewService.createReviews(reviews).collectList().block());
+
+		assertEquals(List.of(1, 3), ex.getFailedIndexes());
+		assertEquals(5, repository.findByProductId(productId).size());
+	}
+
 	@Test
 	void duplicateError() {
 
@@ -131,11 +176,12 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 		Review rev = new Review(productId, 1, "Author 2-1","Subject 2-1","Content 2-1","AD1");
 
 		assertEquals(3, repository.findByProductId(productId).size());
+		double retried = retried();
 
-		InvalidInputException thrown = assertThrows(InvalidInputException.class, () -> sendCreateReviewEvent(rev),
-				"Expected a InvalidInputException here!");
-		assertEquals("Duplicate key, Product Id: 1, Review Id:1", thrown.getMessage());
+		// the InvalidInputException does not fail the consumer, the event is forwarded to the first retry topic
+		sendCreateReviewEvent(rev);
 
+		assertEquals(retried + 1, retried());
 		assertEquals(3, repository.findByProductId(productId).size());
 
 	}
@@ -154,6 +200,19 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 		
 	}
 
+	@Test
+	void skipsOwnOutboxEvents() {
+
+		int productId = 2;
+		Review rev = new Review(productId, 1, "Author 2-1","Subject 2-1","Content 2-1","AD1");
+		Event<Integer, Review> event = new Event<>(Type.CREATE, productId, rev);
+
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event)
+				.setHeader(ReviewOutboxRelay.SOURCE_HEADER, ReviewOutboxRelay.SOURCE).build())).block();
+
+		assertEquals(0, repository.findByProductId(productId).size());
+	}
+
 	private WebTestClient.BodyContentSpec getAndVerifyReviewsByProductId(int productId, HttpStatus expectedStatus) {
 		return getAndVerifyReviewsByProductId("?productId=" + productId, expectedStatus);
 	}
@@ -178,16 +237,21 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
 	
 	private void sendCreateReviewEvent(Review review) {
 		Event<Integer, Review> event = new Event<>(Type.CREATE, review.getProductId(), review);
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 
 	private void sendDeleteReviewEvent(int reviewId) {
 		Event<Integer, Review> event = new Event(Type.DELETE, reviewId, null);
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
+	}
+
+	private double retried() {
+		return meterRegistry.get("events.consumed").tag("binding", "messageProcessor-in-0").tag("mode", "retry").counter()
+				.count();
 	}
 
 	private void publishReviewEvent(Event<Integer, Review> event) {
-		messageProcessor.accept(event);
+		messageProcessor.apply(Flux.just(MessageBuilder.withPayload(event).build())).block();
 	}
 	
 }
\ No newline at end of file